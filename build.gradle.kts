@@ -41,9 +41,22 @@ java {
     targetCompatibility = JavaVersion.VERSION_1_8
 }
 
+// The "benchmarks" source set contains JMH performance tests for the event pipeline. They are
+// not part of the regular build or test run; use "./gradlew benchmark" (see CONTRIBUTING.md).
+sourceSets {
+    create("benchmarks") {
+        compileClasspath += sourceSets["main"].output
+        runtimeClasspath += sourceSets["main"].output
+    }
+}
+
+configurations["benchmarksImplementation"].extendsFrom(configurations.implementation.get())
+
 dependencies {  // see Dependencies.kt in buildSrc
     Libs.implementation.forEach { api(it)}
     Libs.javaTestImplementation.forEach { testImplementation(it) }
+    Libs.benchmarksImplementation.forEach { "benchmarksImplementation"(it) }
+    Libs.benchmarksAnnotationProcessor.forEach { "benchmarksAnnotationProcessor"(it) }
 
     testImplementation("com.launchdarkly:test-helpers:${Versions.testHelpers}")
     // see build-android.gradle about the reason for special-casing this
@@ -65,6 +78,20 @@ helpers.Jacoco.configureTasks(  // see Jacoco.kt in buildSrc
 
 helpers.Idea.configure(idea)
 
+tasks.register<JavaExec>("benchmark") {
+    description = "Runs the JMH benchmarks, reporting throughput and allocation per operation."
+    group = "verification"
+    classpath = sourceSets["benchmarks"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val resultsFile = file("$buildDir/reports/benchmarks/results.json")
+    // "-Pbenchmarks=<regex>" selects a subset of benchmarks, as in "-Pbenchmarks=EventSummarizer"
+    val include = project.findProperty("benchmarks")?.toString()
+    args = listOf("-prof", "gc", "-rf", "json", "-rff", resultsFile.path) + listOfNotNull(include)
+    doFirst {
+        resultsFile.parentFile.mkdirs()
+    }
+}
+
 publishing {
     publications {
         create<MavenPublication>("mavenJava") {
@@ -4,6 +4,7 @@
 
 object Versions {
     const val gson = "2.8.9"
+    const val jmh = "1.37"
     const val launchdarklyJavaSdkCommon = "2.1.1"
     const val launchdarklyLogging = "1.1.1"
     const val okhttp = "4.9.1"
@@ -34,6 +35,15 @@ object Libs {
         // test-helpers is special-cased in build.gradle.kts and build-android.gradle
     )
 
+    // These are used only in the "benchmarks" source set; see build.gradle.kts.
+    val benchmarksImplementation = listOf(
+        "org.openjdk.jmh:jmh-core:${Versions.jmh}"
+    )
+
+    val benchmarksAnnotationProcessor = listOf(
+        "org.openjdk.jmh:jmh-generator-annprocess:${Versions.jmh}"
+    )
+
     val androidTestImplementation = javaTestImplementation + listOf(    
         "androidx.test:core:1.4.0",
         "androidx.test:runner:1.4.0",
@@ -0,0 +1,261 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.AttributeRef;
+import com.launchdarkly.sdk.ContextKind;
+import com.launchdarkly.sdk.EvaluationReason;
+import com.launchdarkly.sdk.LDContext;
+import com.launchdarkly.sdk.LDValue;
+import com.launchdarkly.sdk.ObjectBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Shared test data for the benchmarks. Everything here is built once, outside of the measured
+ * code, so that the benchmarks only measure the event pipeline itself.
+ */
+final class BenchmarkInputs {
+  static final long FAKE_TIME = 100000;
+  static final URI FAKE_URI = URI.create("http://fake");
+
+  static final LDContext SIMPLE_CONTEXT = LDContext.create("user-key");
+
+  static final LDContext CONTEXT_WITH_ATTRIBUTES = LDContext.builder("user-key")
+      .name("Lucy")
+      .set("email", "lucy@example.com")
+      .set("country", "NZ")
+      .set("age", 32)
+      .set("groups", LDValue.buildArray().add("a").add("b").add("c").build())
+      .set("address", LDValue.buildObject().put("street", "1 Main St").put("city", "Oakland").build())
+      .privateAttributes("email")
+      .build();
+
+  static final LDContext MULTI_CONTEXT = LDContext.createMulti(
+      CONTEXT_WITH_ATTRIBUTES,
+      LDContext.builder(ContextKind.of("org"), "org-key").name("Acme").set("tier", "gold").build(),
+      LDContext.create(ContextKind.of("device"), "device-key")
+      );
+
+  static final LDContext NESTED_CONTEXT = LDContext.builder("user-key")
+      .name("Lucy")
+      .set("email", "lucy@example.com")
+      .set("profile", nestedObject(4, 4))
+      .set("settings", nestedObject(3, 6))
+      .build();
+
+  private BenchmarkInputs() {}
+
+  /**
+   * Returns a flag value for benchmarks of value serialization.
+   *
+   * @param shape "string", "object" (a small JSON object), or "large" (a JSON object with many
+   *   nested objects and arrays, like a large configuration flag)
+   * @return the value
+   */
+  static LDValue flagValue(String shape) {
+    switch (shape) {
+    case "string":
+      return LDValue.of("variation-value");
+    case "object":
+      return LDValue.buildObject().put("enabled", true).put("limit", 100).put("label", "blue").build();
+    case "large":
+      ObjectBuilder b = LDValue.buildObject();
+      for (int i = 0; i < 50; i++) {
+        b.put("item" + i, LDValue.buildObject()
+            .put("id", i)
+            .put("weight", i / 3.0)
+            .put("name", "item <" + i + ">")
+            .put("tags", LDValue.buildArray().add("a").add("b").add(i).build())
+            .put("nested", nestedObject(2, 3))
+            .build());
+      }
+      return b.build();
+    default:
+      throw new IllegalArgumentException("unknown value shape: " + shape);
+    }
+  }
+
+  private static LDValue nestedObject(int depth, int width) {
+    ObjectBuilder b = LDValue.buildObject();
+    for (int i = 0; i < width; i++) {
+      b.put("p" + i, depth <= 1 ? LDValue.of("value" + i) : nestedObject(depth - 1, width));
+    }
+    return b.build();
+  }
+
+  /**
+   * Returns private attribute references for benchmarks of redaction.
+   *
+   * @param count the number of references; the first few match attributes of the prebuilt contexts,
+   *   and the rest are nested paths that mostly do not match anything
+   * @return the attribute references
+   */
+  static AttributeRef[] privateAttributes(int count) {
+    AttributeRef[] ret = new AttributeRef[count];
+    String[] matching = { "name", "/address/city", "/profile/p1/p2/p3", "/settings/p5" };
+    for (int i = 0; i < count; i++) {
+      ret[i] = i < matching.length ? AttributeRef.fromPath(matching[i]) :
+        AttributeRef.fromPath("/profile/p" + (i % 4) + "/x" + i + "/p0");
+    }
+    return ret;
+  }
+
+  /**
+   * Returns one of the prebuilt contexts.
+   *
+   * @param shape "simple", "attributes", "multi", or "nested"
+   * @return the context
+   */
+  static LDContext context(String shape) {
+    switch (shape) {
+    case "simple":
+      return SIMPLE_CONTEXT;
+    case "attributes":
+      return CONTEXT_WITH_ATTRIBUTES;
+    case "multi":
+      return MULTI_CONTEXT;
+    case "nested":
+      return NESTED_CONTEXT;
+    default:
+      throw new IllegalArgumentException("unknown context shape: " + shape);
+    }
+  }
+
+  /**
+   * Builds distinct context instances with the same kinds as one of the prebuilt contexts, but
+   * no other attributes.
+   *
+   * @param shape "multi" for multi-kind contexts; any other shape produces single-kind contexts
+   * @param count the number of contexts
+   * @return the contexts
+   */
+  static LDContext[] distinctContexts(String shape, int count) {
+    LDContext[] ret = new LDContext[count];
+    for (int i = 0; i < count; i++) {
+      LDContext c = LDContext.create("user-key-" + i);
+      ret[i] = shape.equals("multi") ?
+          LDContext.createMulti(c, LDContext.create(ContextKind.of("org"), "org-key-" + i),
+              LDContext.create(ContextKind.of("device"), "device-key-" + i)) :
+          c;
+    }
+    return ret;
+  }
+
+  static String[] flagKeys(int count) {
+    String[] ret = new String[count];
+    for (int i = 0; i < count; i++) {
+      ret[i] = "flag-" + i;
+    }
+    return ret;
+  }
+
+  /**
+   * Builds summary-only evaluation events (the most common kind of event) for the given flags,
+   * alternating between two variations.
+   */
+  static Event.FeatureRequest[] featureEvents(LDContext context, String[] flagKeys, int count) {
+    Event.FeatureRequest[] ret = new Event.FeatureRequest[count];
+    for (int i = 0; i < count; i++) {
+      int variation = i % 2;
+      ret[i] = new Event.FeatureRequest(FAKE_TIME + i, flagKeys[i % flagKeys.length], context, 11, variation,
+          LDValue.of(variation == 0), LDValue.of(false), null, null, false, null, false);
+    }
+    return ret;
+  }
+
+  /**
+   * Builds a realistic mix of output events: full feature events with reasons, custom events,
+   * and identify events.
+   */
+  static Event[] mixedOutputEvents(LDContext context, String[] flagKeys, int count) {
+    List<Event> ret = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      switch (i % 3) {
+      case 0:
+        ret.add(new Event.FeatureRequest(FAKE_TIME + i, flagKeys[i % flagKeys.length], context, 11, 1,
+            LDValue.of("value"), LDValue.of("default"), EvaluationReason.fallthrough(), null, true, null, false));
+        break;
+      case 1:
+        ret.add(new Event.Custom(FAKE_TIME + i, "custom-event", context,
+            LDValue.buildObject().put("amount", i).build(), 1.5));
+        break;
+      default:
+        ret.add(new Event.Identify(FAKE_TIME + i, context));
+        break;
+      }
+    }
+    return ret.toArray(new Event[ret.size()]);
+  }
+
+  static EventsConfiguration makeConfig(EventSender eventSender, int capacity, long flushIntervalMillis) {
+    return makeConfig(eventSender, capacity, flushIntervalMillis, false);
+  }
+
+  static EventsConfiguration makeConfig(EventSender eventSender, int capacity, long flushIntervalMillis,
+      boolean summarizeOnCallingThreads) {
+    return EventsConfiguration.builder()
+        .capacity(capacity)
+        .diagnosticRecordingIntervalMillis(1000000)
+        .eventSender(eventSender)
+        .eventSendingThreadPoolSize(1)
+        .eventsUri(FAKE_URI)
+        .flushIntervalMillis(flushIntervalMillis)
+        .privateAttributes(new HashSet<>(Arrays.asList(AttributeRef.fromLiteral("email"))))
+        .summarizeOnCallingThreads(summarizeOnCallingThreads)
+        .build();
+  }
+
+  /**
+   * An EventSender that discards everything, so that delivery doesn't affect the measurements.
+   */
+  static final class NoOpEventSender implements EventSender {
+    private static final Result SUCCESS = new Result(true, false, null);
+
+    @Override
+    public Result sendAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
+      return SUCCESS;
+    }
+
+    @Override
+    public Result sendCompressedAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
+      return SUCCESS;
+    }
+
+    @Override
+    public Result sendAnalyticsPayload(Payload payload, int eventCount, URI eventsBaseUri) {
+      return SUCCESS;
+    }
+
+    @Override
+    public Result sendDiagnosticEvent(byte[] data, URI eventsBaseUri) {
+      return SUCCESS;
+    }
+
+    @Override
+    public void close() throws IOException {}
+  }
+
+  /**
+   * A Writer that discards everything, so that only the work of producing the output is measured.
+   */
+  static final class NullWriter extends Writer {
+    static final NullWriter INSTANCE = new NullWriter();
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {}
+
+    @Override
+    public void write(String str, int off, int len) {}
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,59 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.google.gson.stream.JsonWriter;
+import com.launchdarkly.sdk.LDContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link EventContextFormatter#write}, including private attribute redaction. Output goes
+ * to a Writer that discards everything, so only the formatter's own work is measured.
+ * <p>
+ * With 40 private attributes and the "nested" context, most of the time goes into deciding which
+ * properties of deeply nested objects are private, so this shows the cost of that lookup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventContextFormatterBenchmarks {
+  @Param({"simple", "attributes", "multi", "nested"})
+  public String contextShape;
+
+  @Param({"0", "2", "40"})
+  public int privateAttributeCount;
+
+  private EventContextFormatter formatter;
+  private LDContext context;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    formatter = new EventContextFormatter(false, BenchmarkInputs.privateAttributes(privateAttributeCount));
+    context = BenchmarkInputs.context(contextShape);
+  }
+
+  @Benchmark
+  public void write() throws IOException {
+    JsonWriter jw = new JsonWriter(BenchmarkInputs.NullWriter.INSTANCE);
+    jw.beginArray();
+    formatter.write(context, jw, false);
+    jw.endArray();
+    jw.flush();
+  }
+}
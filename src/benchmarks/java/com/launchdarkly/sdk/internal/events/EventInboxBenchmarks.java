@@ -0,0 +1,174 @@
+package com.launchdarkly.sdk.internal.events;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link EventInbox} with the ArrayBlockingQueue it replaced, as the number of producer
+ * threads grows. Each benchmark method is the same operation run with a different number of
+ * threads; a background consumer thread drains the queue in batches, the same way the
+ * EventDispatcher does.
+ * <p>
+ * The "accepted" and "rejected" counters show how many offers succeeded or were dropped because
+ * the queue was full.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventInboxBenchmarks {
+  private static final int BATCH_SIZE = 50;
+
+  @State(Scope.Benchmark)
+  public static class QueueState {
+    @Param({"EventInbox", "ArrayBlockingQueue"})
+    public String implementation;
+
+    @Param({"10000"})
+    public int capacity;
+
+    Queue queue;
+    Thread consumer;
+    volatile boolean stopping;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      queue = implementation.equals("EventInbox") ? new InboxQueue(capacity) : new BlockingQueueAdapter(capacity);
+      stopping = false;
+      consumer = new Thread(() -> {
+        List<Object> batch = new ArrayList<>(BATCH_SIZE);
+        while (!stopping) {
+          batch.clear();
+          try {
+            queue.takeBatch(batch);
+          } catch (InterruptedException e) {}
+        }
+      });
+      consumer.setDaemon(true);
+      consumer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+      stopping = true;
+      consumer.interrupt();
+      consumer.join();
+    }
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class OfferCounters {
+    public long accepted;
+    public long rejected;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      accepted = 0;
+      rejected = 0;
+    }
+  }
+
+  private static final Object ITEM = new Object();
+
+  private static void offer(QueueState state, OfferCounters counters) {
+    if (state.queue.offer(ITEM)) {
+      counters.accepted++;
+    } else {
+      counters.rejected++;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void offer01Producer(QueueState state, OfferCounters counters) {
+    offer(state, counters);
+  }
+
+  @Benchmark
+  @Threads(2)
+  public void offer02Producers(QueueState state, OfferCounters counters) {
+    offer(state, counters);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void offer04Producers(QueueState state, OfferCounters counters) {
+    offer(state, counters);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void offer08Producers(QueueState state, OfferCounters counters) {
+    offer(state, counters);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void offerMaxProducers(QueueState state, OfferCounters counters) {
+    offer(state, counters);
+  }
+
+  private interface Queue {
+    boolean offer(Object item);
+
+    void takeBatch(List<Object> batch) throws InterruptedException;
+  }
+
+  private static final class InboxQueue implements Queue {
+    private final EventInbox<Object> inbox;
+
+    InboxQueue(int capacity) {
+      inbox = new EventInbox<>(capacity);
+    }
+
+    @Override
+    public boolean offer(Object item) {
+      return inbox.offer(item);
+    }
+
+    @Override
+    public void takeBatch(List<Object> batch) throws InterruptedException {
+      batch.add(inbox.take());
+      inbox.drainTo(batch, BATCH_SIZE - 1);
+    }
+  }
+
+  private static final class BlockingQueueAdapter implements Queue {
+    private final ArrayBlockingQueue<Object> queue;
+
+    BlockingQueueAdapter(int capacity) {
+      queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public boolean offer(Object item) {
+      return queue.offer(item);
+    }
+
+    @Override
+    public void takeBatch(List<Object> batch) throws InterruptedException {
+      batch.add(queue.take());
+      queue.drainTo(batch, BATCH_SIZE - 1);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.LDContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link EventOutputFormatter#writeOutputEvents}, writing a whole payload the same way
+ * the flush workers do. The output stream is reused so that only the formatter's own allocations
+ * are counted by the GC profiler.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventOutputFormatterBenchmarks {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @Param({"simple", "multi"})
+  public String contextShape;
+
+  @Param({"100", "1000"})
+  public int eventCount;
+
+  private EventOutputFormatter formatter;
+  private Event[] events;
+  private EventSummarizer.EventSummary summary;
+  private ByteArrayOutputStream output;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    LDContext context = BenchmarkInputs.context(contextShape);
+    String[] flagKeys = BenchmarkInputs.flagKeys(50);
+    formatter = new EventOutputFormatter(BenchmarkInputs.makeConfig(null, eventCount, 1000000));
+    events = BenchmarkInputs.mixedOutputEvents(context, flagKeys, eventCount);
+    EventSummarizer summarizer = new EventSummarizer();
+    for (Event.FeatureRequest fe: BenchmarkInputs.featureEvents(context, flagKeys, eventCount)) {
+      summarizer.summarizeEvent(fe.getCreationDate(), fe.getKey(), fe.getVersion(), fe.getVariation(),
+          fe.getValue(), fe.getDefaultVal(), fe.getContext());
+    }
+    summary = summarizer.getSummaryAndReset();
+    output = new ByteArrayOutputStream(eventCount * 500);
+  }
+
+  @Benchmark
+  public int writeOutputEvents() throws IOException {
+    output.reset();
+    Writer writer = new BufferedWriter(new OutputStreamWriter(output, UTF8), 8192);
+    int count = formatter.writeOutputEvents(events, summary, writer);
+    writer.flush();
+    return count + output.size();
+  }
+}
@@ -0,0 +1,90 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.logging.LDLogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost to the application thread of {@link DefaultEventProcessor#sendEvent(Event)},
+ * with a real dispatcher thread and flushes going to a no-op {@link EventSender}.
+ * <p>
+ * The events are summary-only evaluation events, which are by far the most common kind. When
+ * {@code flushIntervalMillis} is large enough that no flush happens during the run, neither the
+ * application thread nor the dispatcher thread should allocate anything once the summary
+ * counters exist, so {@code gc.alloc.rate.norm} should be close to zero. With
+ * {@code summarizeOnCallingThreads}, these events are counted on the calling thread and do not
+ * go through the inbox at all.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventProcessorBenchmarks {
+  @State(Scope.Benchmark)
+  public static class ProcessorState {
+    @Param({"simple", "multi"})
+    public String contextShape;
+
+    @Param({"10", "1000"})
+    public int flagCount;
+
+    @Param({"100", "1000000"})
+    public long flushIntervalMillis;
+
+    @Param({"false", "true"})
+    public boolean summarizeOnCallingThreads;
+
+    DefaultEventProcessor processor;
+    ScheduledExecutorService executor;
+    Event.FeatureRequest[] events;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      executor = Executors.newSingleThreadScheduledExecutor();
+      processor = new DefaultEventProcessor(
+          BenchmarkInputs.makeConfig(new BenchmarkInputs.NoOpEventSender(), 10000, flushIntervalMillis,
+              summarizeOnCallingThreads),
+          executor,
+          Thread.NORM_PRIORITY,
+          LDLogger.none()
+          );
+      events = BenchmarkInputs.featureEvents(BenchmarkInputs.context(contextShape),
+          BenchmarkInputs.flagKeys(flagCount), 4096);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      processor.close();
+      executor.shutdown();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    int index;
+  }
+
+  @Benchmark
+  public void sendEvent(ProcessorState state, ThreadState threadState) {
+    Event.FeatureRequest[] events = state.events;
+    state.processor.sendEvent(events[threadState.index++ & (events.length - 1)]);
+  }
+}
@@ -0,0 +1,94 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.LDContext;
+import com.launchdarkly.sdk.LDValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link EventSummarizer#summarizeEvent}, which the dispatcher thread calls for every
+ * evaluation event. The summarizer is reset once per iteration, so most calls update existing
+ * counters, as they do in steady state. {@link #summarizeFlushIntervals()} also clears the summary
+ * periodically, as a flush does, so its allocation rate includes whatever has to be recreated at
+ * the start of each summary period. {@link #summarizeEventWithDistinctContexts()} uses a different
+ * context instance for every call, so the context kinds have to be looked up each time rather than
+ * reusing the kinds of the previous context.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventSummarizerBenchmarks {
+  private static final int EVENTS_PER_FLUSH = 10000;
+
+  @Param({"simple", "multi"})
+  public String contextShape;
+
+  @Param({"10", "1000"})
+  public int flagCount;
+
+  private EventSummarizer summarizer;
+  private LDContext context;
+  private LDContext[] distinctContexts;
+  private String[] flagKeys;
+  private LDValue[] values;
+  private LDValue defaultValue;
+  private int index;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() {
+    context = BenchmarkInputs.context(contextShape);
+    distinctContexts = BenchmarkInputs.distinctContexts(contextShape, 1000);
+    flagKeys = BenchmarkInputs.flagKeys(flagCount);
+    values = new LDValue[] { LDValue.of(false), LDValue.of(true) };
+    defaultValue = LDValue.of(false);
+  }
+
+  @Setup(Level.Iteration)
+  public void setUpIteration() {
+    summarizer = new EventSummarizer();
+  }
+
+  @Benchmark
+  public void summarizeEvent() {
+    int i = index++;
+    int variation = i & 1;
+    summarizer.summarizeEvent(BenchmarkInputs.FAKE_TIME + i, flagKeys[i % flagKeys.length], 11, variation,
+        values[variation], defaultValue, context);
+  }
+
+  @Benchmark
+  public void summarizeEventWithDistinctContexts() {
+    int i = index++;
+    int variation = i & 1;
+    summarizer.summarizeEvent(BenchmarkInputs.FAKE_TIME + i, flagKeys[i % flagKeys.length], 11, variation,
+        values[variation], defaultValue, distinctContexts[i % distinctContexts.length]);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS_PER_FLUSH)
+  public void summarizeFlushIntervals() {
+    for (int i = 0; i < EVENTS_PER_FLUSH; i++) {
+      int variation = i & 1;
+      summarizer.summarizeEvent(BenchmarkInputs.FAKE_TIME + i, flagKeys[i % flagKeys.length], 11, variation,
+          values[variation], defaultValue, context);
+    }
+    summarizer.clear();
+  }
+}
@@ -0,0 +1,75 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.google.gson.stream.JsonWriter;
+import com.launchdarkly.sdk.EvaluationReason;
+import com.launchdarkly.sdk.LDValue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.launchdarkly.sdk.internal.GsonHelpers.gsonInstance;
+
+/**
+ * Compares {@link JsonValueWriter} with serializing the same flag values and evaluation reasons
+ * through Gson's type adapters, which is what the event output formatter used to do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonValueWriterBenchmarks {
+  @Param({"string", "object", "large"})
+  public String valueShape;
+
+  private LDValue value;
+  private EvaluationReason reason;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    value = BenchmarkInputs.flagValue(valueShape);
+    reason = EvaluationReason.ruleMatch(1, "rule-id");
+  }
+
+  @Benchmark
+  public void valueWithGson() throws IOException {
+    JsonWriter jw = new JsonWriter(BenchmarkInputs.NullWriter.INSTANCE);
+    gsonInstance().toJson(value, LDValue.class, jw);
+    jw.flush();
+  }
+
+  @Benchmark
+  public void valueDirect() throws IOException {
+    JsonWriter jw = new JsonWriter(BenchmarkInputs.NullWriter.INSTANCE);
+    JsonValueWriter.writeLDValue(value, jw);
+    jw.flush();
+  }
+
+  @Benchmark
+  public void reasonWithGson() throws IOException {
+    JsonWriter jw = new JsonWriter(BenchmarkInputs.NullWriter.INSTANCE);
+    gsonInstance().toJson(reason, EvaluationReason.class, jw);
+    jw.flush();
+  }
+
+  @Benchmark
+  public void reasonDirect() throws IOException {
+    JsonWriter jw = new JsonWriter(BenchmarkInputs.NullWriter.INSTANCE);
+    JsonValueWriter.writeEvaluationReason(reason, jw);
+    jw.flush();
+  }
+}
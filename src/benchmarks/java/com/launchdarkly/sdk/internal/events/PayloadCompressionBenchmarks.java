@@ -0,0 +1,97 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.LDContext;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the CPU cost of writing a payload with and without gzip compression, at several
+ * compression levels, the same way the flush workers do. The "payloadBytes" counter is the total
+ * number of bytes that would be sent over the network; dividing it by the throughput score gives
+ * the size of each payload, so the two numbers together show what each level costs and saves.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadCompressionBenchmarks {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int BUFFER_SIZE = 8192;
+
+  @Param({"none", "1", "6", "9"})
+  public String level;
+
+  @Param({"simple", "multi"})
+  public String contextShape;
+
+  @Param({"1000"})
+  public int eventCount;
+
+  private EventOutputFormatter formatter;
+  private Event[] events;
+  private EventSummarizer.EventSummary summary;
+  private ByteArrayOutputStream output;
+  private Integer compressionLevel;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class PayloadCounters {
+    public long payloadBytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      payloadBytes = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    LDContext context = BenchmarkInputs.context(contextShape);
+    String[] flagKeys = BenchmarkInputs.flagKeys(50);
+    formatter = new EventOutputFormatter(BenchmarkInputs.makeConfig(null, eventCount, 1000000));
+    events = BenchmarkInputs.mixedOutputEvents(context, flagKeys, eventCount);
+    EventSummarizer summarizer = new EventSummarizer();
+    for (Event.FeatureRequest fe: BenchmarkInputs.featureEvents(context, flagKeys, eventCount)) {
+      summarizer.summarizeEvent(fe.getCreationDate(), fe.getKey(), fe.getVersion(), fe.getVariation(),
+          fe.getValue(), fe.getDefaultVal(), fe.getContext());
+    }
+    summary = summarizer.getSummaryAndReset();
+    output = new ByteArrayOutputStream(eventCount * 500);
+    compressionLevel = level.equals("none") ? null : Integer.valueOf(level);
+  }
+
+  @Benchmark
+  public int writePayload(PayloadCounters counters) throws IOException {
+    output.reset();
+    OutputStream out = compressionLevel == null ? output :
+      GzipPayloads.compressingStream(output, compressionLevel, BUFFER_SIZE);
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF8), BUFFER_SIZE);
+    int count = formatter.writeOutputEvents(events, summary, writer);
+    writer.close();
+    counters.payloadBytes += output.size();
+    return count;
+  }
+}
@@ -0,0 +1,44 @@
+package com.launchdarkly.sdk.internal.events;
+
+import java.net.URI;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * An {@link EventSender} that can deliver analytics event payloads without blocking the calling
+ * thread.
+ * <p>
+ * When the configured sender implements this interface and {@link EventsConfiguration.Builder#asyncDelivery(boolean)}
+ * is enabled, {@link DefaultEventProcessor}'s workers hand each payload to the sender and go on to
+ * other work, rather than each one waiting for its payload to be delivered, so they can all share
+ * one thread. There are still at most
+ * {@link EventsConfiguration}'s {@code eventSendingThreadPoolSize} payloads in flight at once.
+ */
+public interface AsyncEventSender extends EventSender {
+  /**
+   * Starts delivering an analytics event data payload, and returns without waiting for the result.
+   * <p>
+   * The payload will not be modified until the callback has been called, so it can be written more
+   * than once if the request has to be retried. The callback must be called exactly once, on any
+   * thread, and it may be called before this method returns.
+   *
+   * @param payload the preformatted JSON data
+   * @param eventCount the number of individual events in the data
+   * @param eventsBaseUri the configured events endpoint base URI
+   * @param scheduler an executor that can be used to schedule retries, instead of sleeping
+   * @param callback receives the {@link EventSender.Result}
+   */
+  void sendAnalyticsPayloadAsync(Payload payload, int eventCount, URI eventsBaseUri,
+      ScheduledExecutorService scheduler, ResultCallback callback);
+
+  /**
+   * Receives the result of {@link AsyncEventSender#sendAnalyticsPayloadAsync}.
+   */
+  public interface ResultCallback {
+    /**
+     * Called when delivery has succeeded, or has failed and will not be retried.
+     *
+     * @param result the result
+     */
+    void onResult(Result result);
+  }
+}
@@ -0,0 +1,92 @@
+package com.launchdarkly.sdk.internal.events;
+
+/**
+ * Keeps track of consecutive failed requests to the events service, so that {@link DefaultEventSender}
+ * can stop making requests for a while when the service appears to be unavailable. See
+ * {@link RetryPolicy} for the rules.
+ * <p>
+ * This is shared by all of the sender's worker threads, so all methods are synchronized.
+ */
+final class CircuitBreaker {
+  /**
+   * The answer to {@link CircuitBreaker#allowRequest(long)}, which the caller passes back to
+   * {@link CircuitBreaker#endRequest(Permit)}. Each trial request gets a new instance, so that only
+   * that request can end its trial.
+   */
+  static final class Permit {
+    static final Permit DENIED = new Permit();
+    static final Permit ALLOWED = new Permit();
+
+    private Permit() {}
+  }
+
+  private final int threshold;
+  private final long intervalMillis;
+  private int consecutiveFailures;
+  private long openUntil; // zero if the circuit is closed
+  private Permit trial; // null unless a trial request is in progress
+
+  CircuitBreaker(int threshold, long intervalMillis) {
+    this.threshold = threshold;
+    this.intervalMillis = intervalMillis;
+  }
+
+  /**
+   * Decides whether a request can be made now. Once the circuit has been open for the configured
+   * interval, this returns a trial permit for one caller, whose result decides whether it closes
+   * again.
+   *
+   * @param now the current time
+   * @return {@link Permit#DENIED} if the request is not allowed
+   */
+  synchronized Permit allowRequest(long now) {
+    if (openUntil == 0) {
+      return Permit.ALLOWED;
+    }
+    if (now < openUntil || trial != null) {
+      return Permit.DENIED;
+    }
+    trial = new Permit();
+    return trial;
+  }
+
+  synchronized void recordSuccess() {
+    consecutiveFailures = 0;
+    openUntil = 0;
+    trial = null;
+  }
+
+  /**
+   * Records a failed request.
+   *
+   * @param now the current time
+   * @return true if this failure caused the circuit to open
+   */
+  synchronized boolean recordFailure(long now) {
+    consecutiveFailures++;
+    if (threshold <= 0 || consecutiveFailures < threshold) {
+      return false;
+    }
+    boolean wasClosed = openUntil == 0;
+    openUntil = now + intervalMillis;
+    return wasClosed;
+  }
+
+  /**
+   * Records that a request has ended, whatever its outcome. This must be called after
+   * {@link #recordSuccess()} or {@link #recordFailure(long)}, if either is called for the request. If
+   * it was the trial request and the circuit is still open, the next caller gets to try; other
+   * requests that were already in progress do not affect the trial.
+   *
+   * @param permit the value that {@link #allowRequest(long)} returned for the request
+   */
+  synchronized void endRequest(Permit permit) {
+    if (permit == trial) {
+      trial = null;
+    }
+  }
+
+  synchronized boolean isOpen() {
+    return openUntil != 0;
+  }
+}
@@ -0,0 +1,474 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.LDContext;
+import com.launchdarkly.sdk.LDValue;
+import com.launchdarkly.sdk.internal.events.EventSummarizer.EventSummary;
+import com.launchdarkly.sdk.internal.events.EventSummarizer.FlagInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A thread-safe equivalent of {@link EventSummarizer}, which can be updated from any number of
+ * threads at once without locking.
+ * <p>
+ * Each flag/version/variation combination has its own counter. A counter is a single atomic
+ * value until two threads collide while updating it; after that, like LongAdder (which we can't
+ * use because it is not available in Android), it is spread across several cells that are
+ * indexed by thread, so that concurrent updates of a popular flag don't all compete for the
+ * same memory location. Looking up a counter does not lock either: the counters for each flag
+ * are kept in an array that is replaced, rather than modified, when a counter is added.
+ * <p>
+ * {@link #getSummaryAndReset()} produces the same {@link EventSummary} that an EventSummarizer
+ * would have produced for the same events. Every counter increment is included in exactly one
+ * summary, along with the context kinds of that evaluation: each flag gives its context kinds bit
+ * numbers, and an increment sets the bits for its kinds in the same atomic update that adds to the
+ * count. If other threads are updating the summarizer at the same moment, their timestamps and
+ * default values might be attributed to the following summary instead.
+ * <p>
+ * Counters are reused from one summary to the next, so that a steady stream of evaluations of
+ * the same flags does not allocate anything. A counter that was not used at all during the
+ * last summary period is discarded, so that counters for old flag versions do not accumulate.
+ */
+final class ConcurrentEventSummarizer {
+  private final ConcurrentHashMap<String, FlagCounters> flags = new ConcurrentHashMap<>();
+  private final AtomicLong startDate = new AtomicLong(0);
+  private final AtomicLong endDate = new AtomicLong(0);
+
+  /**
+   * Adds information about an evaluation to our counters. This can be called from any thread.
+   *
+   * @param timestamp the millisecond timestamp
+   * @param flagKey the flag key
+   * @param flagVersion the flag version, or -1 if the flag is unknown
+   * @param variation the result variation, or -1 if none
+   * @param value the result value
+   * @param defaultValue the application default value
+   * @param context the evaluation context
+   */
+  void summarizeEvent(
+      long timestamp,
+      String flagKey,
+      int flagVersion,
+      int variation,
+      LDValue value,
+      LDValue defaultValue,
+      LDContext context
+      ) {
+    noteTimestamp(timestamp);
+    while (true) {
+      FlagCounters flagCounters = flags.get(flagKey);
+      if (flagCounters == null) {
+        FlagCounters newFlagCounters = new FlagCounters();
+        flagCounters = flags.putIfAbsent(flagKey, newFlagCounters);
+        if (flagCounters == null) {
+          flagCounters = newFlagCounters;
+        }
+      }
+      if (flagCounters.increment(flagVersion, variation, value, defaultValue, context)) {
+        return;
+      }
+      // These counters were discarded by getSummaryAndReset() because the flag had not been used
+      // in the last summary period; make sure they're gone, and try again with new ones.
+      flags.remove(flagKey, flagCounters);
+    }
+  }
+
+  /**
+   * Gets the current summarized event data, and resets the counters. This should only be called
+   * from one thread at a time.
+   *
+   * @return the summary state
+   */
+  EventSummary getSummaryAndReset() {
+    EventSummary summary = new EventSummary();
+    getSummaryAndReset(summary);
+    return summary;
+  }
+
+  /**
+   * Same as {@link #getSummaryAndReset()}, but puts the data into an existing empty summary so that
+   * its table can be reused.
+   *
+   * @param summary an empty summary
+   */
+  synchronized void getSummaryAndReset(EventSummary summary) {
+    summary.startDate = startDate.getAndSet(0);
+    summary.endDate = endDate.getAndSet(0);
+    for (Map.Entry<String, FlagCounters> entry: flags.entrySet()) {
+      FlagCounters flagCounters = entry.getValue();
+      if (!flagCounters.addToSummaryAndReset(entry.getKey(), summary) && flagCounters.tryDiscard()) {
+        flags.remove(entry.getKey(), flagCounters);
+      }
+    }
+    if (summary.isEmpty()) {
+      summary.startDate = summary.endDate = 0;
+    }
+  }
+
+  StripedCounter getCounter(String flagKey, int flagVersion, int variation) { // visible for testing
+    FlagCounters flagCounters = flags.get(flagKey);
+    CounterEntry entry = flagCounters == null ? null :
+      FlagCounters.findEntry(flagCounters.entries, flagVersion, variation);
+    return entry == null ? null : entry.counter;
+  }
+
+  private void noteTimestamp(long time) {
+    long current;
+    while (((current = startDate.get()) == 0 || time < current) && !startDate.compareAndSet(current, time)) {}
+    while (time > (current = endDate.get()) && !endDate.compareAndSet(current, time)) {}
+  }
+
+  private static final class FlagCounters {
+    private static final CounterEntry[] NO_ENTRIES = new CounterEntry[0];
+    private static final String[] NO_KINDS = new String[0];
+
+    private volatile CounterEntry[] entries = NO_ENTRIES; // replaced, never modified
+    private volatile String[] kinds = NO_KINDS; // index is the kind's bit number; replaced, never modified
+    private final AtomicReference<LDValue> defaultValue = new AtomicReference<>();
+    // Kinds that didn't get a bit number, because this flag has already been evaluated with more
+    // kinds than StripedCounter has room for; these can end up in the following summary instead.
+    // This is created only if needed.
+    private final AtomicReference<Map<String, Boolean>> extraKinds = new AtomicReference<>();
+    private LDValue lastDefaultValue; // accessed only from getSummaryAndReset()
+    private boolean discarded; // guarded by this
+
+    /**
+     * Returns false if these counters have been discarded, so the caller needs to get new ones.
+     */
+    boolean increment(int flagVersion, int variation, LDValue value, LDValue defaultVal, LDContext context) {
+      CounterEntry entry = findEntry(entries, flagVersion, variation);
+      if (defaultValue.get() == null) {
+        defaultValue.compareAndSet(null, defaultVal);
+      }
+      long kindBits = 0;
+      for (int i = 0; i < context.getIndividualContextCount(); i++) {
+        String kind = context.getIndividualContext(i).getKind().toString();
+        int bit = bitForKind(kind);
+        if (bit >= 0) {
+          kindBits |= StripedCounter.kindBit(bit);
+        } else {
+          addExtraKind(kind);
+        }
+      }
+      while (entry == null || !entry.counter.increment(kindBits)) {
+        // either there's no counter yet, or it has just been discarded
+        entry = addEntry(flagVersion, variation, value);
+        if (entry == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private synchronized CounterEntry addEntry(int flagVersion, int variation, LDValue value) {
+      if (discarded) {
+        return null;
+      }
+      CounterEntry[] oldEntries = entries;
+      CounterEntry entry = findEntry(oldEntries, flagVersion, variation);
+      if (entry != null && !entry.counter.isDiscarded()) {
+        return entry; // another thread added it
+      }
+      CounterEntry[] newEntries = new CounterEntry[oldEntries.length + 1];
+      int n = 0;
+      for (CounterEntry e: oldEntries) {
+        if (!e.counter.isDiscarded()) {
+          newEntries[n++] = e;
+        }
+      }
+      entry = new CounterEntry(flagVersion, variation, value);
+      newEntries[n++] = entry;
+      entries = n == newEntries.length ? newEntries : copyOf(newEntries, n);
+      return entry;
+    }
+
+    private int bitForKind(String kind) {
+      String[] ks = kinds;
+      for (int i = 0; i < ks.length; i++) {
+        if (ks[i].equals(kind)) {
+          return i;
+        }
+      }
+      return addKind(kind);
+    }
+
+    private synchronized int addKind(String kind) {
+      String[] oldKinds = kinds;
+      for (int i = 0; i < oldKinds.length; i++) {
+        if (oldKinds[i].equals(kind)) {
+          return i; // another thread added it
+        }
+      }
+      if (oldKinds.length == StripedCounter.MAX_KINDS) {
+        return -1;
+      }
+      String[] newKinds = Arrays.copyOf(oldKinds, oldKinds.length + 1);
+      newKinds[oldKinds.length] = kind;
+      kinds = newKinds;
+      return oldKinds.length;
+    }
+
+    // COVERAGE: this is only used if a flag is evaluated with more than StripedCounter.MAX_KINDS kinds
+    private void addExtraKind(String kind) {
+      Map<String, Boolean> extra = extraKinds.get();
+      if (extra == null) {
+        extraKinds.compareAndSet(null, new ConcurrentHashMap<String, Boolean>());
+        extra = extraKinds.get();
+      }
+      extra.put(kind, Boolean.TRUE);
+    }
+
+    private static CounterEntry findEntry(CounterEntry[] entries, int flagVersion, int variation) {
+      for (CounterEntry e: entries) {
+        if (e.flagVersion == flagVersion && e.variation == variation) {
+          return e;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Adds this flag's counters to a summary and resets them. Returns false, without adding anything,
+     * if there were no evaluations of this flag since the last call. Counters that were not used since
+     * the last call are discarded.
+     */
+    boolean addToSummaryAndReset(String flagKey, EventSummary summary) {
+      LDValue defaultVal = defaultValue.getAndSet(null);
+      if (defaultVal == null) {
+        defaultVal = lastDefaultValue;
+      } else {
+        lastDefaultValue = defaultVal;
+      }
+      FlagInfo flagInfo = null;
+      List<CounterEntry> idleEntries = null;
+      long kindMask = 0;
+      for (CounterEntry entry: entries) {
+        long count = entry.counter.sumThenReset();
+        if (count == 0) {
+          if (idleEntries == null) {
+            idleEntries = new ArrayList<>();
+          }
+          idleEntries.add(entry);
+          continue;
+        }
+        kindMask |= entry.counter.getKindsFromLastReset();
+        if (flagInfo == null) {
+          flagInfo = summary.activateFlag(flagKey, defaultVal);
+        }
+        flagInfo.addCount(entry.flagVersion, entry.variation, entry.flagValue, count);
+      }
+      Map<String, Boolean> extra = extraKinds.get() == null ? null :
+        extraKinds.getAndSet(new ConcurrentHashMap<String, Boolean>());
+      if (idleEntries != null) {
+        discardIdleEntries(idleEntries);
+      }
+      if (flagInfo == null) {
+        return false;
+      }
+      // Bit numbers are never reassigned, so every bit that was set has a name in the current array
+      String[] kindNames = kinds;
+      for (long mask = kindMask; mask != 0; mask &= mask - 1) {
+        flagInfo.addContextKind(kindNames[Long.numberOfTrailingZeros(mask)]);
+      }
+      if (extra != null) {
+        for (String kind: extra.keySet()) {
+          flagInfo.addContextKind(kind);
+        }
+      }
+      return true;
+    }
+
+    // This is synchronized so that addEntry() never sees a counter that tryDiscard() is in the middle
+    // of trying to discard. Only the counters that were zero when we read them are candidates; the
+    // others were just reset too, so they are also zero now, but they were in use.
+    private synchronized void discardIdleEntries(List<CounterEntry> idleEntries) {
+      CounterEntry[] oldEntries = entries;
+      CounterEntry[] newEntries = new CounterEntry[oldEntries.length];
+      int n = 0;
+      for (CounterEntry e: oldEntries) {
+        // tryDiscard() fails if the counter has been incremented since we read it
+        if (!idleEntries.contains(e) || !e.counter.tryDiscard()) {
+          newEntries[n++] = e;
+        }
+      }
+      entries = n == 0 ? NO_ENTRIES : copyOf(newEntries, n);
+    }
+
+    /**
+     * Marks these counters as discarded if they no longer contain any entries.
+     */
+    synchronized boolean tryDiscard() {
+      if (entries.length == 0) {
+        discarded = true;
+      }
+      return discarded;
+    }
+
+    private static CounterEntry[] copyOf(CounterEntry[] entries, int n) {
+      CounterEntry[] ret = new CounterEntry[n];
+      System.arraycopy(entries, 0, ret, 0, n);
+      return ret;
+    }
+  }
+
+  private static final class CounterEntry {
+    final int flagVersion;
+    final int variation;
+    final LDValue flagValue;
+    final StripedCounter counter = new StripedCounter();
+
+    CounterEntry(int flagVersion, int variation, LDValue flagValue) {
+      this.flagVersion = flagVersion;
+      this.variation = variation;
+      this.flagValue = flagValue;
+    }
+  }
+
+  /**
+   * A counter that can be incremented from many threads, similar to LongAdder. It can also be
+   * permanently discarded if it is zero, after which any attempt to increment it fails, so that
+   * no increment can be lost by going into a counter that will never be read again.
+   * <p>
+   * Each cell holds the count in its low {@link #COUNT_BITS} bits, and a set of context kind bits
+   * above that, so that an increment and its context kinds are always reset together.
+   */
+  static final class StripedCounter {
+    static final int COUNT_BITS = 40;
+    static final int MAX_KINDS = 63 - COUNT_BITS; // the sign bit is used for DISCARDED
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    // Each cell is padded to its own cache line, to avoid false sharing between threads.
+    private static final int CELL_SPACING = 8;
+    private static final int CELL_COUNT = cellCount(Runtime.getRuntime().availableProcessors());
+    private static final long DISCARDED = Long.MIN_VALUE;
+
+    private final AtomicLong base = new AtomicLong(0);
+    private volatile AtomicLongArray cells; // created only if there is contention
+    private long kindsFromLastReset; // accessed only by the thread that calls sumThenReset()
+
+    /**
+     * Returns the value to pass to {@link #increment(long)} for the given kind bit number.
+     */
+    static long kindBit(int bit) {
+      return 1L << (COUNT_BITS + bit);
+    }
+
+    static int cellCount(int processors) {
+      int n = 1;
+      while (n < processors && n < 16) {
+        n <<= 1;
+      }
+      return n;
+    }
+
+    boolean increment() {
+      return increment(0);
+    }
+
+    /**
+     * Adds one to the count, and sets the specified kind bits. Returns false if the counter has
+     * been discarded.
+     */
+    boolean increment(long kindBits) {
+      AtomicLongArray cs = cells;
+      if (cs == null) {
+        long value = base.get();
+        if (value == DISCARDED) {
+          return false;
+        }
+        if (base.compareAndSet(value, (value | kindBits) + 1)) {
+          return true;
+        }
+        // COVERAGE: there is no way to reliably cause contention in tests
+        cs = createCells();
+        if (cs == null) {
+          return false;
+        }
+      }
+      int index = ((int)Thread.currentThread().getId() & (CELL_COUNT - 1)) * CELL_SPACING;
+      while (true) {
+        long value = cs.get(index);
+        if (value == DISCARDED) {
+          return false;
+        }
+        if (cs.compareAndSet(index, value, (value | kindBits) + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private synchronized AtomicLongArray createCells() {
+      if (cells == null && base.get() != DISCARDED) {
+        cells = new AtomicLongArray(CELL_COUNT * CELL_SPACING);
+      }
+      return base.get() == DISCARDED ? null : cells;
+    }
+
+    /**
+     * Returns the total count and sets it to zero. Each increment is counted by exactly one call.
+     * The kind bits of the increments that were counted are then available from
+     * {@link #getKindsFromLastReset()}.
+     * <p>
+     * This must not be called at the same time as {@link #tryDiscard()}.
+     */
+    long sumThenReset() {
+      long sum = 0, kinds = 0;
+      if (!isDiscarded()) {
+        long value = base.getAndSet(0);
+        sum += value & COUNT_MASK;
+        kinds |= value;
+        AtomicLongArray cs = cells;
+        if (cs != null) {
+          for (int i = 0; i < cs.length(); i += CELL_SPACING) {
+            value = cs.getAndSet(i, 0);
+            sum += value & COUNT_MASK;
+            kinds |= value;
+          }
+        }
+      }
+      kindsFromLastReset = kinds >>> COUNT_BITS;
+      return sum;
+    }
+
+    /**
+     * Returns the kind bits from the increments that were counted by the last call to
+     * {@link #sumThenReset()}, shifted so that bit 0 is the first kind.
+     */
+    long getKindsFromLastReset() {
+      return kindsFromLastReset;
+    }
+
+    /**
+     * Discards the counter if its value is zero. Returns true if successful.
+     */
+    synchronized boolean tryDiscard() {
+      if (!base.compareAndSet(0, DISCARDED)) {
+        return false;
+      }
+      AtomicLongArray cs = cells;
+      if (cs != null) {
+        for (int i = 0; i < cs.length(); i += CELL_SPACING) {
+          if (!cs.compareAndSet(i, 0, DISCARDED)) {
+            // Another thread has just incremented it, so it's still in use; undo what we did
+            for (int j = 0; j < i; j += CELL_SPACING) {
+              cs.set(j, 0);
+            }
+            base.set(0);
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    boolean isDiscarded() {
+      return base.get() == DISCARDED;
+    }
+  }
+}
@@ -6,18 +6,17 @@ import com.launchdarkly.logging.LogValues;
 import com.launchdarkly.sdk.LDContext;
 import com.launchdarkly.sdk.internal.events.EventSummarizer.EventSummary;
 
-import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
@@ -46,11 +45,13 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public final class DefaultEventProcessor implements Closeable, EventProcessor {
   private static final int INITIAL_OUTPUT_BUFFER_SIZE = 2000;
+  private static final int MAX_RETAINED_OUTPUT_BUFFER_SIZE = 4 * 1024 * 1024;
 
   private static final Gson gson = new Gson();
   
   private final EventsConfiguration eventsConfig;
-  private final BlockingQueue<EventProcessorMessage> inbox;
+  private final EventInbox<Object> inbox; // contains Event or EventProcessorMessage
+  private final StripedEventSummarizer callerSummaries; // null unless eventsConfig.summarizeOnCallingThreads
   private final ScheduledExecutorService scheduler;
   private final AtomicBoolean offline;
   private final AtomicBoolean inBackground;
@@ -61,6 +62,9 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
   private ScheduledFuture<?> contextKeysFlushTask;
   private ScheduledFuture<?> periodicDiagnosticEventTask;
   private volatile boolean inputCapacityExceeded = false;
+  private final OutputBufferMetrics outputBufferMetrics = new OutputBufferMetrics();
+  private final ContextCacheMetrics contextCacheMetrics = new ContextCacheMetrics();
+  private final FlushMetrics flushMetrics = new FlushMetrics();
   private final LDLogger logger;
 
   /**
@@ -77,8 +81,62 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
       int threadPriority,
       LDLogger logger
       ) {
+    this(eventsConfig, sharedExecutor, EventThreads.platformThreadFactory(threadPriority), logger);
+  }
+
+  /**
+   * Creates an instance that runs its main loop and its delivery workers on threads from the
+   * specified factory, such as {@link EventThreads#virtualThreadFactory()}.
+   *
+   * @param eventsConfig the events configuration
+   * @param sharedExecutor used for scheduling repeating tasks
+   * @param threadFactory creates the event processor's threads; if null, it uses
+   *   {@link EventThreads#platformThreadFactory(int)} with normal priority
+   * @param logger the logger
+   */
+  public DefaultEventProcessor(
+      EventsConfiguration eventsConfig,
+      ScheduledExecutorService sharedExecutor,
+      ThreadFactory threadFactory,
+      LDLogger logger
+      ) {
+    this(eventsConfig, sharedExecutor,
+        threadFactory != null ? threadFactory : EventThreads.platformThreadFactory(Thread.NORM_PRIORITY),
+        null, logger);
+  }
+
+  /**
+   * Creates an instance that is a tenant of a {@link SharedEventEngine}, so it does not have any
+   * threads of its own.
+   *
+   * @param eventsConfig the events configuration
+   * @param sharedExecutor used for scheduling repeating tasks
+   * @param engine the engine whose threads will process and deliver this instance's events; must
+   *   not be null
+   * @param logger the logger
+   */
+  public DefaultEventProcessor(
+      EventsConfiguration eventsConfig,
+      ScheduledExecutorService sharedExecutor,
+      SharedEventEngine engine,
+      LDLogger logger
+      ) {
+    this(eventsConfig, sharedExecutor, null, engine, logger);
+  }
+
+  private DefaultEventProcessor(
+      EventsConfiguration eventsConfig,
+      ScheduledExecutorService sharedExecutor,
+      ThreadFactory threadFactory,
+      SharedEventEngine engine,
+      LDLogger logger
+      ) {
     this.eventsConfig = eventsConfig;
-    inbox = new ArrayBlockingQueue<>(eventsConfig.capacity);
+    inbox = new EventInbox<>(eventsConfig.capacity);
+    callerSummaries = eventsConfig.summarizeOnCallingThreads ?
+        new StripedEventSummarizer(Runtime.getRuntime().availableProcessors() * 2,
+            eventsConfig.contextDeduplicator != null) :
+        null;
     
     scheduler = sharedExecutor;
     this.logger = logger;
@@ -89,11 +147,16 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
     new EventDispatcher(
         eventsConfig,
         sharedExecutor,
-        threadPriority,
+        threadFactory,
+        engine,
         inbox,
+        callerSummaries,
         inBackground,
         offline,
         closed,
+        outputBufferMetrics,
+        contextCacheMetrics,
+        flushMetrics,
         logger
         );
     // we don't need to save a reference to this - we communicate with it entirely through the inbox queue.
@@ -111,21 +174,31 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
   @Override
   public void sendEvent(Event e) {
     if (!closed.get()) {
-      postMessageAsync(MessageType.EVENT, e);
+      if (callerSummaries != null && StripedEventSummarizer.isSummaryOnly(e)) {
+        // The event is counted right here; the dispatcher only needs to see it if it might
+        // have to generate an index event for the context.
+        if (callerSummaries.summarizeEvent((Event.FeatureRequest)e) && !postToChannel(e)) {
+          callerSummaries.forgetContext(e.getContext());
+        }
+        return;
+      }
+      // Events are put directly on the inbox, rather than being wrapped in an EventProcessorMessage,
+      // so that this very frequent operation does not allocate anything.
+      postToChannel(e);
     }
   }
 
   @Override
   public void flushAsync() {
     if (!closed.get()) {
-      postMessageAsync(MessageType.FLUSH, null);
+      postMessageAsync(MessageType.FLUSH);
     }
   }
 
   @Override
   public void flushBlocking() {
     if (!closed.get()) {
-      postMessageAndWait(MessageType.FLUSH, null);
+      postMessageAndWait(MessageType.FLUSH);
     }
   }
 
@@ -158,18 +231,49 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
         contextKeysFlushTask = enableOrDisableTask(false, contextKeysFlushTask, 0, null);
         periodicDiagnosticEventTask = enableOrDisableTask(false, periodicDiagnosticEventTask, 0, null);
       }
-      postMessageAsync(MessageType.FLUSH, null);
-      postMessageAndWait(MessageType.SHUTDOWN, null);
+      postMessageAsync(MessageType.FLUSH);
+      postMessageAndWait(MessageType.SHUTDOWN);
     }
   }
 
+  /**
+   * Returns the counters for how often the output buffers of the delivery workers have had to be
+   * resized. If payloads are consistently larger than the buffers can retain, the growth count
+   * will keep increasing.
+   *
+   * @return the output buffer metrics
+   */
+  public OutputBufferMetrics getOutputBufferMetrics() {
+    return outputBufferMetrics;
+  }
+
+  /**
+   * Returns the counters for how often the delivery workers were able to reuse the JSON of a
+   * context that they had already serialized.
+   *
+   * @return the context cache metrics
+   */
+  public ContextCacheMetrics getContextCacheMetrics() {
+    return contextCacheMetrics;
+  }
+
+  /**
+   * Returns the counters for what caused each flush: the flush interval, a call to
+   * {@link #flushAsync()} or {@link #flushBlocking()}, or the buffer reaching its high-water mark.
+   *
+   * @return the flush metrics
+   */
+  public FlushMetrics getFlushMetrics() {
+    return flushMetrics;
+  }
+
   void updateScheduledTasks(boolean inBackground, boolean offline) {
     // The event flush task should be scheduled unless we're offline.
     eventFlushTask = enableOrDisableTask(
         !offline,
         eventFlushTask,
         eventsConfig.flushIntervalMillis,
-        MessageType.FLUSH
+        MessageType.SCHEDULED_FLUSH
         );
     
     // The periodic diagnostic event task should be scheduled unless we're offline or in the background
@@ -183,7 +287,7 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
     
     if (!inBackground && !offline && !diagnosticInitSent.get() && eventsConfig.diagnosticStore != null) {
       // Trigger a diagnostic init event if we never had the chance to send one before
-      postMessageAsync(MessageType.DIAGNOSTIC_INIT, null);
+      postMessageAsync(MessageType.DIAGNOSTIC_INIT);
     }
   }
   
@@ -198,7 +302,7 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
         return currentTask;
       }
       ScheduledFuture<?> task = this.scheduler.scheduleAtFixedRate(
-          postMessageRunnable(messageType, null),
+          postMessageRunnable(messageType),
           intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
       return task;
     } else {
@@ -210,37 +314,40 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
   }
   
   void waitUntilInactive() throws IOException { // visible for testing
-    postMessageAndWait(MessageType.SYNC, null);
+    postMessageAndWait(MessageType.SYNC);
   }
 
   void postDiagnostic() { // visible for testing
-    postMessageAsync(MessageType.DIAGNOSTIC_STATS, null);
+    postMessageAsync(MessageType.DIAGNOSTIC_STATS);
   }
 
-  private void postMessageAsync(MessageType type, Event event) {
-    postToChannel(new EventProcessorMessage(type, event, false));
+  private void postMessageAsync(MessageType type) {
+    postToChannel(EventProcessorMessage.ASYNC_MESSAGES[type.ordinal()]);
   }
 
-  private void postMessageAndWait(MessageType type, Event event) {
-    EventProcessorMessage message = new EventProcessorMessage(type, event, true);
+  private void postMessageAndWait(MessageType type) {
+    EventProcessorMessage message = new EventProcessorMessage(type, true);
     if (postToChannel(message)) {
       // COVERAGE: There is no way to reliably cause this to fail in tests
       message.waitForCompletion();
     }
   }
 
-  private Runnable postMessageRunnable(final MessageType messageType, final Event event) {
+  private Runnable postMessageRunnable(final MessageType messageType) {
     return new Runnable() {
       public void run() {
-        postMessageAsync(messageType, event);
+        postMessageAsync(messageType);
       }
     };
   }
   
-  private boolean postToChannel(EventProcessorMessage message) {
+  private boolean postToChannel(Object message) {
     if (inbox.offer(message)) {
       return true;
     }
+    if (message instanceof Event) {
+      eventsConfig.metricsListener.onEventRejected();
+    }
     // If the inbox is full, it means the EventDispatcher thread is seriously backed up with not-yet-processed
     // events. This is unlikely, but if it happens, it means the application is probably doing a ton of flag
     // evaluations across many threads-- so if we wait for a space in the inbox, we risk a very serious slowdown
@@ -255,8 +362,8 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
   }
 
   private static enum MessageType {
-    EVENT,
     FLUSH,
+    SCHEDULED_FLUSH,
     FLUSH_USERS,
     DIAGNOSTIC_INIT,
     DIAGNOSTIC_STATS,
@@ -265,13 +372,22 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
   }
 
   private static final class EventProcessorMessage {
+    // An async message has no state other than its type, so we can reuse the same instances
+    // instead of allocating a new one for each message.
+    private static final EventProcessorMessage[] ASYNC_MESSAGES;
+    static {
+      MessageType[] types = MessageType.values();
+      ASYNC_MESSAGES = new EventProcessorMessage[types.length];
+      for (MessageType type: types) {
+        ASYNC_MESSAGES[type.ordinal()] = new EventProcessorMessage(type, false);
+      }
+    }
+
     private final MessageType type;
-    private final Event event;
     private final Semaphore reply;
 
-    private EventProcessorMessage(MessageType type, Event event, boolean sync) {
+    private EventProcessorMessage(MessageType type, boolean sync) {
       this.type = type;
-      this.event = event;
       reply = sync ? new Semaphore(0) : null;
     }
 
@@ -298,8 +414,7 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
 // intentionally commented out so this doesn't affect coverage reports when we're not debugging
 //    @Override
 //    public String toString() { // for debugging only
-//      return ((event == null) ? type.toString() : (type + ": " + event.getClass().getSimpleName())) +
-//          (reply == null ? "" : " (sync)");
+//      return type + (reply == null ? "" : " (sync)");
 //    }
   }
 
@@ -311,7 +426,8 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
     private static final int MESSAGE_BATCH_SIZE = 50;
 
     final EventsConfiguration eventsConfig; // visible for testing
-    private final BlockingQueue<EventProcessorMessage> inbox;
+    private final EventInbox<Object> inbox;
+    private final StripedEventSummarizer callerSummaries;
     private final AtomicBoolean inBackground;
     private final AtomicBoolean offline;
     private final AtomicBoolean closed;
@@ -322,62 +438,65 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
     private final AtomicBoolean didSendInitEvent = new AtomicBoolean(false);
     final DiagnosticStore diagnosticStore; // visible for testing
     private final EventContextDeduplicator contextDeduplicator;
-    private final ExecutorService sharedExecutor;
+    private final ScheduledExecutorService sharedExecutor;
+    private final SharedEventEngine engine; // null unless we are a tenant of a shared engine
+    private final ExecutorService ownDeliveryExecutor; // non-null if we deliver asynchronously without an engine
+    private final int shard;
+    private final PayloadBuffer diagnosticBuffer; // used by diagnostic tasks while synchronized on it
     private final LDLogger logger;
     
+    private final FlushMetrics flushMetrics;
+    
     private long deduplicatedUsers = 0;
+    private long lastFlushTime = System.currentTimeMillis();
+    private long currentFlushIntervalMillis; // can be longer than flushIntervalMillis if traffic is low
 
     private EventDispatcher(
         EventsConfiguration eventsConfig,
-        ExecutorService sharedExecutor,
-        int threadPriority,
-        BlockingQueue<EventProcessorMessage> inbox,
+        ScheduledExecutorService sharedExecutor,
+        ThreadFactory threadFactory,
+        SharedEventEngine engine,
+        EventInbox<Object> inbox,
+        StripedEventSummarizer callerSummaries,
         AtomicBoolean inBackground,
         AtomicBoolean offline,
         AtomicBoolean closed,
+        OutputBufferMetrics outputBufferMetrics,
+        ContextCacheMetrics contextCacheMetrics,
+        FlushMetrics flushMetrics,
         LDLogger logger
         ) {
       this.eventsConfig = eventsConfig;
       this.inbox = inbox;
+      this.flushMetrics = flushMetrics;
+      this.currentFlushIntervalMillis = eventsConfig.flushIntervalMillis;
+      this.callerSummaries = callerSummaries;
       this.inBackground = inBackground;
       this.offline = offline;
       this.closed = closed;
       this.sharedExecutor = sharedExecutor;
+      this.engine = engine;
+      this.shard = engine == null ? -1 : engine.addTenant();
       this.diagnosticStore = eventsConfig.diagnosticStore;
       this.busyFlushWorkersCount = new AtomicInteger(0);
+      this.diagnosticBuffer = new PayloadBuffer(INITIAL_OUTPUT_BUFFER_SIZE, MAX_RETAINED_OUTPUT_BUFFER_SIZE,
+          outputBufferMetrics);
       this.logger = logger;
 
-      ThreadFactory threadFactory = new ThreadFactory() {
-        @Override
-        public Thread newThread(Runnable r) {
-          Thread t = new Thread(r);
-          t.setDaemon(true);;
-          t.setName(String.format("LaunchDarkly-event-delivery-%d", t.getId()));
-          t.setPriority(threadPriority);
-          return t;
-        }
-      };
-      
-      // This queue only holds one element; it represents a flush task that has not yet been
-      // picked up by any worker, so if we try to push another one and are refused, it means
-      // all the workers are busy.
-      final BlockingQueue<FlushPayload> payloadQueue = new ArrayBlockingQueue<>(1);
+      // This queue holds the payloads of a flush that have not yet been picked up by any worker.
+      // A flush can be split into several payloads, which are all added at once; if there are any
+      // still in the queue when it's time for the next flush, it means all the workers are busy.
+      final BlockingQueue<FlushPayload> payloadQueue = new LinkedBlockingQueue<>();
 
-      final EventBuffer outbox = new EventBuffer(eventsConfig.capacity, logger);
+      final EventBuffer outbox = new EventBuffer(eventsConfig.capacity, eventsConfig.metricsListener, logger);
       this.contextDeduplicator = eventsConfig.contextDeduplicator;
       
-      Thread mainThread = threadFactory.newThread(new Thread() {
-        public void run() {
-          runMainLoop(inbox, outbox, payloadQueue);
-        }
-      });
-      mainThread.setDaemon(true);
-
-      mainThread.setUncaughtExceptionHandler(this::onUncaughtException);
-      
-      mainThread.start();
-
       flushWorkers = new ArrayList<>();
+      // With asynchronous delivery, a worker only needs a thread while it is formatting a payload, so
+      // if there is no shared engine, all of the workers take turns on a single thread of our own
+      ownDeliveryExecutor = engine == null && eventsConfig.asyncDelivery &&
+          eventsConfig.eventSender instanceof AsyncEventSender ? Executors.newSingleThreadExecutor(threadFactory) : null;
+      Executor deliveryExecutor = engine != null ? engine.getDeliveryExecutor() : ownDeliveryExecutor;
       EventResponseListener listener = this::handleResponse;
       for (int i = 0; i < eventsConfig.eventSendingThreadPoolSize; i++) {
         SendEventsTask task = new SendEventsTask(
@@ -386,10 +505,27 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
             payloadQueue,
             busyFlushWorkersCount,
             threadFactory,
+            deliveryExecutor,
+            sharedExecutor,
+            outputBufferMetrics,
+            contextCacheMetrics,
             logger
             );
         flushWorkers.add(task);
       }
+
+      if (engine == null) {
+        Thread mainThread = threadFactory.newThread(() -> runMainLoop(inbox, outbox, payloadQueue));
+        mainThread.setDaemon(true); // in case a caller-supplied factory did not do this
+
+        mainThread.setUncaughtExceptionHandler(this::onUncaughtException);
+
+        mainThread.start();
+      } else {
+        TenantTask tenantTask = new TenantTask(engine.getShard(shard), outbox, payloadQueue);
+        inbox.setItemListener(tenantTask::schedule);
+        tenantTask.schedule(); // in case anything was added before the listener was set
+      }
     }
 
     private void onUncaughtException(Thread thread, Throwable e) {
@@ -408,10 +544,12 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
       // Flip the switch to prevent DefaultEventProcessor from putting any more messages on the queue
       closed.set(true);
       // Now discard everything that was on the queue, but also make sure no one was blocking on a message
-      List<EventProcessorMessage> messages = new ArrayList<EventProcessorMessage>();
-      inbox.drainTo(messages);
-      for (EventProcessorMessage m: messages) {
-        m.completed();
+      List<Object> messages = new ArrayList<Object>();
+      inbox.drainTo(messages, Integer.MAX_VALUE);
+      for (Object m: messages) {
+        if (m instanceof EventProcessorMessage) {
+          ((EventProcessorMessage)m).completed();
+        }
       }  
     }
     
@@ -421,55 +559,186 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
      * triggerFlush will hand the events off to another task.
      */
     private void runMainLoop(
-        BlockingQueue<EventProcessorMessage> inbox,
+        EventInbox<Object> inbox,
         EventBuffer outbox,
         BlockingQueue<FlushPayload> payloadQueue
         ) {
-      List<EventProcessorMessage> batch = new ArrayList<EventProcessorMessage>(MESSAGE_BATCH_SIZE);
+      List<Object> batch = new ArrayList<Object>(MESSAGE_BATCH_SIZE);
       while (true) {
         try {
           batch.clear();
           batch.add(inbox.take()); // take() blocks until a message is available
           inbox.drainTo(batch, MESSAGE_BATCH_SIZE - 1); // this nonblocking call allows us to pick up more messages if available
-          for (EventProcessorMessage message: batch) {
-            switch (message.type) { // COVERAGE: adding a default branch does not prevent coverage warnings here due to compiler issues
-            case EVENT:
-              processEvent(message.event, outbox);
-              break;
-            case FLUSH:
-              if (!offline.get()) {
-                triggerFlush(outbox, payloadQueue);
-              }
-              break;
-            case FLUSH_USERS:
-              if (contextDeduplicator != null) {
-                contextDeduplicator.flush();
-              }
-              break;
-            case DIAGNOSTIC_INIT:
-              if (!offline.get() && !inBackground.get() && !didSendInitEvent.get()) {
-                sharedExecutor.submit(createSendDiagnosticTask(diagnosticStore.getInitEvent()));
-              }
-              break;
-            case DIAGNOSTIC_STATS:
-              if (!offline.get() && !inBackground.get()) {
-                sendAndResetDiagnostics(outbox);
-              }
-              break;
-            case SYNC: // this is used only by unit tests
+          if (!processMessages(batch, outbox, payloadQueue)) {
+            return; // deliberately exit the thread loop
+          }
+        } catch (InterruptedException e) {
+        } catch (Exception e) { // COVERAGE: there is no way to cause this condition in tests
+          logger.error("Unexpected error in event processor: {}", e.toString());
+          logger.debug(e.toString(), e);
+        }
+      }
+    }
+
+    /**
+     * Processes a batch of messages from the inbox.
+     *
+     * @return false if the event processor has been shut down
+     */
+    private boolean processMessages(
+        List<Object> batch,
+        EventBuffer outbox,
+        BlockingQueue<FlushPayload> payloadQueue
+        ) {
+      long startTime = System.nanoTime();
+      for (Object item: batch) {
+        if (item instanceof Event) {
+          processEvent((Event)item, outbox);
+          if (eventsConfig.flushHighWaterMark > 0 && outbox.events.size() >= eventsConfig.flushHighWaterMark &&
+              !offline.get() && hasIdleFlushWorker()) {
+            // Rather than dropping events until the next scheduled flush, hand these off now;
+            // several payloads can then be in flight at once, one per worker.
+            flush(outbox, payloadQueue, flushMetrics.earlyFlushes);
+          }
+          continue;
+        }
+        EventProcessorMessage message = (EventProcessorMessage)item;
+        switch (message.type) { // COVERAGE: adding a default branch does not prevent coverage warnings here due to compiler issues
+        case FLUSH:
+          flush(outbox, payloadQueue, flushMetrics.requestedFlushes);
+          break;
+        case SCHEDULED_FLUSH:
+          if (isScheduledFlushDeferred(outbox)) {
+            flushMetrics.deferredFlushes.incrementAndGet();
+          } else {
+            flush(outbox, payloadQueue, flushMetrics.scheduledFlushes);
+          }
+          break;
+        case FLUSH_USERS:
+          if (contextDeduplicator != null) {
+            contextDeduplicator.flush();
+          }
+          if (callerSummaries != null) {
+            callerSummaries.resetContexts();
+          }
+          break;
+        case DIAGNOSTIC_INIT:
+          if (!offline.get() && !inBackground.get() && !didSendInitEvent.get()) {
+            sharedExecutor.submit(createSendDiagnosticTask(diagnosticStore.getInitEvent()));
+          }
+          break;
+        case DIAGNOSTIC_STATS:
+          if (!offline.get() && !inBackground.get()) {
+            sendAndResetDiagnostics(outbox);
+          }
+          break;
+        case SYNC: // this is used only by unit tests
+          if (engine != null) {
+            // Don't make the other tenants on our shard wait for our deliveries
+            engine.runBlockingTask(() -> {
               waitUntilAllFlushWorkersInactive();
-              break;
-            case SHUTDOWN:
+              message.completed();
+            });
+            continue;
+          }
+          waitUntilAllFlushWorkersInactive();
+          break;
+        case SHUTDOWN:
+          if (engine != null) {
+            engine.runBlockingTask(() -> {
               doShutdown();
               message.completed();
-              return; // deliberately exit the thread loop
+            });
+            return false;
+          }
+          doShutdown();
+          message.completed();
+          return false;
+        }
+        message.completed();
+      }
+      eventsConfig.metricsListener.onBatchProcessed(batch.size(), inbox.size(), System.nanoTime() - startTime);
+      return true;
+    }
+
+    /**
+     * Does the work of {@link #runMainLoop} when we are a tenant of a {@link SharedEventEngine}:
+     * each time it runs on our shard's thread, it processes one batch of messages, and then if there
+     * are more, it puts itself at the back of the shard's queue so other tenants get a turn.
+     */
+    private final class TenantTask implements Runnable {
+      private final Executor shardExecutor;
+      private final EventBuffer outbox;
+      private final BlockingQueue<FlushPayload> payloadQueue;
+      private final List<Object> batch = new ArrayList<Object>(MESSAGE_BATCH_SIZE);
+      private final AtomicBoolean scheduled = new AtomicBoolean(false);
+      private volatile boolean stopped;
+
+      TenantTask(Executor shardExecutor, EventBuffer outbox, BlockingQueue<FlushPayload> payloadQueue) {
+        this.shardExecutor = shardExecutor;
+        this.outbox = outbox;
+        this.payloadQueue = payloadQueue;
+      }
+
+      void schedule() {
+        // This is called for every event, so the usual case where we're already scheduled is kept cheap
+        if (scheduled.get() || !scheduled.compareAndSet(false, true)) {
+          return;
+        }
+        if (stopped) {
+          discardMessages();
+          return;
+        }
+        try {
+          shardExecutor.execute(this);
+        } catch (RejectedExecutionException e) { // the engine has been closed
+          stopped = true;
+          discardMessages();
+        }
+      }
+
+      /**
+       * Called when we will not be processing any more messages, either because we have been shut
+       * down or because the engine was closed before we were. Anyone who is waiting for a message to
+       * be processed is released; if one of the messages was a shutdown, we do as much of it as we
+       * can without a delivery thread. The caller must have set the scheduled flag, which makes it the
+       * inbox's only consumer.
+       */
+      private void discardMessages() {
+        Object message;
+        while ((message = inbox.poll()) != null) {
+          if (message instanceof EventProcessorMessage) {
+            EventProcessorMessage m = (EventProcessorMessage)message;
+            if (m.type == MessageType.SHUTDOWN && !disabled.get()) {
+              stopWorkersAndCloseSender();
             }
-            message.completed();
+            m.completed();
+          }
+        }
+        scheduled.set(false);
+        if (inbox.size() > 0) {
+          schedule();
+        }
+      }
+
+      @Override
+      public void run() {
+        try {
+          batch.clear();
+          inbox.drainTo(batch, MESSAGE_BATCH_SIZE);
+          if (!processMessages(batch, outbox, payloadQueue)) {
+            stopped = true;
           }
-        } catch (InterruptedException e) {
         } catch (Exception e) { // COVERAGE: there is no way to cause this condition in tests
           logger.error("Unexpected error in event processor: {}", e.toString());
           logger.debug(e.toString(), e);
+        } finally {
+          // A producer that added something after our drainTo saw that we were still scheduled, so
+          // we must check again after clearing the flag
+          scheduled.set(false);
+          if (inbox.size() > 0) {
+            schedule();
+          }
         }
       }
     }
@@ -479,6 +748,9 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
         return;
       }
       long droppedEvents = outbox.getAndClearDroppedCount();
+      if (callerSummaries != null) {
+        deduplicatedUsers += callerSummaries.getAndClearDeduplicatedContexts();
+      }
       // We pass droppedEvents and deduplicatedUsers as parameters here because they are updated frequently in the main loop so we want to avoid synchronization on them.
       DiagnosticEvent diagnosticEvent = diagnosticStore.createEventAndReset(droppedEvents, deduplicatedUsers);
       deduplicatedUsers = 0;
@@ -487,10 +759,20 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
 
     private void doShutdown() {
       waitUntilAllFlushWorkersInactive();
+      stopWorkersAndCloseSender();
+    }
+
+    private void stopWorkersAndCloseSender() {
       disabled.set(true); // In case there are any more messages, we want to ignore them
       for (SendEventsTask task: flushWorkers) {
         task.stop();
       }
+      if (ownDeliveryExecutor != null) {
+        ownDeliveryExecutor.shutdown();
+      }
+      if (engine != null) {
+        engine.removeTenant(shard);
+      }
       try {
         eventsConfig.eventSender.close();
       } catch (IOException e) {
@@ -541,7 +823,10 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
 
       if (e instanceof Event.FeatureRequest) {
         Event.FeatureRequest fe = (Event.FeatureRequest)e;
-        if(!fe.isExcludeFromSummaries()) {
+        // If the event was already summarized on the calling thread, we are only seeing it so
+        // that we can check whether to add an index event.
+        if (!fe.isExcludeFromSummaries() &&
+            !(callerSummaries != null && StripedEventSummarizer.isSummaryOnly(fe))) {
           outbox.addToSummary(fe);
         }
         addFullEvent = fe.isTrackEvents();
@@ -602,28 +887,76 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
       return false;
     }
 
-    private void triggerFlush(EventBuffer outbox, BlockingQueue<FlushPayload> payloadQueue) {
-      if (disabled.get() || outbox.isEmpty()) {
+    private boolean hasIdleFlushWorker() {
+      // busyFlushWorkersCount includes payloads that are waiting for a worker as well as ones being sent
+      return busyFlushWorkersCount.get() < eventsConfig.eventSendingThreadPoolSize;
+    }
+
+    private void flush(EventBuffer outbox, BlockingQueue<FlushPayload> payloadQueue, AtomicLong flushCounter) {
+      // Check whether anything can be handed off before collecting the callers' summaries, so that a
+      // flush that can't happen yet leaves everything where it was
+      if (offline.get() || disabled.get()) {
+        return;
+      }
+      if (!payloadQueue.isEmpty()) {
+        // All the workers are busy so we can't flush now; keep the events in our state
+        logger.debug("Skipped flushing because all workers are busy");
         return;
       }
-      FlushPayload payload = outbox.getPayload();
+      if (callerSummaries != null) {
+        callerSummaries.drainTo(outbox.summarizer);
+      }
+      if (outbox.isEmpty()) {
+        return;
+      }
+      // Only a flush that sends something counts as the last flush for isScheduledFlushDeferred. The
+      // counter is updated before the handoff, so it is up to date by the time anything is delivered.
+      lastFlushTime = System.currentTimeMillis();
+      flushCounter.incrementAndGet();
+      triggerFlush(outbox, payloadQueue);
+    }
+
+    /**
+     * Decides whether a scheduled flush should be skipped because traffic is low, if
+     * maxFlushIntervalMillis is set. The scheduled flush task always runs at flushIntervalMillis, so
+     * a longer interval is implemented by skipping flushes until that much time has passed.
+     */
+    private boolean isScheduledFlushDeferred(EventBuffer outbox) {
+      if (eventsConfig.maxFlushIntervalMillis == 0) {
+        return false;
+      }
+      if (outbox.events.size() * 10 >= eventsConfig.capacity) {
+        currentFlushIntervalMillis = eventsConfig.flushIntervalMillis;
+        return false;
+      }
+      // Allow half an interval of leeway, since the flush task's timing is not exact
+      long elapsed = System.currentTimeMillis() - lastFlushTime;
+      if (elapsed + eventsConfig.flushIntervalMillis / 2 < currentFlushIntervalMillis) {
+        return true;
+      }
+      currentFlushIntervalMillis = Math.min(currentFlushIntervalMillis * 2, eventsConfig.maxFlushIntervalMillis);
+      return false;
+    }
+
+    /**
+     * Hands off the contents of the event buffer to the delivery workers. The caller has already
+     * checked that there is something to send and that the workers are not all busy.
+     */
+    private void triggerFlush(EventBuffer outbox, BlockingQueue<FlushPayload> payloadQueue) {
       if (diagnosticStore != null) {
-        int eventCount = payload.events.length + (payload.summary.isEmpty() ? 0 : 1);
+        int eventCount = outbox.events.size() + (outbox.summarizer.isEmpty() ? 0 : 1);
         diagnosticStore.recordEventsInBatch(eventCount);
       }
-      busyFlushWorkersCount.incrementAndGet();
-      if (payloadQueue.offer(payload)) {
-        // These events now belong to the next available flush worker, so drop them from our state
-        outbox.clear();
-      } else {
-        logger.debug("Skipped flushing because all workers are busy");
-        // All the workers are busy so we can't flush now; keep the events in our state
-        outbox.summarizer.restoreTo(payload.summary);
-        synchronized(busyFlushWorkersCount) {
-          busyFlushWorkersCount.decrementAndGet();
-          busyFlushWorkersCount.notify();
-        }
+      FlushPayload[] payloads = outbox.getPayloads(eventsConfig.maxEventsPerPayload);
+      eventsConfig.metricsListener.onBusyWorkersChanged(busyFlushWorkersCount.addAndGet(payloads.length));
+      for (FlushPayload payload: payloads) {
+        payloadQueue.add(payload);
       }
+      for (SendEventsTask worker: flushWorkers) {
+        worker.wake();
+      }
+      // These events now belong to the flush workers, so drop them from our state
+      outbox.clear();
     }
     
     private void handleResponse(EventSender.Result result) {
@@ -640,12 +973,15 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
         @Override
         public void run() {
           try {
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_OUTPUT_BUFFER_SIZE);
-            Writer writer = new BufferedWriter(new OutputStreamWriter(buffer, Charset.forName("UTF-8")), INITIAL_OUTPUT_BUFFER_SIZE);
-            gson.toJson(diagnosticEvent.value, writer);
-            writer.flush();
-            EventSender.Result result = eventsConfig.eventSender.sendDiagnosticEvent(
-                buffer.toByteArray(), eventsConfig.eventsUri);
+            byte[] data;
+            synchronized (diagnosticBuffer) {
+              Writer writer = diagnosticBuffer.startPayload(null);
+              gson.toJson(diagnosticEvent.value, writer);
+              diagnosticBuffer.finishPayload();
+              data = diagnosticBuffer.toByteArray(); // the sender needs its own copy, since we don't wait for it
+              diagnosticBuffer.recycle();
+            }
+            EventSender.Result result = eventsConfig.eventSender.sendDiagnosticEvent(data, eventsConfig.eventsUri);
             handleResponse(result);
             if (diagnosticEvent.initEvent) {
               didSendInitEvent.set(true);
@@ -659,16 +995,126 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
     }
   }
   
+  /**
+   * Counters for what caused each flush. A flush is only counted if it handed off some events for
+   * delivery.
+   */
+  public static final class FlushMetrics {
+    private final AtomicLong scheduledFlushes = new AtomicLong();
+    private final AtomicLong requestedFlushes = new AtomicLong();
+    private final AtomicLong earlyFlushes = new AtomicLong();
+    private final AtomicLong deferredFlushes = new AtomicLong();
+
+    FlushMetrics() {}
+
+    /**
+     * Returns the number of flushes that were done because the flush interval had elapsed.
+     *
+     * @return the number of scheduled flushes
+     */
+    public long getScheduledFlushCount() {
+      return scheduledFlushes.get();
+    }
+
+    /**
+     * Returns the number of flushes that were requested by the SDK, including the final flush when
+     * the event processor is closed.
+     *
+     * @return the number of requested flushes
+     */
+    public long getRequestedFlushCount() {
+      return requestedFlushes.get();
+    }
+
+    /**
+     * Returns the number of flushes that were done before the flush interval had elapsed, because
+     * the buffer reached its high-water mark.
+     *
+     * @return the number of early flushes
+     */
+    public long getEarlyFlushCount() {
+      return earlyFlushes.get();
+    }
+
+    /**
+     * Returns the number of times that a scheduled flush was skipped because traffic was low.
+     *
+     * @return the number of deferred flushes
+     */
+    public long getDeferredFlushCount() {
+      return deferredFlushes.get();
+    }
+  }
+
+  /**
+   * Counters for how often the output buffers of the delivery workers have had to be resized.
+   */
+  public static final class OutputBufferMetrics {
+    final AtomicLong growths = new AtomicLong();
+    final AtomicLong shrinks = new AtomicLong();
+
+    OutputBufferMetrics() {}
+
+    /**
+     * Returns the number of times a buffer had to grow while a payload was being written.
+     *
+     * @return the number of growth events
+     */
+    public long getGrowthCount() {
+      return growths.get();
+    }
+
+    /**
+     * Returns the number of times a buffer was replaced by a smaller one to release memory.
+     *
+     * @return the number of shrink events
+     */
+    public long getShrinkCount() {
+      return shrinks.get();
+    }
+  }
+
+  /**
+   * Counters for how often the delivery workers could reuse the JSON of a context that they had
+   * already serialized.
+   */
+  public static final class ContextCacheMetrics {
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+
+    ContextCacheMetrics() {}
+
+    /**
+     * Returns the number of times a context was found in a cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+      return hits.get();
+    }
+
+    /**
+     * Returns the number of times a context had to be serialized because it was not in a cache.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+      return misses.get();
+    }
+  }
+
   private static final class EventBuffer {
     final List<Event> events = new ArrayList<>();
     final EventSummarizer summarizer = new EventSummarizer();
     private final int capacity;
+    private final EventMetricsListener metricsListener;
     private final LDLogger logger;
     private boolean capacityExceeded = false;
     private long droppedEventCount = 0;
 
-    EventBuffer(int capacity, LDLogger logger) {
+    EventBuffer(int capacity, EventMetricsListener metricsListener, LDLogger logger) {
       this.capacity = capacity;
+      this.metricsListener = metricsListener;
       this.logger = logger;
     }
 
@@ -679,6 +1125,7 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
           logger.warn("Exceeded event queue capacity. Increase capacity to avoid dropping events.");
         }
         droppedEventCount++;
+        metricsListener.onEventDropped();
       } else {
         capacityExceeded = false;
         events.add(e);
@@ -707,10 +1154,22 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
       return res;
     }
 
-    FlushPayload getPayload() {
-      Event[] eventsOut = events.toArray(new Event[events.size()]);
-      EventSummarizer.EventSummary summary = summarizer.getSummaryAndReset();
-      return new FlushPayload(eventsOut, summary);
+    /**
+     * Divides the events into payloads of at most maxEventsPerPayload events each, or a single
+     * payload if maxEventsPerPayload is zero. The summary goes in the last one.
+     */
+    FlushPayload[] getPayloads(int maxEventsPerPayload) {
+      int total = events.size();
+      int payloadSize = maxEventsPerPayload > 0 && maxEventsPerPayload < total ? maxEventsPerPayload : total;
+      int payloadCount = total == 0 ? 1 : (total + payloadSize - 1) / payloadSize;
+      FlushPayload[] ret = new FlushPayload[payloadCount];
+      for (int i = 0; i < payloadCount; i++) {
+        List<Event> subList = events.subList(i * payloadSize, Math.min(total, (i + 1) * payloadSize));
+        Event[] eventsOut = subList.toArray(new Event[subList.size()]);
+        ret[i] = i < payloadCount - 1 ? new FlushPayload(eventsOut, null, null) :
+          new FlushPayload(eventsOut, summarizer.getSummaryAndReset(), summarizer);
+      }
+      return ret;
     }
 
     void clear() {
@@ -721,11 +1180,13 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
 
   private static final class FlushPayload {
     final Event[] events;
-    final EventSummary summary;
+    final EventSummary summary; // null if another payload from the same flush has the summary
+    final EventSummarizer summarizer; // the summary is given back to this after it has been serialized
 
-    FlushPayload(Event[] events, EventSummary summary) {
+    FlushPayload(Event[] events, EventSummary summary, EventSummarizer summarizer) {
       this.events = events;
       this.summary = summary;
+      this.summarizer = summarizer;
     }
   }
 
@@ -740,7 +1201,20 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
     private final AtomicInteger activeFlushWorkersCount;
     private final AtomicBoolean stopping;
     private final EventOutputFormatter formatter;
-    private final Thread thread;
+    private final AsyncEventSender asyncSender; // null if we deliver synchronously
+    private final ScheduledExecutorService scheduler;
+    // Each payload part that is being delivered uses a buffer. There is only one, so if delivery is
+    // asynchronous, the next part of a payload waits until the previous part has been delivered.
+    private final BlockingQueue<PayloadBuffer> freeBuffers = new LinkedBlockingQueue<>();
+    private PayloadBuffer currentBuffer; // the buffer that the formatter is writing to
+    // The payload that we have sent some parts of, if it has more parts that are still to be sent
+    private FlushPayload currentPayload;
+    private int nextEventIndex;
+    private AtomicInteger currentPendingParts; // see deliverPart
+    private final EventOutputFormatter.PayloadLimit payloadLimit; // null if payloads have no size limit
+    private final Executor deliveryExecutor; // null if we have a thread of our own
+    private final AtomicBoolean scheduled = new AtomicBoolean(false); // used only with deliveryExecutor
+    private final Thread thread; // null if we use deliveryExecutor
     private final LDLogger logger;
 
     SendEventsTask(
@@ -749,45 +1223,205 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
         BlockingQueue<FlushPayload> payloadQueue,
         AtomicInteger activeFlushWorkersCount,
         ThreadFactory threadFactory,
+        Executor deliveryExecutor,
+        ScheduledExecutorService scheduler,
+        OutputBufferMetrics outputBufferMetrics,
+        ContextCacheMetrics contextCacheMetrics,
         LDLogger logger
         ) {
       this.eventsConfig = eventsConfig;
-      this.formatter = new EventOutputFormatter(eventsConfig);
+      this.formatter = new EventOutputFormatter(eventsConfig, contextCacheMetrics);
+      this.asyncSender = eventsConfig.asyncDelivery && eventsConfig.eventSender instanceof AsyncEventSender ?
+          (AsyncEventSender)eventsConfig.eventSender : null;
+      this.scheduler = scheduler;
+      freeBuffers.add(new PayloadBuffer(INITIAL_OUTPUT_BUFFER_SIZE, MAX_RETAINED_OUTPUT_BUFFER_SIZE,
+          outputBufferMetrics));
+      this.payloadLimit = eventsConfig.maxPayloadBytes == 0 ? null :
+        () -> currentBuffer.uncompressedSize() >= eventsConfig.maxPayloadBytes;
       this.responseListener = responseListener;
       this.payloadQueue = payloadQueue;
       this.activeFlushWorkersCount = activeFlushWorkersCount;
       this.stopping = new AtomicBoolean(false);
       this.logger = logger;
-      thread = threadFactory.newThread(this);
-      thread.setDaemon(true);
-      thread.start();
+      this.deliveryExecutor = deliveryExecutor;
+      if (deliveryExecutor == null) {
+        thread = threadFactory.newThread(this);
+        thread.setDaemon(true);
+        thread.start();
+      } else {
+        thread = null;
+      }
     }
 
     public void run() {
+      if (deliveryExecutor != null) {
+        runOnce();
+        return;
+      }
       while (!stopping.get()) {
-        FlushPayload payload = null;
+        // We get a buffer before we take a payload, so that a payload stays in the queue, where the
+        // dispatcher can see it, for as long as we have nowhere to put it
+        PayloadBuffer buffer;
         try {
-          payload = payloadQueue.take();
+          buffer = freeBuffers.take();
         } catch (InterruptedException e) {
           continue;
         }
-        try {
-          ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_OUTPUT_BUFFER_SIZE);
-          Writer writer = new BufferedWriter(new OutputStreamWriter(buffer, Charset.forName("UTF-8")), INITIAL_OUTPUT_BUFFER_SIZE);
-          int outputEventCount = formatter.writeOutputEvents(payload.events, payload.summary, writer);
-          writer.flush();
-          EventSender.Result result = eventsConfig.eventSender.sendAnalyticsEvents(
-              buffer.toByteArray(),
-              outputEventCount,
-              eventsConfig.eventsUri
-              );
-          responseListener.handleResponse(result);
-        } catch (Exception e) {
-          logger.error("Unexpected error in event processor: {}", LogValues.exceptionSummary(e));
-          logger.debug(LogValues.exceptionTrace(e));
+        if (currentPayload == null) {
+          try {
+            startPayload(payloadQueue.take());
+          } catch (InterruptedException e) {
+            freeBuffers.add(buffer);
+            continue;
+          }
+        }
+        deliverPart(buffer);
+      }
+    }
+
+    /**
+     * Delivers at most one payload part, when we are running on a delivery thread that we share with
+     * other workers or with a {@link SharedEventEngine}'s other tenants, so that they get a turn
+     * before our next part.
+     * If there is no free buffer, because an earlier part is still being delivered asynchronously,
+     * we return without waiting; the delivery callback will call {@link #wake()}.
+     */
+    private void runOnce() {
+      try {
+        PayloadBuffer buffer = stopping.get() ? null : freeBuffers.poll();
+        if (buffer != null) {
+          FlushPayload payload = currentPayload == null ? payloadQueue.poll() : null;
+          if (currentPayload == null && payload == null) {
+            freeBuffers.add(buffer);
+          } else {
+            if (payload != null) {
+              startPayload(payload);
+            }
+            deliverPart(buffer);
+          }
+        }
+      } finally {
+        // The dispatcher or a delivery callback may have called wake() while we were still
+        // scheduled, so we must check again after clearing the flag. We read currentPayload first,
+        // because once the flag is cleared, another turn could start on another thread.
+        boolean hasMoreParts = currentPayload != null;
+        scheduled.set(false);
+        if (!freeBuffers.isEmpty() && (hasMoreParts || !payloadQueue.isEmpty())) {
+          wake();
+        }
+      }
+    }
+
+    /**
+     * Called when a payload has been queued or a buffer has been freed. If we are using a shared
+     * delivery executor, this schedules a turn on it; if we have our own thread, it is already
+     * waiting for the payload or buffer, so this does nothing.
+     */
+    void wake() {
+      if (deliveryExecutor == null || stopping.get() || !scheduled.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        deliveryExecutor.execute(this);
+      } catch (RejectedExecutionException e) { // COVERAGE: the engine was closed before its tenants
+        scheduled.set(false);
+      }
+    }
+
+    private void startPayload(FlushPayload payload) {
+      currentPayload = payload;
+      nextEventIndex = 0;
+      // One count for the formatting, plus one for each part that is still being delivered
+      currentPendingParts = new AtomicInteger(1);
+    }
+
+    /**
+     * Formats and sends the next part of the current payload. If the payload is too big according to
+     * maxPayloadBytes, we send it in several parts, each of which needs a free buffer.
+     */
+    private void deliverPart(PayloadBuffer buffer) {
+      FlushPayload payload = currentPayload;
+      AtomicInteger pendingParts = currentPendingParts;
+      boolean finished = true;
+      try {
+        currentBuffer = buffer;
+        long serializeStartTime = System.nanoTime();
+        // If we're compressing, the JSON is compressed as it is written, rather than afterward
+        Writer writer = buffer.startPayload(eventsConfig.gzipCompressionLevel);
+        int outputEventCount = formatter.writeOutputEvents(payload.events, nextEventIndex, payload.summary,
+            writer, payloadLimit);
+        buffer.finishPayload(); // this also finishes the compressed data, if any
+        boolean isFirstPart = nextEventIndex == 0;
+        nextEventIndex = formatter.getNextEventIndex();
+        finished = nextEventIndex >= payload.events.length;
+        if (finished && payload.summary != null) {
+          payload.summarizer.recycle(payload.summary);
         }
+        if (outputEventCount > 0 || isFirstPart) {
+          eventsConfig.metricsListener.onPayloadSerialized(outputEventCount, buffer.size(),
+              System.nanoTime() - serializeStartTime);
+          pendingParts.incrementAndGet();
+          PayloadBuffer sendingBuffer = buffer;
+          buffer = null; // it now belongs to the sender until delivery is finished
+          send(sendingBuffer, outputEventCount, pendingParts);
+        }
+      } catch (Exception e) {
+        logger.error("Unexpected error in event processor: {}", LogValues.exceptionSummary(e));
+        logger.debug(LogValues.exceptionTrace(e));
+        finished = true; // the rest of this payload is dropped
+      }
+      currentBuffer = null;
+      if (buffer != null) {
+        buffer.recycle();
+        freeBuffers.add(buffer);
+      }
+      if (finished) {
+        currentPayload = null;
+        currentPendingParts = null;
+        partDone(pendingParts);
+      }
+    }
+
+    private void send(PayloadBuffer buffer, int outputEventCount, AtomicInteger pendingParts) {
+      long startTime = System.nanoTime();
+      if (asyncSender != null) {
+        asyncSender.sendAnalyticsPayloadAsync(buffer, outputEventCount, eventsConfig.eventsUri, scheduler,
+            result -> partDelivered(buffer, outputEventCount, startTime, result, pendingParts));
+        return;
+      }
+      // The sender reads the data directly from our buffer, which we won't touch again until it returns
+      EventSender.Result result;
+      try {
+        result = eventsConfig.eventSender.sendAnalyticsPayload(
+            buffer,
+            outputEventCount,
+            eventsConfig.eventsUri
+            );
+      } catch (RuntimeException e) {
+        partDelivered(buffer, outputEventCount, startTime, null, pendingParts);
+        throw e;
+      }
+      partDelivered(buffer, outputEventCount, startTime, result, pendingParts);
+    }
+
+    private void partDelivered(PayloadBuffer buffer, int eventCount, long startTime, EventSender.Result result,
+        AtomicInteger pendingParts) {
+      eventsConfig.metricsListener.onPayloadDelivered(eventCount, buffer.size(), result != null && result.isSuccess(),
+          System.nanoTime() - startTime);
+      buffer.recycle();
+      freeBuffers.add(buffer);
+      if (result != null) {
+        responseListener.handleResponse(result);
+      }
+      partDone(pendingParts);
+      wake();
+    }
+
+    private void partDone(AtomicInteger pendingParts) {
+      if (pendingParts.decrementAndGet() == 0) {
         synchronized (activeFlushWorkersCount) {
-          activeFlushWorkersCount.decrementAndGet();
+          // The listener is called before anyone waiting for the count to reach zero can proceed
+          eventsConfig.metricsListener.onBusyWorkersChanged(activeFlushWorkersCount.decrementAndGet());
           activeFlushWorkersCount.notifyAll();
         }
       }
@@ -795,7 +1429,9 @@ public final class DefaultEventProcessor implements Closeable, EventProcessor {
 
     void stop() {
       stopping.set(true);
-      thread.interrupt();
+      if (thread != null) {
+        thread.interrupt();
+      }
     }
   }
 }
@@ -5,31 +5,42 @@ import com.launchdarkly.logging.LogValues;
 import com.launchdarkly.sdk.internal.http.HttpHelpers;
 import com.launchdarkly.sdk.internal.http.HttpProperties;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.launchdarkly.sdk.internal.http.HttpErrors.checkIfErrorIsRecoverableAndLog;
 import static com.launchdarkly.sdk.internal.http.HttpErrors.httpErrorDescription;
 
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSink;
 
 /**
  * The default implementation of delivering JSON data to an LaunchDarkly event endpoint.
  * This is the only implementation that is used by the SDKs. It is abstracted out with an
  * interface for the sake of testability.
  */
-public final class DefaultEventSender implements EventSender {
+public final class DefaultEventSender implements AsyncEventSender {
   /**
    * Default value for {@code retryDelayMillis} parameter.
    */
@@ -61,6 +72,13 @@ public final class DefaultEventSender implements EventSender {
   private final String analyticsRequestPath;
   private final String diagnosticRequestPath;
   final long retryDelayMillis; // visible for testing
+  private final RetryPolicy retryPolicy;
+  private final CircuitBreaker circuitBreaker;
+  private final Random jitterRandom = new Random();
+  private final Metrics metrics = new Metrics();
+  private final EventPayloadSpool spool;
+  private final EventMetricsListener metricsListener;
+  private final AtomicBoolean replayingSpool = new AtomicBoolean(false);
   private final LDLogger logger;
 
   /**
@@ -79,6 +97,73 @@ public final class DefaultEventSender implements EventSender {
       long retryDelayMillis,
       LDLogger logger
       ) {
+    this(httpProperties, analyticsRequestPath, diagnosticRequestPath, retryDelayMillis, null, logger);
+  }
+
+  /**
+   * Creates an instance that saves analytics event payloads it could not deliver, and sends them
+   * again after a later payload has been delivered successfully.
+   *
+   * @param httpProperties the HTTP configuration
+   * @param analyticsRequestPath the request path for posting analytics events
+   * @param diagnosticRequestPath the request path for posting diagnostic events
+   * @param retryDelayMillis retry delay, or zero to use the default
+   * @param spool where to save undelivered payloads, or null to drop them as usual
+   * @param logger the logger
+   */
+  public DefaultEventSender(
+      HttpProperties httpProperties,
+      String analyticsRequestPath,
+      String diagnosticRequestPath,
+      long retryDelayMillis,
+      EventPayloadSpool spool,
+      LDLogger logger
+      ) {
+    this(httpProperties, analyticsRequestPath, diagnosticRequestPath, RetryPolicy.fixedDelay(retryDelayMillis),
+        spool, logger);
+  }
+
+  /**
+   * Creates an instance with a configurable retry policy and circuit breaker.
+   *
+   * @param httpProperties the HTTP configuration
+   * @param analyticsRequestPath the request path for posting analytics events
+   * @param diagnosticRequestPath the request path for posting diagnostic events
+   * @param retryPolicy the retry policy, or null to retry once after the default delay
+   * @param spool where to save undelivered payloads, or null to drop them as usual
+   * @param logger the logger
+   */
+  public DefaultEventSender(
+      HttpProperties httpProperties,
+      String analyticsRequestPath,
+      String diagnosticRequestPath,
+      RetryPolicy retryPolicy,
+      EventPayloadSpool spool,
+      LDLogger logger
+      ) {
+    this(httpProperties, analyticsRequestPath, diagnosticRequestPath, retryPolicy, spool, null, logger);
+  }
+
+  /**
+   * Creates an instance that reports retries to an {@link EventMetricsListener}.
+   *
+   * @param httpProperties the HTTP configuration
+   * @param analyticsRequestPath the request path for posting analytics events
+   * @param diagnosticRequestPath the request path for posting diagnostic events
+   * @param retryPolicy the retry policy, or null to retry once after the default delay
+   * @param spool where to save undelivered payloads, or null to drop them as usual
+   * @param metricsListener receives {@link EventMetricsListener#onDeliveryRetry()}; may be null
+   * @param logger the logger
+   */
+  public DefaultEventSender(
+      HttpProperties httpProperties,
+      String analyticsRequestPath,
+      String diagnosticRequestPath,
+      RetryPolicy retryPolicy,
+      EventPayloadSpool spool,
+      EventMetricsListener metricsListener,
+      LDLogger logger
+      ) {
     if (httpProperties.getSharedHttpClient() == null) {
       this.httpClient = httpProperties.toHttpClientBuilder().build();
       shouldCloseHttpClient = true;
@@ -86,6 +171,8 @@ public final class DefaultEventSender implements EventSender {
       this.httpClient = httpProperties.getSharedHttpClient();
       shouldCloseHttpClient = false;
     }
+    this.spool = spool;
+    this.metricsListener = metricsListener != null ? metricsListener : EventMetricsListener.NO_OP;
     this.logger = logger;
 
     this.baseHeaders = httpProperties.toHeadersBuilder()
@@ -95,7 +182,10 @@ public final class DefaultEventSender implements EventSender {
     this.analyticsRequestPath = analyticsRequestPath == null ? DEFAULT_ANALYTICS_REQUEST_PATH : analyticsRequestPath;
     this.diagnosticRequestPath = diagnosticRequestPath == null ? DEFAULT_DIAGNOSTIC_REQUEST_PATH : diagnosticRequestPath;
 
-    this.retryDelayMillis = retryDelayMillis <= 0 ? DEFAULT_RETRY_DELAY_MILLIS : retryDelayMillis;
+    this.retryPolicy = retryPolicy == null ? RetryPolicy.fixedDelay(0) : retryPolicy;
+    this.retryDelayMillis = this.retryPolicy.initialDelayMillis;
+    this.circuitBreaker = new CircuitBreaker(this.retryPolicy.circuitBreakerThreshold,
+        this.retryPolicy.circuitBreakerIntervalMillis);
   }
 
   @Override
@@ -107,67 +197,297 @@ public final class DefaultEventSender implements EventSender {
 
   @Override
   public Result sendAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
-    return sendEventData(false, data, eventCount, eventsBaseUri);
+    return sendAnalyticsData(new ByteArrayPayload(data, false), eventCount, eventsBaseUri);
+  }
+
+  @Override
+  public Result sendCompressedAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
+    return sendAnalyticsData(new ByteArrayPayload(data, true), eventCount, eventsBaseUri);
+  }
+
+  @Override
+  public Result sendAnalyticsPayload(Payload payload, int eventCount, URI eventsBaseUri) {
+    return sendAnalyticsData(payload, eventCount, eventsBaseUri);
   }
 
   @Override
   public Result sendDiagnosticEvent(byte[] data, URI eventsBaseUri) {
-    return sendEventData(true, data, 1, eventsBaseUri);
+    return send(new Delivery(true, new ByteArrayPayload(data, false), 1, eventsBaseUri, null));
   }
 
-  private Result sendEventData(boolean isDiagnostic, byte[] data, int eventCount, URI eventsBaseUri) {
-    if (data == null || data.length == 0) {
-      // DefaultEventProcessor won't normally pass us an empty payload, but if it does, don't bother sending
-      return new Result(true, false, null);
+  @Override
+  public void sendAnalyticsPayloadAsync(Payload payload, int eventCount, URI eventsBaseUri,
+      ScheduledExecutorService scheduler, ResultCallback callback) {
+    Delivery delivery = new Delivery(false, payload, eventCount, eventsBaseUri, UUID.randomUUID().toString());
+    if (delivery.isEmpty()) {
+      callback.onResult(new Result(true, false, null));
+      return;
     }
+    attemptAsync(delivery, scheduler, result -> {
+      afterAnalyticsDeliveryAsync(delivery, result, scheduler);
+      callback.onResult(result);
+    });
+  }
 
-    Headers.Builder headersBuilder = baseHeaders.newBuilder();
-    String path;
-    String description;
+  private Result sendAnalyticsData(Payload payload, int eventCount, URI eventsBaseUri) {
+    Delivery delivery = new Delivery(false, payload, eventCount, eventsBaseUri, UUID.randomUUID().toString());
+    Result result = send(delivery);
+    afterAnalyticsDelivery(delivery, result);
+    return result;
+  }
 
-    if (isDiagnostic) {
-      path = diagnosticRequestPath;
-      description = "diagnostic event";
-    } else {
-      path = analyticsRequestPath;
-      String eventPayloadId = UUID.randomUUID().toString();
-      headersBuilder.add(EVENT_PAYLOAD_ID_HEADER, eventPayloadId);
-      headersBuilder.add(EVENT_SCHEMA_HEADER, EVENT_SCHEMA_VERSION);
-      description = String.format("%d event(s)", eventCount);
+  private void afterAnalyticsDelivery(Delivery delivery, Result result) {
+    if (spool != null && !delivery.isEmpty()) {
+      if (result.isSuccess()) {
+        replaySpooledPayloads(delivery.eventsBaseUri);
+      } else if (!result.isMustShutDown()) {
+        // The payload can't be used after we return, so the spool makes its own copy
+        spool.add(delivery.payloadId, delivery.payload, delivery.eventCount);
+      }
     }
+  }
 
-    URI uri = HttpHelpers.concatenateUriPath(eventsBaseUri, path);
-    Headers headers = headersBuilder.build();
-    RequestBody body = RequestBody.create(data, JSON_CONTENT_TYPE);
-    boolean mustShutDown = false;
+  // This is called on an OkHttp thread, so the disk I/O for the spool is done on the scheduler instead
+  private void afterAnalyticsDeliveryAsync(Delivery delivery, Result result, ScheduledExecutorService scheduler) {
+    if (spool == null || delivery.isEmpty()) {
+      return;
+    }
+    if (result.isSuccess()) {
+      if (!replayingSpool.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        scheduler.execute(() -> replayNextSpooledPayloadAsync(delivery.eventsBaseUri, scheduler));
+      } catch (RejectedExecutionException e) { // the SDK is shutting down; we'll try again next time
+        replayingSpool.set(false);
+      }
+    } else if (!result.isMustShutDown()) {
+      // The payload can't be used after the callback returns, so we copy it before handing it off
+      Payload copy = copyOf(delivery.payload);
+      Runnable save = () -> spool.add(delivery.payloadId, copy, delivery.eventCount);
+      try {
+        scheduler.execute(save);
+      } catch (RejectedExecutionException e) {
+        // The SDK is shutting down, which is when saving the payload for the next run matters most
+        save.run();
+      }
+    }
+  }
 
-    logger.debug("Posting {} to {} with payload: {}", description, uri,
-        LogValues.defer(new LazilyPrintedUtf8Data(data)));
+  private void replayNextSpooledPayloadAsync(URI eventsBaseUri, ScheduledExecutorService scheduler) {
+    EventPayloadSpool.SpooledPayload payload = spool.peek();
+    if (payload == null) {
+      replayingSpool.set(false);
+      return;
+    }
+    attemptAsync(new Delivery(false, payload, payload.eventCount, eventsBaseUri, payload.payloadId), scheduler,
+        result -> {
+          if (!result.isSuccess()) {
+            replayingSpool.set(false); // it stays in the spool until the next successful delivery
+            return;
+          }
+          try {
+            scheduler.execute(() -> {
+              spool.remove(payload);
+              replayNextSpooledPayloadAsync(eventsBaseUri, scheduler);
+            });
+          } catch (RejectedExecutionException e) {
+            // The SDK is shutting down; remove the payload now so that it isn't sent again next time
+            spool.remove(payload);
+            replayingSpool.set(false);
+          }
+        });
+  }
+
+  private static Payload copyOf(Payload payload) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(payload.size());
+    try {
+      payload.writeTo(out);
+    } catch (IOException e) { // COVERAGE: writing to a ByteArrayOutputStream doesn't throw
+    }
+    return new ByteArrayPayload(out.toByteArray(), payload.isCompressed());
+  }
+
+  private void replaySpooledPayloads(URI eventsBaseUri) {
+    // Only one worker at a time does this, so that the payloads are sent in order and only once
+    if (!replayingSpool.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      EventPayloadSpool.SpooledPayload payload;
+      while ((payload = spool.peek()) != null) {
+        Result result = send(new Delivery(false, payload, payload.eventCount, eventsBaseUri, payload.payloadId));
+        if (!result.isSuccess()) {
+          return; // it stays in the spool until the next successful delivery
+        }
+        spool.remove(payload);
+      }
+    } finally {
+      replayingSpool.set(false);
+    }
+  }
 
-    for (int attempt = 0; attempt < 2; attempt++) {
-      if (attempt > 0) {
-        logger.warn("Will retry posting {} after {}ms", description, retryDelayMillis);
+  private Result send(Delivery delivery) {
+    if (delivery.isEmpty()) {
+      // DefaultEventProcessor won't normally pass us an empty payload, but if it does, don't bother sending
+      return new Result(true, false, null);
+    }
+    while (delivery.startAttempt()) {
+      Result result;
+      try (Response response = httpClient.newCall(delivery.newRequest()).execute()) {
+        result = delivery.handleResponse(response);
+      } catch (IOException e) {
+        result = delivery.handleException(e);
+      }
+      if (result != null) {
+        return result;
+      }
+      long delay = delivery.delayBeforeRetry();
+      if (delay < 0) {
+        break;
+      }
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) { // COVERAGE: there's no way to cause this in tests
+      }
+    }
+    return delivery.failureResult();
+  }
+
+  private void attemptAsync(Delivery delivery, ScheduledExecutorService scheduler, ResultCallback callback) {
+    if (!delivery.startAttempt()) {
+      callback.onResult(delivery.failureResult());
+      return;
+    }
+    httpClient.newCall(delivery.newRequest()).enqueue(new Callback() {
+      @Override
+      public void onResponse(Call call, Response response) {
+        Result result;
+        try {
+          result = delivery.handleResponse(response);
+        } catch (RuntimeException e) { // COVERAGE: there's no way to cause this in tests
+          // The callback must always be called, or the event processor would wait for it forever
+          result = delivery.failureResult();
+        } finally {
+          response.close();
+        }
+        retryOrFinish(result);
+      }
+
+      @Override
+      public void onFailure(Call call, IOException e) {
+        retryOrFinish(delivery.handleException(e));
+      }
+
+      private void retryOrFinish(Result result) {
+        if (result != null) {
+          callback.onResult(result);
+          return;
+        }
+        long delay = delivery.delayBeforeRetry();
+        if (delay < 0) {
+          callback.onResult(delivery.failureResult());
+          return;
+        }
         try {
-          Thread.sleep(retryDelayMillis);
-        } catch (InterruptedException e) { // COVERAGE: there's no way to cause this in tests
+          scheduler.schedule(() -> attemptAsync(delivery, scheduler, callback), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) { // the SDK is shutting down
+          callback.onResult(delivery.failureResult());
         }
       }
+    });
+  }
 
-      Request request = new Request.Builder()
+  // The state of one payload's delivery, which may take several attempts. This is shared by the
+  // synchronous and asynchronous code paths; only one attempt is ever in progress at a time.
+  private final class Delivery {
+    final boolean isDiagnostic;
+    final Payload payload;
+    final int eventCount;
+    final URI eventsBaseUri;
+    final String payloadId;
+    private final String description;
+    private final URI uri;
+    private final Headers headers;
+    private final RequestBody body;
+    private final long firstAttemptTime = System.currentTimeMillis();
+    private int attempt = -1;
+    private long attemptStartTime;
+    private CircuitBreaker.Permit permit; // for the current attempt
+    private boolean mustShutDown;
+
+    Delivery(boolean isDiagnostic, Payload payload, int eventCount, URI eventsBaseUri, String payloadId) {
+      this.isDiagnostic = isDiagnostic;
+      this.payload = payload;
+      this.eventCount = eventCount;
+      this.eventsBaseUri = eventsBaseUri;
+      this.payloadId = payloadId;
+
+      Headers.Builder headersBuilder = baseHeaders.newBuilder();
+      if (payload.isCompressed()) {
+        headersBuilder.add("Content-Encoding", "gzip");
+      }
+      String path;
+      if (isDiagnostic) {
+        path = diagnosticRequestPath;
+        description = "diagnostic event";
+      } else {
+        path = analyticsRequestPath;
+        headersBuilder.add(EVENT_PAYLOAD_ID_HEADER, payloadId);
+        headersBuilder.add(EVENT_SCHEMA_HEADER, EVENT_SCHEMA_VERSION);
+        description = String.format("%d event(s)", eventCount);
+      }
+      uri = HttpHelpers.concatenateUriPath(eventsBaseUri, path);
+      headers = headersBuilder.build();
+      // The body is written from the payload each time the request is sent, without copying it, so a
+      // retry sends exactly the same bytes
+      body = new PayloadRequestBody(payload);
+    }
+
+    boolean isEmpty() {
+      return payload.size() == 0;
+    }
+
+    /**
+     * Returns false if we should not make another attempt because the circuit breaker is open.
+     */
+    boolean startAttempt() {
+      attempt++;
+      if (attempt == 0) {
+        logger.debug("Posting {} to {} with payload: {}", description, uri,
+            LogValues.defer(new LazilyPrintedUtf8Data(payload)));
+      }
+      // If the circuit breaker opened while we were waiting to retry, we give up on this payload
+      // rather than adding to the load on a service that is already failing
+      permit = circuitBreaker.allowRequest(System.currentTimeMillis());
+      if (permit == CircuitBreaker.Permit.DENIED) {
+        metrics.shortCircuits.incrementAndGet();
+        logger.debug("Not posting {} because event delivery is suspended after repeated failures", description);
+        return false;
+      }
+      attemptStartTime = System.currentTimeMillis();
+      return true;
+    }
+
+    Request newRequest() {
+      return new Request.Builder()
           .url(uri.toASCIIString())
           .post(body)
           .headers(headers)
           .build();
+    }
 
-      long startTime = System.currentTimeMillis();
-      String nextActionMessage = attempt == 0 ? "will retry" : "some events were dropped";
-      String errorContext = "posting " + description;
-
-      try (Response response = httpClient.newCall(request).execute()) {
+    /**
+     * Returns the final result, or null if the request failed in a way that can be retried.
+     */
+    Result handleResponse(Response response) {
+      try {
         long endTime = System.currentTimeMillis();
-        logger.debug("{} delivery took {} ms, response status {}", description, endTime - startTime, response.code());
+        logger.debug("{} delivery took {} ms, response status {}", description, endTime - attemptStartTime,
+            response.code());
 
         if (response.isSuccessful()) {
+          circuitBreaker.recordSuccess();
           return new Result(true, false, parseResponseDate(response));
         }
 
@@ -175,20 +495,88 @@ public final class DefaultEventSender implements EventSender {
         boolean recoverable = checkIfErrorIsRecoverableAndLog(
             logger,
             errorDesc,
-            errorContext,
+            errorContext(),
             response.code(),
-            nextActionMessage
+            nextActionMessage()
             );
         if (!recoverable) {
           mustShutDown = true;
-          break;
+          return failureResult();
         }
-      } catch (IOException e) {
-        checkIfErrorIsRecoverableAndLog(logger, e.toString(), errorContext, 0, nextActionMessage);
+        recordFailure();
+        return null;
+      } finally {
+        // If this was the circuit breaker's trial request, it must not stay in progress forever even if
+        // the response was one that doesn't count as a success or a failure
+        circuitBreaker.endRequest(permit);
       }
     }
 
-    return new Result(false, mustShutDown, null);
+    Result handleException(IOException e) {
+      checkIfErrorIsRecoverableAndLog(logger, e.toString(), errorContext(), 0, nextActionMessage());
+      recordFailure();
+      circuitBreaker.endRequest(permit);
+      return null;
+    }
+
+    /**
+     * Returns the delay before the next attempt, or -1 if we should give up.
+     */
+    long delayBeforeRetry() {
+      if (attempt + 1 >= retryPolicy.maxAttempts) {
+        return -1;
+      }
+      long delay = retryPolicy.delayBeforeRetry(attempt + 1, jitterRandom);
+      if (retryPolicy.deadlineMillis > 0 &&
+          System.currentTimeMillis() + delay - firstAttemptTime > retryPolicy.deadlineMillis) {
+        logger.warn("Will not retry posting {} because the retry deadline has passed", description);
+        return -1;
+      }
+      logger.warn("Will retry posting {} after {}ms", description, delay);
+      metrics.retries.incrementAndGet();
+      metricsListener.onDeliveryRetry();
+      return delay;
+    }
+
+    Result failureResult() {
+      return new Result(false, mustShutDown, null);
+    }
+
+    private String errorContext() {
+      return "posting " + description;
+    }
+
+    private String nextActionMessage() {
+      return attempt < retryPolicy.maxAttempts - 1 ? "will retry" :
+        (spool != null && !isDiagnostic ? "will retry later" : "some events were dropped");
+    }
+  }
+
+  private void recordFailure() {
+    if (circuitBreaker.recordFailure(System.currentTimeMillis())) {
+      metrics.circuitOpenings.incrementAndGet();
+      logger.warn("Suspending event delivery for {}ms after {} consecutive failures",
+          retryPolicy.circuitBreakerIntervalMillis, retryPolicy.circuitBreakerThreshold);
+    }
+  }
+
+  /**
+   * Returns counters for retries and for the circuit breaker.
+   *
+   * @return the metrics
+   */
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns true if delivery is currently suspended because of repeated failures, or if the
+   * circuit breaker is about to allow a single request to test whether the service has recovered.
+   *
+   * @return true if the circuit breaker is open
+   */
+  public boolean isCircuitBreakerOpen() {
+    return circuitBreaker.isOpen();
   }
 
   private final Date parseResponseDate(Response response) {
@@ -206,16 +594,116 @@ public final class DefaultEventSender implements EventSender {
     return null;
   }
 
-  private final class LazilyPrintedUtf8Data implements LogValues.StringProvider {
+  /**
+   * Counters for retries and for the circuit breaker.
+   */
+  public static final class Metrics {
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong shortCircuits = new AtomicLong();
+    private final AtomicLong circuitOpenings = new AtomicLong();
+
+    Metrics() {}
+
+    /**
+     * Returns the number of times a request was retried after a failure.
+     *
+     * @return the number of retries
+     */
+    public long getRetryCount() {
+      return retries.get();
+    }
+
+    /**
+     * Returns the number of times a payload was not sent, or not retried, because the circuit
+     * breaker was open.
+     *
+     * @return the number of short-circuited sends
+     */
+    public long getShortCircuitCount() {
+      return shortCircuits.get();
+    }
+
+    /**
+     * Returns the number of times the circuit breaker opened after repeated failures.
+     *
+     * @return the number of circuit breaker openings
+     */
+    public long getCircuitOpenCount() {
+      return circuitOpenings.get();
+    }
+  }
+
+  private static final class ByteArrayPayload implements Payload {
     private final byte[] data;
+    private final boolean compressed;
+
+    ByteArrayPayload(byte[] data, boolean compressed) {
+      this.data = data == null ? new byte[0] : data;
+      this.compressed = compressed;
+    }
 
-    LazilyPrintedUtf8Data(byte[] data) {
-      this.data = data;
+    @Override
+    public int size() {
+      return data.length;
+    }
+
+    @Override
+    public boolean isCompressed() {
+      return compressed;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      out.write(data);
+    }
+
+    @Override
+    public byte[] toByteArray() {
+      return data;
+    }
+  }
+
+  private static final class PayloadRequestBody extends RequestBody {
+    private final Payload payload;
+
+    PayloadRequestBody(Payload payload) {
+      this.payload = payload;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return JSON_CONTENT_TYPE;
+    }
+
+    @Override
+    public long contentLength() {
+      return payload.size();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+      payload.writeTo(sink.outputStream());
+    }
+  }
+
+  private static final class LazilyPrintedUtf8Data implements LogValues.StringProvider {
+    private final Payload payload;
+
+    LazilyPrintedUtf8Data(Payload payload) {
+      this.payload = payload;
     }
 
     @Override
     public String get() {
-      return data == null ? "" : new String(data, Charset.forName("UTF-8"));
+      byte[] data = payload.toByteArray();
+      if (payload.isCompressed()) {
+        try {
+          data = GzipPayloads.decompress(data);
+        } catch (IOException e) { // COVERAGE: the event processor never produces invalid gzip data
+          return "(invalid gzip data)";
+        }
+      }
+      return new String(data, Charset.forName("UTF-8"));
     }
   }
 }
@@ -8,9 +8,9 @@ import com.launchdarkly.sdk.LDValueType;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
-import static com.launchdarkly.sdk.internal.GsonHelpers.gsonInstance;
+import java.util.Map;
 
 /**
  * Implements serialization of contexts within JSON event data. This uses a similar schema to the
@@ -20,15 +20,24 @@ import static com.launchdarkly.sdk.internal.GsonHelpers.gsonInstance;
  * a list of the names of these in _meta.redactedAttributes.
  * <p>
  * This implementation is optimized to avoid unnecessary work in the typical use case where there
- * aren't any private attributes.
+ * aren't any private attributes. When there are, the configured private attribute references are
+ * compiled ahead of time into a tree of RedactionNodes, one level per path component, so
+ * that finding out whether an attribute or subproperty is private takes one hash lookup per level
+ * no matter how many private attributes there are. A context's own private attributes, if any, are
+ * compiled into a second, usually tiny, tree that is consulted alongside the global one.
  */
 class EventContextFormatter {
   private final boolean allAttributesPrivate;
-  private final AttributeRef[] globalPrivateAttributes;
+  private final RedactionNode globalPrivateAttributes;
 
   EventContextFormatter(boolean allAttributesPrivate, AttributeRef[] globalPrivateAttributes) {
     this.allAttributesPrivate = allAttributesPrivate;
-    this.globalPrivateAttributes = globalPrivateAttributes == null ? new AttributeRef[0] : globalPrivateAttributes;
+    this.globalPrivateAttributes = new RedactionNode();
+    if (globalPrivateAttributes != null) {
+      for (AttributeRef a: globalPrivateAttributes) {
+        this.globalPrivateAttributes.add(a);
+      }
+    }
   }
 
   public void write(LDContext c, JsonWriter w, boolean redactAnonymous) throws IOException {
@@ -58,9 +67,18 @@ class EventContextFormatter {
       w.name("anonymous").value(true);
     }
 
+    boolean redactAll = allAttributesPrivate || (redactAnonymous && c.isAnonymous());
+    RedactionNode contextPrivateAttributes = null;
+    if (!redactAll && c.getPrivateAttributeCount() != 0) {
+      contextPrivateAttributes = new RedactionNode();
+      for (int i = 0; i < c.getPrivateAttributeCount(); i++) {
+        contextPrivateAttributes.add(c.getPrivateAttribute(i));
+      }
+    }
+
     List<String> redacted = null;
     if (c.getName() != null) {
-      if (isAttributeEntirelyPrivate(c, "name", redactAnonymous)) {
+      if (redactAll || findPrivateRef("name", globalPrivateAttributes, contextPrivateAttributes) != null) {
         redacted = addOrCreate(redacted, "name");
       } else {
         w.name("name").value(c.getName());
@@ -68,7 +86,12 @@ class EventContextFormatter {
     }
 
     for (String attrName: c.getCustomAttributeNames()) {
-      redacted = writeOrRedactAttribute(w, c, attrName, c.getValue(attrName), redacted, redactAnonymous);
+      if (redactAll) {
+        redacted = addOrCreate(redacted, attrName);
+      } else {
+        redacted = writeRedactedValue(w, attrName, c.getValue(attrName), globalPrivateAttributes,
+            contextPrivateAttributes, redacted);
+      }
     }
 
     boolean haveRedacted = redacted != null && !redacted.isEmpty();
@@ -85,130 +108,64 @@ class EventContextFormatter {
     w.endObject();
   }
 
-  private boolean isAttributeEntirelyPrivate(LDContext c, String attrName, boolean redactAnonymous) {
-    if (allAttributesPrivate) {
-      return true;
-    } else if (redactAnonymous && c.isAnonymous()) {
-        return true;
-    }
-    AttributeRef privateRef = findPrivateRef(c, 1, attrName, null);
-    return privateRef != null && privateRef.getDepth() == 1;
-  }
-
-  private List<String> writeOrRedactAttribute(
-      JsonWriter w,
-      LDContext c,
-      String attrName,
-      LDValue value,
-      List<String> redacted,
-      boolean redactAnonymous
-      ) throws IOException {
-    if (allAttributesPrivate) {
-      return addOrCreate(redacted, attrName);
-    } else if (redactAnonymous && c.isAnonymous()) {
-      return addOrCreate(redacted, attrName);
-    }
-    return writeRedactedValue(w, c, 0, attrName, value, null, redacted);
-  }
-
   // This method implements the context-aware attribute redaction logic, in which an attribute
   // can be 1. written as-is, 2. fully redacted, or 3. (for a JSON object) partially redacted.
   // It returns the updated redacted attribute list.
+  //
+  // The globalParent and contextParent parameters are the nodes in the global and per-context
+  // redaction trees that correspond to the object containing this property; either can be null if
+  // no private attribute refers to anything within that object.
   private List<String> writeRedactedValue(
       JsonWriter w,
-      LDContext c,
-      int previousDepth,
       String attrName,
       LDValue value,
-      AttributeRef previousMatchRef,
+      RedactionNode globalParent,
+      RedactionNode contextParent,
       List<String> redacted
       ) throws IOException {
-    // See findPrivateRef for the meaning of the previousMatchRef parameter.
-    int depth = previousDepth + 1;
-    AttributeRef privateRef = findPrivateRef(c, depth, attrName, previousMatchRef);
-    
-    // If privateRef is non-null, then it is either an exact match for the property we're looking at,
-    // or it refers to a subproperty of it (for instance, if we are redacting property "b" within
-    // attribute "a", it could be /a/b [depth 2] or /a/b/c [depth 3]). If the depth shows that it's an
-    // exact match, this whole value is redacted and we don't bother recursing.
-    if (privateRef != null && privateRef.getDepth() == depth) {
+    RedactionNode globalNode = globalParent == null ? null : globalParent.get(attrName);
+    RedactionNode contextNode = contextParent == null ? null : contextParent.get(attrName);
+
+    // If either node has a ref, then a private attribute refers to exactly this property, so the
+    // whole value is redacted and we don't bother recursing. If both do, we report the global one.
+    AttributeRef privateRef = findPrivateRef(globalNode, contextNode);
+    if (privateRef != null) {
       return addOrCreate(redacted, privateRef.toString());
     }
-    
-    // If privateRef is null (there was no matching private attribute)-- or, if privateRef isn't null
-    // but it refers to a subproperty, and this value isn't an object so it has no properties-- then
-    // we just write the value unredacted.
-    if (privateRef == null || value.getType() != LDValueType.OBJECT) {
+
+    // If there are no nodes (there was no matching private attribute)-- or, if there are, but they
+    // refer to subproperties, and this value isn't an object so it has no properties-- then we just
+    // write the value unredacted.
+    if ((globalNode == null && contextNode == null) || value.getType() != LDValueType.OBJECT) {
       writeNameAndValue(w, attrName, value);
       return redacted;
     }
-    
+
     // At this point we know it is an object and we are redacting subproperties.
     w.name(attrName).beginObject();
     for (String name: value.keys()) {
-      redacted = writeRedactedValue(w, c, depth, name, value.get(name), privateRef, redacted);
+      redacted = writeRedactedValue(w, name, value.get(name), globalNode, contextNode, redacted);
     }
     w.endObject();
     return redacted;
   }
-  
-  // Searches both the globally private attributes and the per-context private attributes to find a
-  // match for the attribute or subproperty we're looking at.
-  //
-  // If we find one that exactly matches the current path (that is, the depth is the same), we
-  // return that one, because that would tell us that the entire attribute/subproperty should be
-  // redacted. If we don't find that, but we do find at least one match for a subproperty of this
-  // path (that is, it has the current path as a prefix, but the depth is greater), then we return
-  // it, to tell us that we'll need to recurse to redact subproperties.
-  //
-  // The previousMatchRef parameter is how we to keep track of the previous path segments we have
-  // already matched when recursing. It starts out as null at the top level. Then, every time we
-  // recurse to redact subproperties of an object, we set previousMatchRef to *any* AttributeRef
-  // we've seen that has the current subpath as a prefix; such an AttributeRef is guaranteed to
-  // exist, because we wouldn't have bothered to recurse if we hadn't found one, and we will only
-  // be comparing components 0 through depth-1 of it (see matchPrivateRef). This shortcut allows
-  // us to avoid allocating a variable-length mutable data structure such as a stack.
-  private AttributeRef findPrivateRef(LDContext c, int depth, String attrName, AttributeRef previousMatchRef) {
-    AttributeRef nonExactMatch = null;
-    if (globalPrivateAttributes.length != 0) { // minor optimization to avoid creating an iterator if it's empty
-      for (AttributeRef globalPrivate: globalPrivateAttributes) {
-        if (matchPrivateRef(globalPrivate, depth, attrName, previousMatchRef)) {
-          if (globalPrivate.getDepth() == depth) {
-            return globalPrivate;
-          }
-          nonExactMatch = globalPrivate;
-        }
-      }
-    }
-    for (int i = 0; i < c.getPrivateAttributeCount(); i++) {
-      AttributeRef contextPrivate = c.getPrivateAttribute(i);
-      if (matchPrivateRef(contextPrivate, depth, attrName, previousMatchRef)) {
-        if (contextPrivate.getDepth() == depth) {
-          return contextPrivate;
-        }
-        nonExactMatch = contextPrivate;
-      }
-    }
-    return nonExactMatch;
+
+  private static AttributeRef findPrivateRef(String attrName, RedactionNode globalParent, RedactionNode contextParent) {
+    return findPrivateRef(globalParent.get(attrName), contextParent == null ? null : contextParent.get(attrName));
   }
-  
-  private static boolean matchPrivateRef(AttributeRef ref, int depth, String attrName, AttributeRef previousMatchRef) {
-    if (ref.getDepth() < depth) {
-      return false;
-    }
-    for (int i = 0; i < (depth - 1); i++) {
-      if (!ref.getComponent(i).equals(previousMatchRef.getComponent(i))) {
-        return false;
-      }
+
+  private static AttributeRef findPrivateRef(RedactionNode globalNode, RedactionNode contextNode) {
+    if (globalNode != null && globalNode.ref != null) {
+      return globalNode.ref;
     }
-    return ref.getComponent(depth - 1).equals(attrName);
+    return contextNode == null ? null : contextNode.ref;
   }
-  
+
   private static void writeNameAndValue(JsonWriter w, String name, LDValue value) throws IOException {
     w.name(name);
-    gsonInstance().toJson(value, LDValue.class, w);
+    JsonValueWriter.writeLDValue(value, w);
   }
-  
+
   private static <T> List<T> addOrCreate(List<T> list, T value) {
     if (list == null) {
       list = new ArrayList<>();
@@ -216,4 +173,42 @@ class EventContextFormatter {
     list.add(value);
     return list;
   }
+
+  /**
+   * One level of a tree of private attribute references. The root represents the context itself;
+   * each child represents an attribute, or a property within the object represented by its parent,
+   * with the same name as the path component that leads to it.
+   */
+  private static final class RedactionNode {
+    // The first private attribute reference whose path ends here, if any. If there is more than one
+    // (for instance, "name" and "/name"), the first one is the one we report in redactedAttributes.
+    AttributeRef ref;
+    private Map<String, RedactionNode> children;
+
+    void add(AttributeRef attrRef) {
+      if (attrRef == null || !attrRef.isValid()) {
+        return; // an invalid reference can't match any attribute
+      }
+      RedactionNode node = this;
+      for (int i = 0; i < attrRef.getDepth(); i++) {
+        String name = attrRef.getComponent(i);
+        if (node.children == null) {
+          node.children = new HashMap<>();
+        }
+        RedactionNode child = node.children.get(name);
+        if (child == null) {
+          child = new RedactionNode();
+          node.children.put(name, child);
+        }
+        node = child;
+      }
+      if (node.ref == null) {
+        node.ref = attrRef;
+      }
+    }
+
+    RedactionNode get(String name) {
+      return children == null ? null : children.get(name);
+    }
+  }
 }
@@ -0,0 +1,165 @@
+package com.launchdarkly.sdk.internal.events;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free, multi-producer single-consumer queue, used by {@link DefaultEventProcessor}
+ * to pass messages from application threads to the EventDispatcher thread.
+ * <p>
+ * This replaces an ArrayBlockingQueue, which takes a single lock for every offer and every drain;
+ * with many application threads evaluating flags at once, that lock was a point of contention.
+ * Here, a producer claims a slot with a single compare-and-set on the producer index and then
+ * publishes its item into that slot, so producers never block each other or the consumer. As
+ * with ArrayBlockingQueue, {@link #offer(Object)} fails immediately if the queue already holds
+ * {@code capacity} items, so the caller can drop the item rather than waiting.
+ * <p>
+ * Only one thread at a time may call the consumer methods ({@link #poll()}, {@link #take()}, and
+ * {@link #drainTo(Collection, int)}); any number of threads may call {@link #offer(Object)}.
+ *
+ * @param <E> the item type
+ */
+final class EventInbox<E> {
+  private final AtomicReferenceArray<E> buffer;
+  private final int mask;
+  private final int capacity;
+  private final AtomicLong producerIndex = new AtomicLong(0);
+  private final AtomicLong consumerIndex = new AtomicLong(0);
+  private volatile Thread waitingConsumer;
+  private volatile Runnable itemListener;
+
+  /**
+   * Creates an instance.
+   *
+   * @param capacity the maximum number of items (if zero or negative, a value of 1 is used)
+   */
+  EventInbox(int capacity) {
+    this.capacity = capacity <= 0 ? 1 : capacity;
+    int size = 1;
+    while (size < this.capacity) {
+      size <<= 1;
+    }
+    this.buffer = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * Adds an item if there is room for it. This never blocks.
+   *
+   * @param item the item; must not be null
+   * @return true if the item was added, false if the queue was full
+   */
+  boolean offer(E item) {
+    long index;
+    do {
+      index = producerIndex.get();
+      if (index - consumerIndex.get() >= capacity) {
+        return false;
+      }
+    } while (!producerIndex.compareAndSet(index, index + 1));
+    // The consumer nulls out a slot before it advances past it, so the slot we've claimed is empty.
+    buffer.set((int)index & mask, item);
+    Thread consumer = waitingConsumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+    Runnable listener = itemListener;
+    if (listener != null) {
+      listener.run();
+    }
+    return true;
+  }
+
+  /**
+   * Sets a listener that is called after every item is added. This is for a consumer that does not
+   * have a thread of its own to wait in {@link #take()}; the listener should schedule it to run if
+   * it is not already scheduled, and so it must be very quick.
+   *
+   * @param itemListener the listener, or null
+   */
+  void setItemListener(Runnable itemListener) {
+    this.itemListener = itemListener;
+  }
+
+  /**
+   * Removes the next item, if any. This never blocks for long: if a producer has claimed the next
+   * slot but not yet stored its item, it spins until the item is visible.
+   *
+   * @return the next item, or null if the queue is empty
+   */
+  E poll() {
+    long index = consumerIndex.get();
+    int offset = (int)index & mask;
+    E item = buffer.get(offset);
+    if (item == null) {
+      if (index == producerIndex.get()) {
+        return null;
+      }
+      // COVERAGE: a producer has claimed this slot but not yet stored its item; there is no way to
+      // reliably cause this condition in tests
+      do {
+        Thread.yield(); // let the producer finish, in case it is sharing our CPU
+        item = buffer.get(offset);
+      } while (item == null);
+    }
+    buffer.lazySet(offset, null);
+    consumerIndex.lazySet(index + 1);
+    return item;
+  }
+
+  /**
+   * Removes the next item, waiting until one is available.
+   *
+   * @return the next item
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  E take() throws InterruptedException {
+    E item = poll();
+    if (item != null) {
+      return item;
+    }
+    waitingConsumer = Thread.currentThread();
+    try {
+      // Producers check waitingConsumer after storing an item, and we check for items after setting
+      // waitingConsumer, so one of us will always see the other.
+      while ((item = poll()) == null) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        LockSupport.park(this);
+      }
+      return item;
+    } finally {
+      waitingConsumer = null;
+    }
+  }
+
+  /**
+   * Removes up to the specified number of items without blocking, adding them to a collection.
+   *
+   * @param collection the collection to add to
+   * @param maxItems the maximum number of items to remove
+   * @return the number of items that were removed
+   */
+  int drainTo(Collection<? super E> collection, int maxItems) {
+    int count = 0;
+    E item;
+    while (count < maxItems && (item = poll()) != null) {
+      collection.add(item);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the approximate number of items in the queue.
+   *
+   * @return the number of items
+   */
+  int size() {
+    long size = producerIndex.get() - consumerIndex.get();
+    return (int)Math.max(0, Math.min(size, capacity));
+  }
+}
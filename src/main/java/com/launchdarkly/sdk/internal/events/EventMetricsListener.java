@@ -0,0 +1,76 @@
+package com.launchdarkly.sdk.internal.events;
+
+/**
+ * Receives measurements from the event pipeline, so that an application can feed them into its
+ * own monitoring. Unlike diagnostic events, these are never sent to LaunchDarkly.
+ * <p>
+ * A listener is set with {@link EventsConfiguration}, and can also be passed to
+ * {@link DefaultEventSender} to find out about retries. Every method has a default implementation
+ * that does nothing, so an implementation only needs to override the ones it is interested in.
+ * <p>
+ * The methods are called synchronously on the event processor's own threads, and some of them are
+ * called on the application's threads or for every batch of events, so they must be quick and
+ * must not block or throw exceptions. All of the measurements are passed as primitive values, so
+ * calling the listener does not allocate anything; an implementation that wants histograms of the
+ * latencies should record them in preallocated buckets, for instance with an array of counters.
+ */
+public interface EventMetricsListener {
+  /**
+   * A listener that ignores everything. This is used if no listener is configured.
+   */
+  public static final EventMetricsListener NO_OP = new EventMetricsListener() {};
+
+  /**
+   * Called on the application's thread when an event is dropped because the event processor's
+   * inbox is full, meaning that the dispatcher thread has fallen behind.
+   */
+  default void onEventRejected() {}
+
+  /**
+   * Called when an event is dropped because the event buffer has reached its capacity since the
+   * last flush.
+   */
+  default void onEventDropped() {}
+
+  /**
+   * Called after the dispatcher has processed a batch of messages from the inbox. The processing
+   * time includes summarizing events and deduplicating contexts.
+   *
+   * @param messageCount the number of messages in the batch
+   * @param inboxDepth the approximate number of messages that were left in the inbox
+   * @param elapsedNanos how long the batch took to process, in nanoseconds
+   */
+  default void onBatchProcessed(int messageCount, int inboxDepth, long elapsedNanos) {}
+
+  /**
+   * Called after a payload has been serialized to JSON, and compressed if compression is enabled.
+   *
+   * @param eventCount the number of events in the payload
+   * @param byteCount the size of the payload data
+   * @param elapsedNanos how long serialization took, in nanoseconds
+   */
+  default void onPayloadSerialized(int eventCount, int byteCount, long elapsedNanos) {}
+
+  /**
+   * Called when the event sender has finished with a payload, whether or not it was delivered.
+   *
+   * @param eventCount the number of events in the payload
+   * @param byteCount the size of the payload data
+   * @param success true if the payload was delivered
+   * @param elapsedNanos how long delivery took, including any retries, in nanoseconds
+   */
+  default void onPayloadDelivered(int eventCount, int byteCount, boolean success, long elapsedNanos) {}
+
+  /**
+   * Called by {@link DefaultEventSender} each time it retries a request.
+   */
+  default void onDeliveryRetry() {}
+
+  /**
+   * Called when the number of payloads that have been handed to delivery workers, but not yet
+   * delivered, changes.
+   *
+   * @param busyWorkers the number of payloads that are being delivered or waiting for a worker
+   */
+  default void onBusyWorkersChanged(int busyWorkers) {}
+}
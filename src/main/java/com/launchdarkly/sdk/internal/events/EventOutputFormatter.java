@@ -5,127 +5,233 @@ import com.launchdarkly.sdk.AttributeRef;
 import com.launchdarkly.sdk.EvaluationReason;
 import com.launchdarkly.sdk.LDContext;
 import com.launchdarkly.sdk.LDValue;
-import com.launchdarkly.sdk.internal.events.EventSummarizer.CounterValue;
 import com.launchdarkly.sdk.internal.events.EventSummarizer.FlagInfo;
-import com.launchdarkly.sdk.internal.events.EventSummarizer.SimpleIntKeyedMap;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.util.HashMap;
 import java.util.Map;
 
-import static com.launchdarkly.sdk.internal.GsonHelpers.gsonInstance;
-
 /**
  * Transforms analytics events and summary data into the JSON format that we send to LaunchDarkly.
- * Rather than creating intermediate objects to represent this schema, we use the Gson streaming
- * output API to construct JSON directly.
+ * Rather than creating intermediate objects to represent this schema, we construct JSON directly.
+ * <p>
+ * Most of each event consists of property names and other strings that are the same every time,
+ * or that repeat many times within a payload, such as flag keys and context kinds. Rather than
+ * having Gson escape those character by character for every event, we write property names and
+ * event kinds as preformatted JSON fragments, and keep a cache of the escaped form of flag keys,
+ * event keys, and context kinds. Everything else, such as contexts and flag values, is written by
+ * a Gson JsonWriter that writes to the same output; it is lenient, so it allows us to write any
+ * number of these values as if each one were a separate JSON document, with our own fragments in
+ * between. The output is exactly the same as if everything had been written by the JsonWriter.
+ * <p>
+ * The same context often appears in many events, so the redacted JSON for recently seen contexts
+ * is kept in a SerializedContextCache. Flag values and evaluation reasons are written by
+ * JsonValueWriter rather than by Gson's type adapters; in summary events, the JSON of flag values
+ * and defaults is kept by each FlagInfo and reused from one summary to the next.
+ * <p>
+ * This class is not thread-safe; each flush worker has its own instance.
  * <p>
  * Test coverage for this logic is in EventOutputTest and DefaultEventProcessorOutputTest. The
  * handling of context data and private attribute redaction is implemented in EventContextFormatter
  * and tested in more detail in EventContextFormatterTest.
  */
 final class EventOutputFormatter {
-  private final EventContextFormatter contextFormatter;
+  static final int MAX_CACHED_STRINGS = 10000;
+
+  private static final String FEATURE_EVENT_START = "{\"kind\":\"feature\",\"creationDate\":";
+  private static final String DEBUG_EVENT_START = "{\"kind\":\"debug\",\"creationDate\":";
+  private static final String IDENTIFY_EVENT_START = "{\"kind\":\"identify\",\"creationDate\":";
+  private static final String CUSTOM_EVENT_START = "{\"kind\":\"custom\",\"creationDate\":";
+  private static final String INDEX_EVENT_START = "{\"kind\":\"index\",\"creationDate\":";
+  private static final String MIGRATION_OP_EVENT_START = "{\"kind\":\"migration_op\",\"creationDate\":";
+  private static final String SUMMARY_EVENT_START = "{\"kind\":\"summary\",\"startDate\":";
+  private static final String KEY_PROPERTY = ",\"key\":";
+  private static final String CONTEXT_PROPERTY = ",\"context\":";
+  private static final String CONTEXT_KEYS_PROPERTY = ",\"contextKeys\":{";
+  private static final String VERSION_PROPERTY = ",\"version\":";
+  private static final String VARIATION_PROPERTY = ",\"variation\":";
+  private static final String VALUE_PROPERTY = ",\"value\":";
+  private static final String DEFAULT_PROPERTY = ",\"default\":";
+  private static final String PREREQ_OF_PROPERTY = ",\"prereqOf\":";
+  private static final String REASON_PROPERTY = ",\"reason\":";
+  private static final String DATA_PROPERTY = ",\"data\":";
+  private static final String METRIC_VALUE_PROPERTY = ",\"metricValue\":";
+  private static final String OPERATION_PROPERTY = ",\"operation\":";
+  private static final String SAMPLING_RATIO_PROPERTY = ",\"samplingRatio\":";
+  private static final String EVALUATION_PROPERTY = ",\"evaluation\":";
+  private static final String MEASUREMENTS_PROPERTY = ",\"measurements\":";
+  private static final String END_DATE_PROPERTY = ",\"endDate\":";
+  private static final String FEATURES_PROPERTY = ",\"features\":{";
+  private static final String FLAG_DEFAULT_PROPERTY = "{\"default\":";
+  private static final String FLAG_CONTEXT_KINDS_PROPERTY = "\"contextKinds\":[";
+  private static final String COUNTERS_PROPERTY = "],\"counters\":[";
+  private static final String COUNTER_VARIATION_PROPERTY = "{\"variation\":";
+  private static final String COUNTER_VERSION_PROPERTY = "\"version\":";
+  private static final String COUNTER_UNKNOWN_PROPERTY = "\"unknown\":true";
+  private static final String COUNT_PROPERTY = ",\"count\":";
+
+  private final SerializedContextCache contexts;
+  private final Map<String, String> escapedStrings = new HashMap<>();
+  private int nextEventIndex;
 
   EventOutputFormatter(EventsConfiguration config) {
-    this.contextFormatter = new EventContextFormatter(
+    this(config, new DefaultEventProcessor.ContextCacheMetrics());
+  }
+
+  EventOutputFormatter(EventsConfiguration config, DefaultEventProcessor.ContextCacheMetrics contextCacheMetrics) {
+    EventContextFormatter contextFormatter = new EventContextFormatter(
         config.allAttributesPrivate,
         config.privateAttributes.toArray(new AttributeRef[config.privateAttributes.size()]));
+    this.contexts = new SerializedContextCache(contextFormatter, SerializedContextCache.DEFAULT_CAPACITY,
+        contextCacheMetrics);
   }
 
   int writeOutputEvents(Event[] events, EventSummarizer.EventSummary summary, Writer writer) throws IOException {
+    return writeOutputEvents(events, 0, summary, writer, null);
+  }
+
+  /**
+   * Writes a JSON array of output events, starting at {@code events[startIndex]}, followed by the
+   * summary event if {@code summary} is not null or empty.
+   * <p>
+   * If {@code limit} is not null, it is checked after each event is written, so it must be cheap to
+   * evaluate; once it has been
+   * reached the array is ended without writing any more events or the summary. In that case the
+   * caller should send what has been written so far, and then call this method again for another
+   * payload, starting at {@link #getNextEventIndex()}.
+   *
+   * @param events the events
+   * @param startIndex the index of the first event to write
+   * @param summary the summary data, or null if this payload should not include a summary event
+   * @param writer the output
+   * @param limit the condition for ending the payload early, or null
+   * @return the number of output events that were written
+   * @throws IOException if the output could not be written
+   */
+  int writeOutputEvents(Event[] events, int startIndex, EventSummarizer.EventSummary summary, Writer writer,
+      PayloadLimit limit) throws IOException {
     int count = 0;
     JsonWriter jsonWriter = new JsonWriter(writer);
-    jsonWriter.beginArray();
-    for (Event event: events) {
-      if (writeOutputEvent(event, jsonWriter)) {
-        count++;
+    jsonWriter.setLenient(true); // see class comment
+    writer.write('[');
+    int i = startIndex;
+    while (i < events.length) {
+      Event event = events[i++];
+      if (!isOutputEvent(event)) {
+        continue;
+      }
+      if (count > 0) {
+        writer.write(',');
+      }
+      writeOutputEvent(event, writer, jsonWriter);
+      count++;
+      if (limit != null && i < events.length && limit.isReached()) {
+        break;
       }
     }
-    if (!summary.isEmpty()) {
-      writeSummaryEvent(summary, jsonWriter);
+    nextEventIndex = i;
+    if (i == events.length && summary != null && !summary.isEmpty()) {
+      if (count > 0) {
+        writer.write(',');
+      }
+      writeSummaryEvent(summary, writer);
       count++;
     }
-    jsonWriter.endArray();
-    jsonWriter.flush();
+    writer.write(']');
+    writer.flush();
     return count;
   }
 
-  private boolean writeOutputEvent(Event event, JsonWriter jw) throws IOException {
+  /**
+   * Returns the index of the first event that was not written by the last call to
+   * {@link #writeOutputEvents(Event[], int, EventSummarizer.EventSummary, Writer, PayloadLimit)};
+   * this is the length of the array if all of the events were written.
+   *
+   * @return the index of the next event
+   */
+  int getNextEventIndex() {
+    return nextEventIndex;
+  }
+
+  private static boolean isOutputEvent(Event event) {
     if (event.getContext() == null || !event.getContext().isValid()) {
       // The SDK should never send us an event without a valid context, but if we somehow get one,
       // just skip the event since there's no way to serialize it.
       return false;
     }
+    return event instanceof Event.FeatureRequest || event instanceof Event.Identify ||
+        event instanceof Event.Custom || event instanceof Event.Index || event instanceof Event.MigrationOp;
+  }
+
+  private void writeOutputEvent(Event event, Writer w, JsonWriter jw) throws IOException {
     if (event instanceof Event.FeatureRequest) {
       Event.FeatureRequest fe = (Event.FeatureRequest)event;
-      jw.beginObject();
-      writeKindAndCreationDate(jw, fe.isDebug() ? "debug" : "feature", event.getCreationDate());
-      jw.name("key").value(fe.getKey());
-      writeContext(fe.getContext(), jw, !fe.isDebug());
+      writeEventStart(w, fe.isDebug() ? DEBUG_EVENT_START : FEATURE_EVENT_START, event.getCreationDate());
+      w.write(KEY_PROPERTY);
+      w.write(escapedString(fe.getKey()));
+      writeContext(fe.getContext(), w, !fe.isDebug());
       if (fe.getVersion() >= 0) {
-        jw.name("version");
-        jw.value(fe.getVersion());
+        w.write(VERSION_PROPERTY);
+        w.write(Integer.toString(fe.getVersion()));
       }
       if (fe.getVariation() >= 0) {
-        jw.name("variation");
-        jw.value(fe.getVariation());
+        w.write(VARIATION_PROPERTY);
+        w.write(Integer.toString(fe.getVariation()));
       }
-      writeLDValue("value", fe.getValue(), jw);
-      writeLDValue("default", fe.getDefaultVal(), jw);
+      writeLDValue(VALUE_PROPERTY, fe.getValue(), w, jw);
+      writeLDValue(DEFAULT_PROPERTY, fe.getDefaultVal(), w, jw);
       if (fe.getPrereqOf() != null) {
-        jw.name("prereqOf");
-        jw.value(fe.getPrereqOf());
+        w.write(PREREQ_OF_PROPERTY);
+        w.write(escapedString(fe.getPrereqOf()));
       }
-      writeEvaluationReason(fe.getReason(), jw);
-      jw.endObject();
+      writeEvaluationReason(REASON_PROPERTY, fe.getReason(), w, jw);
+      w.write('}');
     } else if (event instanceof Event.Identify) {
-      jw.beginObject();
-      writeKindAndCreationDate(jw, "identify", event.getCreationDate());
-      writeContext(event.getContext(), jw, false);
-      jw.endObject();
+      writeEventStart(w, IDENTIFY_EVENT_START, event.getCreationDate());
+      writeContext(event.getContext(), w, false);
+      w.write('}');
     } else if (event instanceof Event.Custom) {
       Event.Custom ce = (Event.Custom)event;
-      jw.beginObject();
-      writeKindAndCreationDate(jw, "custom", event.getCreationDate());
-      jw.name("key").value(ce.getKey());
-      writeContextKeys(ce.getContext(), jw);
-      writeLDValue("data", ce.getData(), jw);
+      writeEventStart(w, CUSTOM_EVENT_START, event.getCreationDate());
+      w.write(KEY_PROPERTY);
+      w.write(escapedString(ce.getKey()));
+      writeContextKeys(ce.getContext(), w, jw);
+      writeLDValue(DATA_PROPERTY, ce.getData(), w, jw);
       if (ce.getMetricValue() != null) {
-        jw.name("metricValue");
-        jw.value(ce.getMetricValue());
+        w.write(METRIC_VALUE_PROPERTY);
+        writeFiniteNumber(ce.getMetricValue(), jw);
       }
-      jw.endObject();
+      w.write('}');
     } else if (event instanceof Event.Index) {
-      jw.beginObject();
-      writeKindAndCreationDate(jw, "index", event.getCreationDate());
-      writeContext(event.getContext(), jw, false);
-      jw.endObject();
-    } else if (event instanceof Event.MigrationOp) {
-      jw.beginObject();
-      writeKindAndCreationDate(jw, "migration_op", event.getCreationDate());
-      writeContextKeys(event.getContext(), jw);
-
+      writeEventStart(w, INDEX_EVENT_START, event.getCreationDate());
+      writeContext(event.getContext(), w, false);
+      w.write('}');
+    } else {
       Event.MigrationOp me = (Event.MigrationOp)event;
-      jw.name("operation").value(me.getOperation());
+      writeEventStart(w, MIGRATION_OP_EVENT_START, event.getCreationDate());
+      writeContextKeys(event.getContext(), w, jw);
+
+      w.write(OPERATION_PROPERTY);
+      jw.value(me.getOperation());
 
       long samplingRatio = me.getSamplingRatio();
       if(samplingRatio != 1) {
-        jw.name("samplingRatio").value(samplingRatio);
+        w.write(SAMPLING_RATIO_PROPERTY);
+        w.write(Long.toString(samplingRatio));
       }
 
+      w.write(EVALUATION_PROPERTY);
       writeMigrationEvaluation(jw, me);
+      w.write(MEASUREMENTS_PROPERTY);
       writeMeasurements(jw, me);
 
-      jw.endObject();
-    } else {
-      return false;
+      w.write('}');
     }
-    return true;
   }
 
   private static void writeMeasurements(JsonWriter jw, Event.MigrationOp me) throws IOException {
-    jw.name("measurements");
     jw.beginArray();
 
     writeInvokedMeasurement(jw, me);
@@ -206,7 +312,6 @@ final class EventOutputFormatter {
   }
 
   private void writeMigrationEvaluation(JsonWriter jw, Event.MigrationOp me) throws IOException {
-    jw.name("evaluation");
     jw.beginObject();
     jw.name("key").value(me.getFeatureKey());
     if (me.getVariation() >= 0) {
@@ -223,103 +328,179 @@ final class EventOutputFormatter {
     jw.endObject();
   }
 
-  private void writeSummaryEvent(EventSummarizer.EventSummary summary, JsonWriter jw) throws IOException {
-    jw.beginObject();
-
-    jw.name("kind");
-    jw.value("summary");
+  private void writeSummaryEvent(EventSummarizer.EventSummary summary, Writer w) throws IOException {
+    w.write(SUMMARY_EVENT_START);
+    w.write(Long.toString(summary.startDate));
+    w.write(END_DATE_PROPERTY);
+    w.write(Long.toString(summary.endDate));
 
-    jw.name("startDate");
-    jw.value(summary.startDate);
-    jw.name("endDate");
-    jw.value(summary.endDate);
+    w.write(FEATURES_PROPERTY);
+    for (int f = 0; f < summary.flagCount(); f++) {
+      FlagInfo flagInfo = summary.flagAt(f);
 
-    jw.name("features");
-    jw.beginObject();
-
-    for (Map.Entry<String, FlagInfo> flag: summary.counters.entrySet()) {
-      String flagKey = flag.getKey();
-      FlagInfo flagInfo = flag.getValue();
+      if (f > 0) {
+        w.write(',');
+      }
+      w.write(escapedString(flagInfo.key));
+      w.write(':');
+
+      if (flagInfo.defaultVal != null && !flagInfo.defaultVal.isNull()) {
+        w.write(FLAG_DEFAULT_PROPERTY);
+        w.write(flagInfo.serializedDefault());
+        w.write(',');
+      } else {
+        w.write('{');
+      }
+      w.write(FLAG_CONTEXT_KINDS_PROPERTY);
+      for (int i = 0; i < flagInfo.contextKindCount(); i++) {
+        if (i > 0) {
+          w.write(',');
+        }
+        w.write(escapedString(flagInfo.contextKindAt(i)));
+      }
 
-      jw.name(flagKey);
-      jw.beginObject();
+      w.write(COUNTERS_PROPERTY);
+      for (int i = 0; i < flagInfo.counterCount(); i++) {
+        int version = flagInfo.versionAt(i);
+        int variation = flagInfo.variationAt(i);
 
-      writeLDValue("default", flagInfo.defaultVal, jw);
-      jw.name("contextKinds").beginArray();
-      for (String kind: flagInfo.contextKinds) {
-        jw.value(kind);
-      }
-      jw.endArray();
-
-      jw.name("counters");
-      jw.beginArray();
-
-      for (int i = 0; i < flagInfo.versionsAndVariations.size(); i++) {
-        int version = flagInfo.versionsAndVariations.keyAt(i);
-        SimpleIntKeyedMap<CounterValue> variations = flagInfo.versionsAndVariations.valueAt(i);
-        for (int j = 0; j < variations.size(); j++) {
-          int variation = variations.keyAt(j);
-          CounterValue counter = variations.valueAt(j);
-
-          jw.beginObject();
-
-          if (variation >= 0) {
-            jw.name("variation").value(variation);
-          }
-          if (version >= 0) {
-            jw.name("version").value(version);
-          } else {
-            jw.name("unknown").value(true);
-          }
-          writeLDValue("value", counter.flagValue, jw);
-          jw.name("count").value(counter.count);
-
-          jw.endObject();
+        if (i > 0) {
+          w.write(',');
+        }
+        if (variation >= 0) {
+          w.write(COUNTER_VARIATION_PROPERTY);
+          w.write(Integer.toString(variation));
+          w.write(',');
+        } else {
+          w.write('{');
+        }
+        if (version >= 0) {
+          w.write(COUNTER_VERSION_PROPERTY);
+          w.write(Integer.toString(version));
+        } else {
+          w.write(COUNTER_UNKNOWN_PROPERTY);
+        }
+        LDValue value = flagInfo.valueAt(i);
+        if (value != null && !value.isNull()) {
+          w.write(VALUE_PROPERTY);
+          w.write(flagInfo.serializedValueAt(i));
         }
+        w.write(COUNT_PROPERTY);
+        w.write(Long.toString(flagInfo.countAt(i)));
+        w.write('}');
       }
 
-      jw.endArray(); // end of "counters" array
-      jw.endObject(); // end of this flag
+      w.write("]}"); // end of "counters" array, and of this flag
     }
 
-    jw.endObject(); // end of "features"
-    jw.endObject(); // end of summary event object
+    w.write("}}"); // end of "features", and of summary event object
   }
 
-  private void writeKindAndCreationDate(JsonWriter jw, String kind, long creationDate) throws IOException {
-    jw.name("kind").value(kind);
-    jw.name("creationDate").value(creationDate);
+  private static void writeEventStart(Writer w, String start, long creationDate) throws IOException {
+    w.write(start);
+    w.write(Long.toString(creationDate));
   }
 
-  private void writeContext(LDContext context, JsonWriter jw, boolean redactAnonymous) throws IOException {
-    jw.name("context");
-    contextFormatter.write(context, jw, redactAnonymous);
+  private void writeContext(LDContext context, Writer w, boolean redactAnonymous) throws IOException {
+    w.write(CONTEXT_PROPERTY);
+    w.write(contexts.get(context, redactAnonymous));
   }
 
-  private void writeContextKeys(LDContext context, JsonWriter jw) throws IOException {
-    jw.name("contextKeys").beginObject();
+  private void writeContextKeys(LDContext context, Writer w, JsonWriter jw) throws IOException {
+    w.write(CONTEXT_KEYS_PROPERTY);
+    boolean first = true;
     for (int i = 0; i < context.getIndividualContextCount(); i++) {
       LDContext c = context.getIndividualContext(i);
       if (c != null) {
-        jw.name(c.getKind().toString()).value(c.getKey());
+        if (!first) {
+          w.write(',');
+        }
+        first = false;
+        w.write(escapedString(c.getKind().toString()));
+        w.write(':');
+        jw.value(c.getKey());
       }
     }
-    jw.endObject();
+    w.write('}');
+  }
+
+  private static void writeLDValue(String property, LDValue value, Writer w, JsonWriter jw) throws IOException {
+    if (value == null || value.isNull()) {
+      return;
+    }
+    w.write(property);
+    JsonValueWriter.writeLDValue(value, jw);
   }
 
-  private void writeLDValue(String key, LDValue value, JsonWriter jw) throws IOException {
+  private static void writeLDValue(String key, LDValue value, JsonWriter jw) throws IOException {
     if (value == null || value.isNull()) {
       return;
     }
     jw.name(key);
-    gsonInstance().toJson(value, LDValue.class, jw); // LDValue defines its own custom serializer
+    JsonValueWriter.writeLDValue(value, jw);
   }
 
-  private void writeEvaluationReason(EvaluationReason er, JsonWriter jw) throws IOException {
+  private static void writeEvaluationReason(String property, EvaluationReason er, Writer w, JsonWriter jw)
+      throws IOException {
+    if (er == null) {
+      return;
+    }
+    w.write(property);
+    JsonValueWriter.writeEvaluationReason(er, jw);
+  }
+
+  private static void writeEvaluationReason(EvaluationReason er, JsonWriter jw) throws IOException {
     if (er == null) {
       return;
     }
     jw.name("reason");
-    gsonInstance().toJson(er, EvaluationReason.class, jw); // EvaluationReason defines its own custom serializer
+    JsonValueWriter.writeEvaluationReason(er, jw);
+  }
+
+  private static void writeFiniteNumber(Double value, JsonWriter jw) throws IOException {
+    // Our JsonWriter is lenient, so it would allow NaN and infinity; a strict one would not
+    if (value.isNaN() || value.isInfinite()) {
+      throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+    }
+    jw.value(value);
+  }
+
+  /**
+   * Returns a string in JSON format, with quotes, escaped in exactly the same way that JsonWriter
+   * would escape it. The result is cached, because this is only used for strings that are likely
+   * to be repeated many times. The cache is cleared if it becomes too large.
+   *
+   * @param s a string, or null
+   * @return the JSON representation
+   * @throws IOException never, since the output is a StringWriter
+   */
+  String escapedString(String s) throws IOException {
+    if (s == null) {
+      return "null";
+    }
+    String escaped = escapedStrings.get(s);
+    if (escaped == null) {
+      StringWriter sw = new StringWriter(s.length() + 2);
+      new JsonWriter(sw).value(s).flush();
+      escaped = sw.toString();
+      if (escapedStrings.size() >= MAX_CACHED_STRINGS) {
+        escapedStrings.clear();
+      }
+      escapedStrings.put(s, escaped);
+    }
+    return escaped;
+  }
+
+  /**
+   * Decides when a payload that is being written has become large enough that the remaining events
+   * should go in another payload.
+   */
+  static interface PayloadLimit {
+    /**
+     * Returns true if no more events should be added to the current payload.
+     *
+     * @return true if the limit has been reached
+     */
+    boolean isReached();
   }
 }
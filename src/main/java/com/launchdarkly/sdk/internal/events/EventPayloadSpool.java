@@ -0,0 +1,335 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.logging.LDLogger;
+import com.launchdarkly.logging.LogValues;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A disk-backed queue of analytics event payloads that could not be delivered, so that
+ * {@link DefaultEventSender} can send them again once the events service is reachable.
+ * <p>
+ * Payloads are appended to segment files in a directory that is used only for this purpose. Each
+ * payload keeps the payload ID it was first sent with, so if a payload did in fact reach the
+ * service before the failure was reported, or if it is sent again after the application restarts
+ * partway through a segment, the service can discard the duplicate. When the total size of the
+ * segments would exceed the configured maximum, the oldest segments are deleted; payloads that are
+ * older than the configured maximum age are discarded instead of being sent.
+ * <p>
+ * The SDK creates an instance and passes it to the {@link DefaultEventSender} constructor. All
+ * methods are synchronized, since the sender is called from several worker threads.
+ */
+public final class EventPayloadSpool {
+  static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+  private static final String SEGMENT_PREFIX = "payloads-";
+  private static final String SEGMENT_SUFFIX = ".spool";
+  private static final int RECORD_HEADER_SIZE = 8; // body length and CRC, as two ints
+
+  private final File directory;
+  private final long maxBytes;
+  private final long maxAgeMillis;
+  private final long segmentSize;
+  private final LDLogger logger;
+  private final List<Segment> segments = new ArrayList<>(); // oldest first; we append to the last one
+  private long totalBytes;
+  private long nextSequence;
+  private long readOffset; // position of the next payload in the first segment
+  private SpooledPayload next; // the payload at readOffset, if we have already read it
+  private boolean writeFailing; // true after a failed write until one succeeds, so we only log it once
+
+  /**
+   * Creates an instance, picking up any payloads that were left in the directory by a previous
+   * instance.
+   *
+   * @param directory the directory for the segment files; it is created if necessary, and should
+   *   not be used for anything else
+   * @param maxBytes the maximum total size of the segment files
+   * @param maxAgeMillis payloads older than this are discarded rather than sent; zero or negative
+   *   means there is no maximum age
+   * @param logger the logger
+   */
+  public EventPayloadSpool(File directory, long maxBytes, long maxAgeMillis, LDLogger logger) {
+    this(directory, maxBytes, maxAgeMillis, DEFAULT_SEGMENT_SIZE, logger);
+  }
+
+  EventPayloadSpool(File directory, long maxBytes, long maxAgeMillis, long segmentSize, LDLogger logger) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.maxAgeMillis = maxAgeMillis;
+    this.segmentSize = Math.max(1, Math.min(segmentSize, maxBytes / 4));
+    this.logger = logger;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      logger.warn("Could not create event spool directory {}; undelivered events will not be saved", directory);
+    }
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file: files) {
+        long sequence = sequenceOf(file.getName());
+        if (sequence >= 0) {
+          Segment segment = new Segment(file, sequence, file.length());
+          // The previous instance might have exited partway through writing a record, and the reader
+          // stops at a bad record, so we never append to a segment that we didn't create
+          segment.full = true;
+          segments.add(segment);
+          totalBytes += file.length();
+          nextSequence = Math.max(nextSequence, sequence + 1);
+        }
+      }
+    }
+    Collections.sort(segments, (a, b) -> Long.compare(a.sequence, b.sequence));
+  }
+
+  /**
+   * Saves a payload at the end of the queue. If it cannot be saved, an error is logged and the
+   * payload is dropped.
+   *
+   * @param payloadId the payload ID that was used when the payload was first sent
+   * @param payload the payload data
+   * @param eventCount the number of events in the payload
+   */
+  synchronized void add(String payloadId, EventSender.Payload payload, int eventCount) {
+    byte[] record;
+    try {
+      record = encode(System.currentTimeMillis(), payloadId, payload, eventCount);
+    } catch (IOException e) { // COVERAGE: writing to a ByteArrayOutputStream doesn't throw
+      return;
+    }
+    if (record.length > maxBytes) {
+      logger.warn("Event payload of {} bytes is too large to save for later delivery", record.length);
+      return;
+    }
+    while (totalBytes + record.length > maxBytes && !segments.isEmpty()) {
+      logger.warn("Event spool is full; discarding the oldest undelivered events");
+      deleteFirstSegment();
+    }
+    Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if (segment == null || segment.full || segment.size >= segmentSize) {
+      segment = new Segment(new File(directory, SEGMENT_PREFIX + nextSequence + SEGMENT_SUFFIX), nextSequence, 0);
+      nextSequence++;
+      segments.add(segment);
+    }
+    try (OutputStream out = new FileOutputStream(segment.file, true)) {
+      out.write(record);
+    } catch (IOException e) {
+      if (!writeFailing) {
+        logger.warn("Could not save undelivered events to {}: {}", segment.file, LogValues.exceptionSummary(e));
+        writeFailing = true;
+      }
+      // If only part of the record was written, the reader will stop there, so don't add anything after
+      // it. If nothing was written, we'll try the same segment again next time, so that a directory that
+      // can't be written to doesn't leave us with more and more empty segments.
+      long actualSize = segment.file.length();
+      if (actualSize > segment.size) {
+        totalBytes += actualSize - segment.size;
+        segment.size = actualSize;
+        segment.full = true;
+      }
+      return;
+    }
+    if (writeFailing) {
+      logger.info("Saving undelivered events to {} is working again", directory);
+      writeFailing = false;
+    }
+    segment.size += record.length;
+    totalBytes += record.length;
+  }
+
+  /**
+   * Returns the oldest saved payload without removing it, or null if there are none. Payloads that
+   * are older than the maximum age, or that cannot be read, are deleted and skipped.
+   *
+   * @return a payload or null
+   */
+  synchronized SpooledPayload peek() {
+    while (next == null && !segments.isEmpty()) {
+      Segment segment = segments.get(0);
+      if (readOffset >= segment.size) {
+        deleteFirstSegment();
+        continue;
+      }
+      try {
+        next = read(segment, readOffset);
+      } catch (IOException e) {
+        logger.warn("Discarding unreadable saved events in {}: {}", segment.file, LogValues.exceptionSummary(e));
+        deleteFirstSegment();
+        continue;
+      }
+      if (maxAgeMillis > 0 && next.timestamp < System.currentTimeMillis() - maxAgeMillis) {
+        SpooledPayload expired = next;
+        next = null;
+        advance(expired);
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Removes the payload that was returned by {@link #peek()}, after it has been delivered.
+   *
+   * @param payload the payload
+   */
+  synchronized void remove(SpooledPayload payload) {
+    if (payload == next) {
+      next = null;
+      advance(payload);
+    }
+  }
+
+  /**
+   * Returns the total size of the segment files, including payloads that have been removed from a
+   * segment that is still in use.
+   *
+   * @return the size in bytes
+   */
+  synchronized long sizeInBytes() {
+    return totalBytes;
+  }
+
+  synchronized int getSegmentCount() { // visible for testing
+    return segments.size();
+  }
+
+  private void advance(SpooledPayload payload) {
+    readOffset += payload.recordSize;
+    if (readOffset >= segments.get(0).size) {
+      deleteFirstSegment();
+    }
+  }
+
+  private void deleteFirstSegment() {
+    Segment segment = segments.remove(0);
+    if (!segment.file.delete() && segment.file.exists()) {
+      logger.warn("Could not delete {}", segment.file); // COVERAGE: can't cause this in tests
+    }
+    totalBytes -= segment.size;
+    readOffset = 0;
+    next = null;
+  }
+
+  private static byte[] encode(long timestamp, String payloadId, EventSender.Payload payload, int eventCount)
+      throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream(payload.size() + 64);
+    DataOutputStream out = new DataOutputStream(body);
+    out.writeLong(timestamp);
+    out.writeUTF(payloadId);
+    out.writeInt(eventCount);
+    out.writeBoolean(payload.isCompressed());
+    payload.writeTo(out);
+    out.flush();
+    CRC32 crc = new CRC32();
+    crc.update(body.toByteArray());
+
+    ByteArrayOutputStream record = new ByteArrayOutputStream(RECORD_HEADER_SIZE + body.size());
+    DataOutputStream recordOut = new DataOutputStream(record);
+    recordOut.writeInt(body.size());
+    recordOut.writeInt((int)crc.getValue());
+    body.writeTo(recordOut);
+    recordOut.flush();
+    return record.toByteArray();
+  }
+
+  private static SpooledPayload read(Segment segment, long offset) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(segment.file, "r")) {
+      file.seek(offset);
+      int bodyLength = file.readInt();
+      int expectedCrc = file.readInt();
+      if (bodyLength < 0 || offset + RECORD_HEADER_SIZE + bodyLength > segment.size) {
+        throw new IOException("incomplete record"); // the application probably exited while writing it
+      }
+      byte[] body = new byte[bodyLength];
+      file.readFully(body);
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      if ((int)crc.getValue() != expectedCrc) {
+        throw new IOException("corrupted record");
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+      long timestamp = in.readLong();
+      String payloadId = in.readUTF();
+      int eventCount = in.readInt();
+      boolean compressed = in.readBoolean();
+      byte[] data = new byte[in.available()];
+      in.readFully(data);
+      return new SpooledPayload(RECORD_HEADER_SIZE + bodyLength, timestamp, payloadId, eventCount, compressed, data);
+    }
+  }
+
+  private static long sequenceOf(String fileName) {
+    if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static final class Segment {
+    final File file;
+    final long sequence;
+    long size;
+    boolean full; // true if it might end with bad data, so we shouldn't add anything after it
+
+    Segment(File file, long sequence, long size) {
+      this.file = file;
+      this.sequence = sequence;
+      this.size = size;
+    }
+  }
+
+  /**
+   * A payload that was read from the spool.
+   */
+  static final class SpooledPayload implements EventSender.Payload {
+    final int recordSize;
+    final long timestamp;
+    final String payloadId;
+    final int eventCount;
+    private final boolean compressed;
+    private final byte[] data;
+
+    SpooledPayload(int recordSize, long timestamp, String payloadId, int eventCount, boolean compressed,
+        byte[] data) {
+      this.recordSize = recordSize;
+      this.timestamp = timestamp;
+      this.payloadId = payloadId;
+      this.eventCount = eventCount;
+      this.compressed = compressed;
+      this.data = data;
+    }
+
+    @Override
+    public int size() {
+      return data.length;
+    }
+
+    @Override
+    public boolean isCompressed() {
+      return compressed;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      out.write(data);
+    }
+
+    @Override
+    public byte[] toByteArray() {
+      return data;
+    }
+  }
+}
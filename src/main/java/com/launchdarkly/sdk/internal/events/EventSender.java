@@ -1,6 +1,8 @@
 package com.launchdarkly.sdk.internal.events;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.Date;
 
@@ -26,6 +28,56 @@ public interface EventSender extends Closeable {
    */
   Result sendAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri);
 
+  /**
+   * Attempt to deliver an analytics event data payload that has been compressed with gzip.
+   * <p>
+   * This is called instead of {@link #sendAnalyticsEvents(byte[], int, URI)} if the event
+   * processor was configured to compress payloads. The default implementation decompresses the
+   * data and passes it to {@link #sendAnalyticsEvents(byte[], int, URI)}, so implementations that
+   * cannot send compressed data do not need to do anything. {@link DefaultEventSender} sends the
+   * compressed data as it is, with a {@code Content-Encoding: gzip} header.
+   * <p>
+   * This method will be called synchronously from an event delivery worker thread.
+   *
+   * @param data the preformatted JSON data, in UTF-8 encoding, compressed with gzip
+   * @param eventCount the number of individual events in the data
+   * @param eventsBaseUri the configured events endpoint base URI
+   * @return a {@link Result}
+   */
+  default Result sendCompressedAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
+    byte[] uncompressed;
+    try {
+      uncompressed = GzipPayloads.decompress(data);
+    } catch (IOException e) {
+      return new Result(false, false, null);
+    }
+    return sendAnalyticsEvents(uncompressed, eventCount, eventsBaseUri);
+  }
+
+  /**
+   * Attempt to deliver an analytics event data payload that is held in a buffer owned by the
+   * caller.
+   * <p>
+   * The event processor uses this method so that an implementation which can stream the data, such
+   * as {@link DefaultEventSender}, can write it straight from the caller's buffer into the request
+   * without making a copy. The payload will not be modified until this method returns, so it can be
+   * written more than once if the request has to be retried. The default implementation copies
+   * the data and passes it to {@link #sendAnalyticsEvents(byte[], int, URI)} or
+   * {@link #sendCompressedAnalyticsEvents(byte[], int, URI)}.
+   * <p>
+   * This method will be called synchronously from an event delivery worker thread.
+   *
+   * @param payload the preformatted JSON data
+   * @param eventCount the number of individual events in the data
+   * @param eventsBaseUri the configured events endpoint base URI
+   * @return a {@link Result}
+   */
+  default Result sendAnalyticsPayload(Payload payload, int eventCount, URI eventsBaseUri) {
+    byte[] data = payload.toByteArray();
+    return payload.isCompressed() ? sendCompressedAnalyticsEvents(data, eventCount, eventsBaseUri) :
+      sendAnalyticsEvents(data, eventCount, eventsBaseUri);
+  }
+
   /**
    * Attempt to deliver a diagnostic event data payload.
    * <p>
@@ -37,6 +89,41 @@ public interface EventSender extends Closeable {
    */
   Result sendDiagnosticEvent(byte[] data, URI eventsBaseUri);
   
+  /**
+   * Preformatted event data that is passed to {@link EventSender#sendAnalyticsPayload(Payload, int, URI)}.
+   */
+  public interface Payload {
+    /**
+     * Returns the number of bytes of data.
+     *
+     * @return the size of the data
+     */
+    int size();
+
+    /**
+     * Returns true if the data has been compressed with gzip.
+     *
+     * @return true if the data is compressed
+     */
+    boolean isCompressed();
+
+    /**
+     * Writes all of the data to a stream. This can be called more than once.
+     *
+     * @param out the destination stream
+     * @throws IOException if the stream throws an exception
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Returns the data as a byte array. This may or may not be a copy, so the caller must not modify
+     * it.
+     *
+     * @return the data
+     */
+    byte[] toByteArray();
+  }
+
   /**
    * Encapsulates the results of a call to an EventSender method.
    */
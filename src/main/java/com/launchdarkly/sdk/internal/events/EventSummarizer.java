@@ -3,24 +3,32 @@ package com.launchdarkly.sdk.internal.events;
 import com.launchdarkly.sdk.LDContext;
 import com.launchdarkly.sdk.LDValue;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manages the state of summarizable information for the EventProcessor. Note that the
  * methods of this class are deliberately not thread-safe, because they should always
- * be called from EventProcessor's single message-processing thread.
+ * be called from EventProcessor's single message-processing thread, except for
+ * {@link #recycle(EventSummary)}.
+ * <p>
+ * The summarizer is double-buffered: besides the current EventSummary, it keeps a spare one.
+ * {@link #getSummaryAndReset()} swaps in the spare, and once a flush worker has finished
+ * serializing the summary it got, it passes it to {@link #recycle(EventSummary)} to become the
+ * next spare. Since clearing an EventSummary keeps the slots for the flags that were in it, a
+ * steady stream of evaluations of the same flags does not allocate anything.
  */
 final class EventSummarizer {
   private EventSummary eventsState;
-  
+  private final AtomicReference<EventSummary> spare;
+
   EventSummarizer() {
     this.eventsState = new EventSummary();
+    this.spare = new AtomicReference<>(new EventSummary());
   }
-  
+
   /**
    * Adds information about an evaluation to our counters.
    *
@@ -44,60 +52,139 @@ final class EventSummarizer {
     eventsState.incrementCounter(flagKey, flagVersion, variation, value, defaultValue, context);
     eventsState.noteTimestamp(timestamp);
   }
-  
+
   /**
    * Gets the current summarized event data, and resets the EventSummarizer's state to contain
-   * a new empty EventSummary.
-   * 
+   * an empty EventSummary: the spare one if available, otherwise a new one.
+   *
    * @return the summary state
    */
   EventSummary getSummaryAndReset() {
     EventSummary ret = eventsState;
-    clear();
+    EventSummary next = spare.getAndSet(null);
+    eventsState = next != null ? next : new EventSummary(ret.tableCapacity());
     return ret;
   }
-  
+
   /**
-   * Indicates that we decided not to send the summary values returned by {@link #getSummaryAndReset()},
-   * and instead we should return to using the previous state object and keep accumulating data
-   * in it. 
-   */  
-  void restoreTo(EventSummary previousState) {
-    eventsState = previousState;
+   * Gives back a summary that was returned by {@link #getSummaryAndReset()}, once its contents are
+   * no longer needed, so that it can be reused. The summary is cleared on the calling thread. This
+   * method can be called from any thread, but the caller must not use the summary afterward.
+   *
+   * @param summary a summary that is no longer needed
+   */
+  void recycle(EventSummary summary) {
+    summary.clear();
+    spare.set(summary);
   }
 
   /**
    * Returns true if there is no summary data in the current state.
-   * 
+   *
    * @return true if the state is empty
    */
   boolean isEmpty() {
     return eventsState.isEmpty();
   }
-  
+
+  /**
+   * Discards the current summary data. The current EventSummary is cleared in place, so its
+   * table and per-flag counters are reused.
+   */
   void clear() {
-    eventsState = new EventSummary();
+    eventsState.clear();
   }
-  
+
+  /**
+   * Adds all of the counters from another summary to the current state. The other summary
+   * is not modified.
+   *
+   * @param other a summary that was produced by another EventSummarizer
+   */
+  void addSummary(EventSummary other) {
+    eventsState.add(other);
+  }
+
+  /**
+   * The summary counters for one summary period.
+   * <p>
+   * Flags are kept in an open-addressing hashtable keyed by flag key. Since the SDK normally passes
+   * the same String instance for a given flag key every time, a lookup is usually just a hash probe
+   * and an identity comparison. Each flag's counters are held in flat arrays in its {@link FlagInfo}.
+   * <p>
+   * {@link #clear()} resets the counters in place instead of discarding them. A flag that was
+   * evaluated during the period that is being cleared keeps its slot and its arrays, so if it is
+   * evaluated again in the next period, counting it does not allocate anything. Flags that were
+   * not evaluated at all during that period are removed, so the table does not keep growing as
+   * flags come and go.
+   * <p>
+   * The context kinds for each flag are stored as a bitmask, using bit numbers that are assigned
+   * by this summary's {@link ContextKindRegistry}. We also remember the kinds of the last context
+   * we saw; since the SDK usually evaluates several flags in a row for the same context instance,
+   * adding the context's kinds to a flag is then just one OR.
+   */
   static final class EventSummary {
-    final Map<String, FlagInfo> counters;
+    private static final int INITIAL_TABLE_CAPACITY = 16;
+
+    private final ContextKindRegistry contextKinds = new ContextKindRegistry();
+    private LDContext lastContext; // the last context whose kinds we looked up
+    private long lastContextKindMask;
+    private boolean lastContextHasUnregisteredKinds;
+
+    private String[] keys; // open-addressing table; null means an empty slot
+    private FlagInfo[] slots; // slots[i] holds the counters for keys[i]
+    private int tableSize; // number of occupied slots, including flags that are not active
+    private FlagInfo[] activeFlags; // flags that were evaluated in this period, in order of first use
+    private int activeCount;
     long startDate;
     long endDate;
-    
+
     EventSummary() {
-      counters = new HashMap<>();
+      this(INITIAL_TABLE_CAPACITY);
     }
 
-    EventSummary(EventSummary from) {
-      counters = new HashMap<>(from.counters);
-      startDate = from.startDate;
-      endDate = from.endDate;
+    EventSummary(int tableCapacity) {
+      int capacity = INITIAL_TABLE_CAPACITY;
+      while (capacity < tableCapacity) {
+        capacity <<= 1;
+      }
+      keys = new String[capacity];
+      slots = new FlagInfo[capacity];
+      activeFlags = new FlagInfo[capacity / 2];
     }
-    
+
     boolean isEmpty() {
-      return counters.isEmpty();
+      return activeCount == 0;
+    }
+
+    /**
+     * Returns the number of flags that have counters in this summary.
+     */
+    int flagCount() {
+      return activeCount;
+    }
+
+    /**
+     * Returns one of the flags that have counters in this summary.
+     *
+     * @param index a value from 0 to {@link #flagCount()} - 1
+     */
+    FlagInfo flagAt(int index) {
+      return activeFlags[index];
+    }
+
+    /**
+     * Returns the counters for a flag, or null if that flag has no counters in this summary.
+     */
+    FlagInfo getFlag(String flagKey) {
+      FlagInfo flagInfo = slots[findSlot(flagKey)];
+      return flagInfo == null || !flagInfo.active ? null : flagInfo;
+    }
+
+    int tableCapacity() {
+      return keys.length;
     }
-    
+
     void incrementCounter(
         String flagKey,
         int flagVersion,
@@ -106,29 +193,81 @@ final class EventSummarizer {
         LDValue defaultVal,
         LDContext context
         ) {
-      FlagInfo flagInfo = counters.get(flagKey);
-      if (flagInfo == null) {
-        flagInfo = new FlagInfo(defaultVal, new SimpleIntKeyedMap<>(), new HashSet<>());
-        counters.put(flagKey, flagInfo);
+      FlagInfo flagInfo = activateFlag(flagKey, defaultVal);
+      if (context != lastContext) {
+        lookUpContextKinds(context);
+      }
+      flagInfo.contextKindMask |= lastContextKindMask;
+      if (lastContextHasUnregisteredKinds) {
+        for (int i = 0; i < context.getIndividualContextCount(); i++) {
+          flagInfo.addContextKind(context.getIndividualContext(i).getKind().toString());
+        }
       }
+      flagInfo.addCount(flagVersion, variation, flagValue, 1);
+    }
+
+    private void lookUpContextKinds(LDContext context) {
+      long mask = 0;
+      boolean unregistered = false;
       for (int i = 0; i < context.getIndividualContextCount(); i++) {
-        flagInfo.contextKinds.add(context.getIndividualContext(i).getKind().toString());
-      }
-      
-      SimpleIntKeyedMap<CounterValue> variations = flagInfo.versionsAndVariations.get(flagVersion);
-      if (variations == null) {
-        variations = new SimpleIntKeyedMap<>();
-        flagInfo.versionsAndVariations.put(flagVersion, variations);
-      }
-      
-      CounterValue value = variations.get(variation);
-      if (value == null) {
-        variations.put(variation, new CounterValue(1, flagValue));
+        int bit = contextKinds.bitFor(context.getIndividualContext(i).getKind().toString());
+        if (bit < 0) {
+          unregistered = true;
+        } else {
+          mask |= 1L << bit;
+        }
+      }
+      lastContext = context;
+      lastContextKindMask = mask;
+      lastContextHasUnregisteredKinds = unregistered;
+    }
+
+    /**
+     * Returns the counters for a flag, creating or reactivating them if necessary. If the flag was
+     * not already active in this period, its default value is set to the specified value.
+     */
+    FlagInfo activateFlag(String flagKey, LDValue defaultVal) {
+      int slot = findSlot(flagKey);
+      FlagInfo flagInfo = slots[slot];
+      if (flagInfo == null) {
+        flagInfo = new FlagInfo(flagKey, defaultVal, contextKinds);
+        keys[slot] = flagKey;
+        slots[slot] = flagInfo;
+        tableSize++;
+        if (tableSize * 4 > keys.length * 3) {
+          rehash(keys.length * 2);
+        }
+      } else if (flagInfo.active) {
+        return flagInfo;
       } else {
-        value.increment();
+        flagInfo.defaultVal = defaultVal;
+      }
+      flagInfo.active = true;
+      if (activeCount == activeFlags.length) {
+        activeFlags = Arrays.copyOf(activeFlags, activeFlags.length * 2);
       }
+      activeFlags[activeCount++] = flagInfo;
+      return flagInfo;
     }
-    
+
+    void add(EventSummary other) {
+      for (int i = 0; i < other.activeCount; i++) {
+        FlagInfo otherInfo = other.activeFlags[i];
+        FlagInfo flagInfo = activateFlag(otherInfo.key, otherInfo.defaultVal);
+        for (int j = 0; j < otherInfo.contextKindCount(); j++) {
+          flagInfo.addContextKind(otherInfo.contextKindAt(j));
+        }
+        for (int j = 0; j < otherInfo.counterCount(); j++) {
+          flagInfo.addCount(otherInfo.versionAt(j), otherInfo.variationAt(j), otherInfo.valueAt(j),
+              otherInfo.countAt(j));
+        }
+      }
+      if (!other.isEmpty()) {
+        noteTimestamp(other.startDate);
+        noteTimestamp(other.endDate);
+      }
+    }
+
     void noteTimestamp(long time) {
       if (startDate == 0 || time < startDate) {
         startDate = time;
@@ -137,184 +276,365 @@ final class EventSummarizer {
         endDate = time;
       }
     }
-    
+
+    /**
+     * Resets this summary to be empty, keeping the slots of the flags that were active so that
+     * they can be reused, and removing all other flags.
+     */
+    void clear() {
+      if (tableSize > activeCount) {
+        Arrays.fill(keys, null);
+        Arrays.fill(slots, null);
+        tableSize = 0;
+        for (int i = 0; i < activeCount; i++) {
+          insert(activeFlags[i]);
+        }
+      }
+      for (int i = 0; i < activeCount; i++) {
+        activeFlags[i].reset();
+        activeFlags[i] = null;
+      }
+      activeCount = 0;
+      startDate = endDate = 0;
+      lastContext = null;
+    }
+
+    private int findSlot(String flagKey) {
+      int mask = keys.length - 1;
+      int h = flagKey.hashCode();
+      int slot = (h ^ (h >>> 16)) & mask;
+      while (true) {
+        String k = keys[slot];
+        if (k == null || k == flagKey || k.equals(flagKey)) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    private void insert(FlagInfo flagInfo) {
+      int slot = findSlot(flagInfo.key);
+      keys[slot] = flagInfo.key;
+      slots[slot] = flagInfo;
+      tableSize++;
+    }
+
+    private void rehash(int newCapacity) {
+      String[] oldKeys = keys;
+      FlagInfo[] oldSlots = slots;
+      keys = new String[newCapacity];
+      slots = new FlagInfo[newCapacity];
+      tableSize = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          insert(oldSlots[i]);
+        }
+      }
+    }
+
     @Override
     public boolean equals(Object other) {
       if (other instanceof EventSummary) {
         EventSummary o = (EventSummary)other;
-        return o.counters.equals(counters) && startDate == o.startDate && endDate == o.endDate;
+        if (activeCount != o.activeCount || startDate != o.startDate || endDate != o.endDate) {
+          return false;
+        }
+        for (int i = 0; i < activeCount; i++) {
+          if (!activeFlags[i].equals(o.getFlag(activeFlags[i].key))) {
+            return false;
+          }
+        }
+        return true;
       }
       return false;
     }
-    
+
     @Override
     public int hashCode() {
       // We can't make meaningful hash codes for EventSummary, because the same counters could be
-      // represented differently in our Map. It doesn't matter because there's no reason to use an
+      // represented differently in our table. It doesn't matter because there's no reason to use an
       // EventSummary instance as a hash key.
       return 0;
     }
+
+    @Override
+    public String toString() { // used only in tests
+      StringBuilder s = new StringBuilder("{");
+      for (int i = 0; i < activeCount; i++) {
+        s.append(activeFlags[i].key).append("=").append(activeFlags[i]);
+      }
+      s.append("}");
+      return s.toString();
+    }
   }
 
+  /**
+   * The summary counters for one flag. Each counter is identified by a flag version and a
+   * variation; the two are packed into a single long so that finding a counter is one comparison
+   * per entry. We use simple iteration to find counters, because most flags have only a few
+   * variations and only one version, or a few versions, during a summary period.
+   * <p>
+   * Context kinds are stored as a bitmask, using the bit numbers from a {@link ContextKindRegistry}
+   * that is shared by all flags in the same EventSummary. Kinds that the registry has no room for
+   * are stored by name.
+   */
   static final class FlagInfo {
-    final LDValue defaultVal;
-    final SimpleIntKeyedMap<SimpleIntKeyedMap<CounterValue>> versionsAndVariations;
-    final Set<String> contextKinds;
-    
-    FlagInfo(LDValue defaultVal, SimpleIntKeyedMap<SimpleIntKeyedMap<CounterValue>>  versionsAndVariations,
-        Set<String> contextKinds) {
+    private static final int INITIAL_CAPACITY = 4;
+    static final int MAX_SERIALIZED_VALUES = 8;
+
+    final String key;
+    LDValue defaultVal;
+    boolean active; // true if the flag has counters in the current summary period
+    long contextKindMask;
+    private final ContextKindRegistry kindRegistry;
+    private String[] unregisteredKinds; // created only if the registry is full
+    private int unregisteredKindCount;
+    private long[] counterKeys = new long[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private LDValue[] values = new LDValue[INITIAL_CAPACITY];
+    private int counterCount;
+    // JSON representations of values that this flag has produced; these are kept across summary
+    // periods, keyed by LDValue instance, since they are almost always the same every time
+    private LDValue serializedDefaultSource;
+    private String serializedDefault;
+    private LDValue[] serializedValueSources; // created the first time we serialize a value
+    private String[] serializedValues;
+    private int serializedValueCount;
+    private int nextSerializedValueToReplace;
+
+    FlagInfo(String key, LDValue defaultVal) {
+      this(key, defaultVal, new ContextKindRegistry());
+    }
+
+    FlagInfo(String key, LDValue defaultVal, ContextKindRegistry kindRegistry) {
+      this.key = key;
       this.defaultVal = defaultVal;
-      this.versionsAndVariations = versionsAndVariations;
-      this.contextKinds = contextKinds;
+      this.kindRegistry = kindRegistry;
     }
-    
-    @Override
-    public boolean equals(Object other) { // used only in tests
-      if (other instanceof FlagInfo) {
-        FlagInfo o = (FlagInfo)other;
-        return o.defaultVal.equals(this.defaultVal) && o.versionsAndVariations.equals(this.versionsAndVariations) &&
-            o.contextKinds.equals(this.contextKinds);
+
+    int contextKindCount() {
+      return Long.bitCount(contextKindMask) + unregisteredKindCount;
+    }
+
+    String contextKindAt(int index) {
+      int n = index;
+      for (long mask = contextKindMask; mask != 0; mask &= mask - 1) {
+        if (n == 0) {
+          return kindRegistry.nameOf(Long.numberOfTrailingZeros(mask));
+        }
+        n--;
       }
-      return false;
+      return unregisteredKinds[n];
     }
-    
-    @Override
-    public int hashCode() { // used only in tests
-      return this.defaultVal.hashCode() + 31 * versionsAndVariations.hashCode();
+
+    int counterCount() {
+      return counterCount;
     }
-    
-    @Override
-    public String toString() { // used only in tests
-      return "(default=" + defaultVal + ", counters=" + versionsAndVariations + ", contextKinds=" +
-        String.join(",", contextKinds) + ")";
+
+    int versionAt(int index) {
+      return (int)(counterKeys[index] >> 32);
     }
-  }
-  
-  static final class CounterValue {
-    long count;
-    final LDValue flagValue;
-    
-    CounterValue(long count, LDValue flagValue) {
-      this.count = count;
-      this.flagValue = flagValue;
-    }
-    
-    void increment() {
-      count = count + 1;
-    }
-    
-    @Override
-    public boolean equals(Object other) { // used only in tests
-      if (other instanceof CounterValue) {
-        CounterValue o = (CounterValue)other;
-        return count == o.count && Objects.equals(flagValue, o.flagValue);
-      }
-      return false;
+
+    int variationAt(int index) {
+      return (int)counterKeys[index];
     }
-    
-    @Override
-    public String toString() { // used only in tests
-      return "(" + count + "," + flagValue + ")";
+
+    LDValue valueAt(int index) {
+      return values[index];
     }
-  }
-  
-  // A very simple array-backed structure with map-like semantics for primitive int keys. This
-  // is highly specialized for the EventSummarizer use case (which is why it is an inner class
-  // of EventSummarizer, to emphasize that it should not be used elsewhere). It makes the
-  // following assumptions:
-  // - The number of keys will almost always be small: most flags have only a few variations,
-  // and most flags will have only one version or a few versions during the lifetime of an
-  // event payload. Therefore, we use simple iteration and int comparisons for the keys; the
-  // overhead of this is likely less than the overhead of maintaining a hashtable and creating
-  // objects for its keys and iterators.
-  // - Data will never be deleted from the map after being added (the summarizer simply makes
-  // a new map when it's time to start over).
-  static final class SimpleIntKeyedMap<T> {
-    private static final int INITIAL_CAPACITY = 4;
-    
-    private int[] keys;
-    private Object[] values;
-    private int n;
-    
-    SimpleIntKeyedMap() {
-      keys = new int[INITIAL_CAPACITY];
-      values = new Object[INITIAL_CAPACITY];
-    }
-    
-    int size() {
-      return n;
-    }
-    
-    int capacity() {
-      return keys.length;
+
+    long countAt(int index) {
+      return counts[index];
     }
-    
-    int keyAt(int index) {
-      return keys[index];
-    }
-    
-    @SuppressWarnings("unchecked")
-    T valueAt(int index) {
-      return (T)values[index]; 
-    }
-    
-    @SuppressWarnings("unchecked")
-    T get(int key) {
-      for (int i = 0; i < n; i++) {
-        if (keys[i] == key) {
-          return (T)values[i];
+
+    /**
+     * Returns the JSON representation of the default value. This is computed only once for as long
+     * as the application keeps passing the same LDValue instance.
+     */
+    String serializedDefault() throws IOException {
+      if (serializedDefault == null || serializedDefaultSource != defaultVal) {
+        serializedDefault = JsonValueWriter.toJson(defaultVal);
+        serializedDefaultSource = defaultVal;
+      }
+      return serializedDefault;
+    }
+
+    /**
+     * Returns the JSON representation of the value of a counter. The SDK normally reports the same
+     * LDValue instances for the variations of a flag in every evaluation, so we remember the JSON for
+     * the last few instances we have seen. If there are more of them than that, we replace the
+     * remembered ones in turn.
+     */
+    String serializedValueAt(int index) throws IOException {
+      LDValue value = values[index];
+      for (int i = 0; i < serializedValueCount; i++) {
+        if (serializedValueSources[i] == value) {
+          return serializedValues[i];
         }
       }
-      return null;
+      String json = JsonValueWriter.toJson(value);
+      int i;
+      if (serializedValueSources == null) {
+        serializedValueSources = new LDValue[MAX_SERIALIZED_VALUES];
+        serializedValues = new String[MAX_SERIALIZED_VALUES];
+      }
+      if (serializedValueCount < MAX_SERIALIZED_VALUES) {
+        i = serializedValueCount++;
+      } else {
+        i = nextSerializedValueToReplace;
+        nextSerializedValueToReplace = (i + 1) % MAX_SERIALIZED_VALUES;
+      }
+      serializedValueSources[i] = value;
+      serializedValues[i] = json;
+      return json;
     }
-    
-    SimpleIntKeyedMap<T> put(int key, T value) {
-      for (int i = 0; i < n; i++) {
-        if (keys[i] == key) {
-          values[i] = value;
+
+    FlagInfo addContextKind(String kind) {
+      int bit = kindRegistry.bitFor(kind);
+      if (bit >= 0) {
+        contextKindMask |= 1L << bit;
+        return this;
+      }
+      for (int i = 0; i < unregisteredKindCount; i++) {
+        if (unregisteredKinds[i].equals(kind)) {
           return this;
         }
       }
-      if (n == keys.length) {
-        int[] newKeys = new int[keys.length * 2];
-        System.arraycopy(keys, 0, newKeys, 0, n);
-        Object[] newValues = new Object[keys.length * 2];
-        System.arraycopy(values, 0, newValues, 0, n);
-        keys = newKeys;
-        values = newValues;
-      }
-      keys[n] = key;
-      values[n] = value;
-      n++;
+      if (unregisteredKinds == null) {
+        unregisteredKinds = new String[INITIAL_CAPACITY];
+      } else if (unregisteredKindCount == unregisteredKinds.length) {
+        unregisteredKinds = Arrays.copyOf(unregisteredKinds, unregisteredKinds.length * 2);
+      }
+      unregisteredKinds[unregisteredKindCount++] = kind;
       return this;
     }
-    
-    @SuppressWarnings("unchecked")
+
+    /**
+     * Adds to the counter for a version and variation. If there was no such counter, it is created
+     * with the specified value; otherwise, the value is ignored.
+     */
+    FlagInfo addCount(int flagVersion, int variation, LDValue value, long count) {
+      long counterKey = ((long)flagVersion << 32) | (variation & 0xffffffffL);
+      for (int i = 0; i < counterCount; i++) {
+        if (counterKeys[i] == counterKey) {
+          counts[i] += count;
+          return this;
+        }
+      }
+      if (counterCount == counterKeys.length) {
+        int newCapacity = counterKeys.length * 2;
+        counterKeys = Arrays.copyOf(counterKeys, newCapacity);
+        counts = Arrays.copyOf(counts, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+      }
+      counterKeys[counterCount] = counterKey;
+      counts[counterCount] = count;
+      values[counterCount] = value;
+      counterCount++;
+      return this;
+    }
+
+    private boolean hasContextKind(String kind) {
+      for (int i = 0; i < contextKindCount(); i++) {
+        if (contextKindAt(i).equals(kind)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void reset() {
+      active = false;
+      Arrays.fill(values, 0, counterCount, null);
+      counterCount = 0;
+      contextKindMask = 0;
+      unregisteredKindCount = 0;
+    }
+
     @Override
-    public boolean equals(Object o) { // used only in tests
-      if (o instanceof SimpleIntKeyedMap<?>) {
-        SimpleIntKeyedMap<T> other = (SimpleIntKeyedMap<T>)o;
-        if (this.n == other.n) {
-          for (int i = 0; i < n; i++) {
-            T value1 = (T)values[i], value2 = other.get(keys[i]);
-            if (!Objects.equals(value1, value2)) {
-              return false;
-            }
+    public boolean equals(Object other) { // used only in tests
+      if (other instanceof FlagInfo) {
+        FlagInfo o = (FlagInfo)other;
+        if (!o.defaultVal.equals(this.defaultVal) || o.counterCount != this.counterCount ||
+            o.contextKindCount() != this.contextKindCount()) {
+          return false;
+        }
+        for (int i = 0; i < contextKindCount(); i++) {
+          if (!o.hasContextKind(contextKindAt(i))) {
+            return false;
           }
-          return true;
         }
+        for (int i = 0; i < counterCount; i++) {
+          int j = o.indexOfCounter(counterKeys[i]);
+          if (j < 0 || o.counts[j] != counts[i] || !Objects.equals(o.values[j], values[i])) {
+            return false;
+          }
+        }
+        return true;
       }
       return false;
     }
-    
+
+    @Override
+    public int hashCode() { // used only in tests
+      return this.defaultVal.hashCode() + 31 * counterCount;
+    }
+
     @Override
     public String toString() { // used only in tests
-      StringBuilder s = new StringBuilder("{");
-      for (int i = 0; i < n; i++) {
-        s.append(keys[i]).append("=").append(values[i] == null ? "null" : values[i].toString());
+      StringBuilder s = new StringBuilder("(default=").append(defaultVal).append(", counters={");
+      for (int i = 0; i < counterCount; i++) {
+        s.append("(").append(versionAt(i)).append(",").append(variationAt(i)).append(")=(")
+          .append(counts[i]).append(",").append(values[i]).append(")");
       }
-      s.append("}");
-      return s.toString();
+      s.append("}, contextKinds=");
+      for (int i = 0; i < contextKindCount(); i++) {
+        s.append(i == 0 ? "" : ",").append(contextKindAt(i));
+      }
+      return s.append(")").toString();
+    }
+
+    private int indexOfCounter(long counterKey) {
+      for (int i = 0; i < counterCount; i++) {
+        if (counterKeys[i] == counterKey) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Assigns a bit number to each context kind name that is seen, so that a set of kinds can be
+   * stored as a bitmask. Only the first {@link #MAX_KINDS} kinds get a bit number; applications
+   * normally use only a few kinds, so in practice the registry never fills up.
+   */
+  static final class ContextKindRegistry {
+    static final int MAX_KINDS = 64;
+
+    private final String[] names = new String[MAX_KINDS];
+    private int count;
+
+    /**
+     * Returns the bit number for a kind, assigning one if necessary, or -1 if there are no bit
+     * numbers left.
+     */
+    int bitFor(String kind) {
+      for (int i = 0; i < count; i++) {
+        String name = names[i];
+        if (name == kind || name.equals(kind)) {
+          return i;
+        }
+      }
+      if (count == MAX_KINDS) {
+        return -1;
+      }
+      names[count] = kind;
+      return count++;
+    }
+
+    String nameOf(int bit) {
+      return names[bit];
     }
   }
 }
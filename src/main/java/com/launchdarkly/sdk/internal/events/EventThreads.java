@@ -0,0 +1,57 @@
+package com.launchdarkly.sdk.internal.events;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factories for the threads that {@link DefaultEventProcessor} runs its main loop and its
+ * delivery workers on.
+ * <p>
+ * By default, the event processor creates a platform thread for its main loop and one for each
+ * delivery worker. An application that creates many event processors in one JVM can instead pass
+ * a {@link ThreadFactory}, such as the one returned by {@link #virtualThreadFactory()}, to the
+ * {@link DefaultEventProcessor} constructor, so that they do not each cost several OS threads.
+ */
+public final class EventThreads {
+  static final String THREAD_NAME_PREFIX = "LaunchDarkly-event-delivery-";
+
+  private EventThreads() {}
+
+  /**
+   * Returns a factory for virtual threads, if the Java runtime supports them (Java 21 or later).
+   * <p>
+   * This library is built for Java 8, so the virtual thread API is accessed by reflection.
+   *
+   * @return a thread factory, or null if virtual threads are not available
+   */
+  public static ThreadFactory virtualThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX, 0L);
+      return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // This includes the case where virtual threads exist but are a preview feature that is not enabled
+      return null;
+    }
+  }
+
+  /**
+   * Returns the factory that the event processor uses by default, which creates daemon platform
+   * threads with the specified priority.
+   *
+   * @param threadPriority the thread priority
+   * @return a thread factory
+   */
+  public static ThreadFactory platformThreadFactory(final int threadPriority) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        t.setName(THREAD_NAME_PREFIX + t.getId());
+        t.setPriority(threadPriority);
+        return t;
+      }
+    };
+  }
+}
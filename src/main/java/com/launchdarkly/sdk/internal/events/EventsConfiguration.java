@@ -11,6 +11,8 @@ import java.util.List;
 /**
  * Internal representation of the configuration properties for {@link DefaultEventProcessor}.
  * This class is not exposed in the public SDK API.
+ * <p>
+ * The constructor sets the basic options. To set any of the others, use {@link #builder()}.
  */
 public final class EventsConfiguration {
   /**
@@ -30,9 +32,20 @@ public final class EventsConfiguration {
   final boolean initiallyInBackground;
   final boolean initiallyOffline;
   final List<AttributeRef> privateAttributes;
+  final boolean summarizeOnCallingThreads;
+  final Integer gzipCompressionLevel;
+  final int maxEventsPerPayload;
+  final int maxPayloadBytes;
+  final int flushHighWaterMark; // zero if the buffer is never flushed early
+  final long maxFlushIntervalMillis; // zero if the flush interval is never extended
+  final EventMetricsListener metricsListener; // never null
+  final boolean asyncDelivery;
   
   /**
    * Creates an instance.
+   * <p>
+   * This uses default values for all options that are not in the parameter list; to set those,
+   * use {@link #builder()} instead.
    * 
    * @param allAttributesPrivate true if all attributes are private
    * @param capacity event buffer capacity (if zero or negative, a value of 1 is used to prevent errors)
@@ -63,19 +76,355 @@ public final class EventsConfiguration {
       boolean initiallyOffline,
       Collection<AttributeRef> privateAttributes
       ) {
-    super();
-    this.allAttributesPrivate = allAttributesPrivate;
-    this.capacity = capacity >= 0 ? capacity : 1;
-    this.contextDeduplicator = contextDeduplicator;
-    this.diagnosticRecordingIntervalMillis = diagnosticRecordingIntervalMillis;
-    this.diagnosticStore = diagnosticStore;
-    this.eventSender = eventSender;
-    this.eventSendingThreadPoolSize = eventSendingThreadPoolSize >= 0 ? eventSendingThreadPoolSize :
+    this(builder()
+        .allAttributesPrivate(allAttributesPrivate)
+        .capacity(capacity)
+        .contextDeduplicator(contextDeduplicator)
+        .diagnosticRecordingIntervalMillis(diagnosticRecordingIntervalMillis)
+        .diagnosticStore(diagnosticStore)
+        .eventSender(eventSender)
+        .eventSendingThreadPoolSize(eventSendingThreadPoolSize)
+        .eventsUri(eventsUri)
+        .flushIntervalMillis(flushIntervalMillis)
+        .initiallyInBackground(initiallyInBackground)
+        .initiallyOffline(initiallyOffline)
+        .privateAttributes(privateAttributes));
+  }
+
+  private EventsConfiguration(Builder b) {
+    this.allAttributesPrivate = b.allAttributesPrivate;
+    this.capacity = b.capacity >= 0 ? b.capacity : 1;
+    this.contextDeduplicator = b.contextDeduplicator;
+    this.diagnosticRecordingIntervalMillis = b.diagnosticRecordingIntervalMillis;
+    this.diagnosticStore = b.diagnosticStore;
+    this.eventSender = b.eventSender;
+    this.eventSendingThreadPoolSize = b.eventSendingThreadPoolSize >= 0 ? b.eventSendingThreadPoolSize :
       DEFAULT_EVENT_SENDING_THREAD_POOL_SIZE;
-    this.eventsUri = eventsUri;
-    this.flushIntervalMillis = flushIntervalMillis;
-    this.initiallyInBackground = initiallyInBackground;
-    this.initiallyOffline = initiallyOffline;
-    this.privateAttributes = privateAttributes == null ? Collections.emptyList() : new ArrayList<>(privateAttributes);
+    this.eventsUri = b.eventsUri;
+    this.flushIntervalMillis = b.flushIntervalMillis;
+    this.initiallyInBackground = b.initiallyInBackground;
+    this.initiallyOffline = b.initiallyOffline;
+    this.privateAttributes = b.privateAttributes == null ? Collections.emptyList() :
+      new ArrayList<>(b.privateAttributes);
+    this.summarizeOnCallingThreads = b.summarizeOnCallingThreads;
+    this.gzipCompressionLevel = b.gzipCompressionLevel == null ? null :
+      Integer.valueOf(GzipPayloads.validLevel(b.gzipCompressionLevel.intValue()));
+    this.maxEventsPerPayload = b.maxEventsPerPayload > 0 ? b.maxEventsPerPayload : 0;
+    this.maxPayloadBytes = b.maxPayloadBytes > 0 ? b.maxPayloadBytes : 0;
+    this.flushHighWaterMark = b.flushHighWaterMark > 0 ? Math.min(b.flushHighWaterMark, this.capacity) :
+      (b.flushWhenFull ? this.capacity : 0);
+    this.maxFlushIntervalMillis = b.maxFlushIntervalMillis > b.flushIntervalMillis ? b.maxFlushIntervalMillis : 0;
+    this.metricsListener = b.metricsListener != null ? b.metricsListener : EventMetricsListener.NO_OP;
+    this.asyncDelivery = b.asyncDelivery;
+  }
+
+  /**
+   * Returns a builder for setting any of the configuration options.
+   *
+   * @return a new builder
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builder for an {@link EventsConfiguration}.
+   * <p>
+   * Every option starts out as zero, false, or null, except for {@code eventSendingThreadPoolSize},
+   * which is {@link EventsConfiguration#DEFAULT_EVENT_SENDING_THREAD_POOL_SIZE}. The options that the
+   * {@link EventsConfiguration} constructor has parameters for should normally all be set.
+   */
+  public static final class Builder {
+    private boolean allAttributesPrivate;
+    private int capacity;
+    private EventContextDeduplicator contextDeduplicator;
+    private long diagnosticRecordingIntervalMillis;
+    private DiagnosticStore diagnosticStore;
+    private EventSender eventSender;
+    private int eventSendingThreadPoolSize = DEFAULT_EVENT_SENDING_THREAD_POOL_SIZE;
+    private URI eventsUri;
+    private long flushIntervalMillis;
+    private boolean initiallyInBackground;
+    private boolean initiallyOffline;
+    private Collection<AttributeRef> privateAttributes;
+    private boolean summarizeOnCallingThreads;
+    private Integer gzipCompressionLevel;
+    private int maxEventsPerPayload;
+    private int maxPayloadBytes;
+    private int flushHighWaterMark;
+    private boolean flushWhenFull;
+    private long maxFlushIntervalMillis;
+    private EventMetricsListener metricsListener;
+    private boolean asyncDelivery;
+
+    private Builder() {}
+
+    /**
+     * Creates the configuration.
+     *
+     * @return an {@link EventsConfiguration}
+     */
+    public EventsConfiguration build() {
+      return new EventsConfiguration(this);
+    }
+
+    /**
+     * Sets whether all attributes are private.
+     *
+     * @param allAttributesPrivate true if all attributes are private
+     * @return the builder
+     */
+    public Builder allAttributesPrivate(boolean allAttributesPrivate) {
+      this.allAttributesPrivate = allAttributesPrivate;
+      return this;
+    }
+
+    /**
+     * Sets the event buffer capacity.
+     *
+     * @param capacity event buffer capacity (if negative, a value of 1 is used to prevent errors)
+     * @return the builder
+     */
+    public Builder capacity(int capacity) {
+      this.capacity = capacity;
+      return this;
+    }
+
+    /**
+     * Sets the context deduplicator.
+     *
+     * @param contextDeduplicator optional EventContextDeduplicator; null for client-side SDK
+     * @return the builder
+     */
+    public Builder contextDeduplicator(EventContextDeduplicator contextDeduplicator) {
+      this.contextDeduplicator = contextDeduplicator;
+      return this;
+    }
+
+    /**
+     * Sets the diagnostic recording interval.
+     *
+     * @param diagnosticRecordingIntervalMillis diagnostic recording interval
+     * @return the builder
+     */
+    public Builder diagnosticRecordingIntervalMillis(long diagnosticRecordingIntervalMillis) {
+      this.diagnosticRecordingIntervalMillis = diagnosticRecordingIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Sets the diagnostic store.
+     *
+     * @param diagnosticStore optional DiagnosticStore; null if diagnostics are disabled
+     * @return the builder
+     */
+    public Builder diagnosticStore(DiagnosticStore diagnosticStore) {
+      this.diagnosticStore = diagnosticStore;
+      return this;
+    }
+
+    /**
+     * Sets the event delivery component. This must be set.
+     *
+     * @param eventSender event delivery component
+     * @return the builder
+     */
+    public Builder eventSender(EventSender eventSender) {
+      this.eventSender = eventSender;
+      return this;
+    }
+
+    /**
+     * Sets the number of worker threads for event delivery.
+     *
+     * @param eventSendingThreadPoolSize number of worker threads for event delivery
+     * @return the builder
+     */
+    public Builder eventSendingThreadPoolSize(int eventSendingThreadPoolSize) {
+      this.eventSendingThreadPoolSize = eventSendingThreadPoolSize;
+      return this;
+    }
+
+    /**
+     * Sets the events base URI.
+     *
+     * @param eventsUri events base URI
+     * @return the builder
+     */
+    public Builder eventsUri(URI eventsUri) {
+      this.eventsUri = eventsUri;
+      return this;
+    }
+
+    /**
+     * Sets the event flush interval.
+     *
+     * @param flushIntervalMillis event flush interval
+     * @return the builder
+     */
+    public Builder flushIntervalMillis(long flushIntervalMillis) {
+      this.flushIntervalMillis = flushIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Sets whether we should start out in background mode.
+     *
+     * @param initiallyInBackground true if we should start out in background mode (see
+     *   {@link DefaultEventProcessor#setInBackground(boolean)})
+     * @return the builder
+     */
+    public Builder initiallyInBackground(boolean initiallyInBackground) {
+      this.initiallyInBackground = initiallyInBackground;
+      return this;
+    }
+
+    /**
+     * Sets whether we should start out in offline mode.
+     *
+     * @param initiallyOffline true if we should start out in offline mode (see
+     *   {@link DefaultEventProcessor#setOffline(boolean)})
+     * @return the builder
+     */
+    public Builder initiallyOffline(boolean initiallyOffline) {
+      this.initiallyOffline = initiallyOffline;
+      return this;
+    }
+
+    /**
+     * Sets the private attributes.
+     *
+     * @param privateAttributes list of private attribute references; may be null
+     * @return the builder
+     */
+    public Builder privateAttributes(Collection<AttributeRef> privateAttributes) {
+      this.privateAttributes = privateAttributes;
+      return this;
+    }
+
+    /**
+     * Sets whether evaluation events that only contribute to summary counters should be counted on
+     * the thread that calls {@link DefaultEventProcessor#sendEvent(Event)}, instead of being passed
+     * to the event processing thread.
+     *
+     * @param summarizeOnCallingThreads true to count them on the calling thread
+     * @return the builder
+     */
+    public Builder summarizeOnCallingThreads(boolean summarizeOnCallingThreads) {
+      this.summarizeOnCallingThreads = summarizeOnCallingThreads;
+      return this;
+    }
+
+    /**
+     * Sets whether and how analytics event payloads are compressed.
+     * <p>
+     * Only an {@link EventSender} that overrides
+     * {@link EventSender#sendCompressedAnalyticsEvents(byte[], int, URI)}, such as
+     * {@link DefaultEventSender}, sends the data compressed.
+     *
+     * @param gzipCompressionLevel if not null, payloads are compressed with gzip at this level, from
+     *   0 (no compression) to 9 (best compression); any other value means the default level. If null,
+     *   payloads are not compressed.
+     * @return the builder
+     */
+    public Builder gzipCompressionLevel(Integer gzipCompressionLevel) {
+      this.gzipCompressionLevel = gzipCompressionLevel;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of events in one analytics event payload.
+     *
+     * @param maxEventsPerPayload if greater than zero, a flush that has more than this many events is
+     *   split into several payloads that are sent separately, and in parallel if there are enough
+     *   worker threads
+     * @return the builder
+     */
+    public Builder maxEventsPerPayload(int maxEventsPerPayload) {
+      this.maxEventsPerPayload = maxEventsPerPayload;
+      return this;
+    }
+
+    /**
+     * Sets the approximate maximum size of an analytics event payload.
+     *
+     * @param maxPayloadBytes if greater than zero, a payload is ended as soon as its JSON data, before
+     *   compression, reaches this many bytes, and the rest of the events are sent in another payload;
+     *   a payload can therefore be larger than this by at most one event, or the summary event
+     * @return the builder
+     */
+    public Builder maxPayloadBytes(int maxPayloadBytes) {
+      this.maxPayloadBytes = maxPayloadBytes;
+      return this;
+    }
+
+    /**
+     * Sets the number of buffered events at which the buffer is flushed early.
+     *
+     * @param flushHighWaterMark if greater than zero, then when the event buffer holds this many events
+     *   and an event-sending worker thread is idle, the buffer is flushed right away rather than
+     *   waiting for the next scheduled flush; values greater than {@code capacity} are treated as
+     *   {@code capacity}, which means the buffer is flushed as soon as it is full; this takes
+     *   precedence over {@link #flushWhenFull(boolean)}
+     * @return the builder
+     */
+    public Builder flushHighWaterMark(int flushHighWaterMark) {
+      this.flushHighWaterMark = flushHighWaterMark;
+      return this;
+    }
+
+    /**
+     * Sets whether a full event buffer is flushed right away. This is the same as setting
+     * {@link #flushHighWaterMark(int)} to {@code capacity}.
+     *
+     * @param flushWhenFull true if, when the event buffer reaches its capacity and an event-sending
+     *   worker thread is idle, the buffer should be flushed right away rather than dropping events
+     *   until the next scheduled flush
+     * @return the builder
+     */
+    public Builder flushWhenFull(boolean flushWhenFull) {
+      this.flushWhenFull = flushWhenFull;
+      return this;
+    }
+
+    /**
+     * Sets the longest time between scheduled flushes while traffic is low.
+     *
+     * @param maxFlushIntervalMillis if greater than {@code flushIntervalMillis}, then while traffic is
+     *   low (a scheduled flush finds the buffer less than a tenth full), the time between scheduled
+     *   flushes doubles each time, up to this limit; it goes back to {@code flushIntervalMillis} as
+     *   soon as traffic picks up
+     * @return the builder
+     */
+    public Builder maxFlushIntervalMillis(long maxFlushIntervalMillis) {
+      this.maxFlushIntervalMillis = maxFlushIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Sets a listener for measurements from the event pipeline.
+     *
+     * @param metricsListener receives measurements from the event pipeline; may be null
+     * @return the builder
+     */
+    public Builder metricsListener(EventMetricsListener metricsListener) {
+      this.metricsListener = metricsListener;
+      return this;
+    }
+
+    /**
+     * Sets whether analytics event payloads are delivered without blocking a worker thread, if the
+     * event sender supports it.
+     *
+     * @param asyncDelivery true to use {@link AsyncEventSender#sendAnalyticsPayloadAsync} when the
+     *   event sender is an {@link AsyncEventSender}; if false, or if it is not one, each payload
+     *   occupies a worker thread until it has been delivered. With asynchronous delivery, the workers
+     *   share a single thread, or the delivery threads of a {@link SharedEventEngine}
+     * @return the builder
+     */
+    public Builder asyncDelivery(boolean asyncDelivery) {
+      this.asyncDelivery = asyncDelivery;
+      return this;
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,75 @@
+package com.launchdarkly.sdk.internal.events;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helpers for compressing event payloads with gzip.
+ * <p>
+ * The event processor compresses a payload while the JSON is being written, by putting a
+ * {@link #compressingStream(OutputStream, int, int)} between the JSON writer and the output buffer,
+ * so the uncompressed JSON is never held in memory all at once.
+ */
+final class GzipPayloads {
+  private GzipPayloads() {}
+
+  /**
+   * Returns a valid compression level: either the specified level, if it is from 0 to 9, or
+   * otherwise -1 (the default level).
+   *
+   * @param level the desired level
+   * @return a valid level
+   */
+  static int validLevel(int level) {
+    return level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION ? level :
+      Deflater.DEFAULT_COMPRESSION;
+  }
+
+  /**
+   * Returns a stream that compresses everything written to it and writes the result to another
+   * stream. The caller must close it to finish writing the compressed data.
+   *
+   * @param out the stream for the compressed data
+   * @param level the compression level (see {@link #validLevel(int)})
+   * @param bufferSize the size of the compression buffer
+   * @return a compressing stream
+   * @throws IOException if the gzip header could not be written
+   */
+  static OutputStream compressingStream(OutputStream out, int level, int bufferSize) throws IOException {
+    return new LeveledGzipOutputStream(out, validLevel(level), bufferSize);
+  }
+
+  /**
+   * Decompresses gzip data.
+   *
+   * @param data the compressed data
+   * @return the original data
+   * @throws IOException if the data is not valid gzip data
+   */
+  static byte[] decompress(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  // GZIPOutputStream always uses the default compression level, but its Deflater is accessible
+  // to subclasses.
+  private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+    LeveledGzipOutputStream(OutputStream out, int level, int bufferSize) throws IOException {
+      super(out, bufferSize);
+      def.setLevel(level);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.google.gson.stream.JsonWriter;
+import com.launchdarkly.sdk.EvaluationReason;
+import com.launchdarkly.sdk.LDValue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Writes LDValue and EvaluationReason instances directly to a JsonWriter.
+ * <p>
+ * Calling {@code gsonInstance().toJson(value, LDValue.class, writer)} has the same result, but
+ * Gson has to look up the type adapter for the class each time, and event payloads may contain a
+ * great many flag values. Here we walk the value ourselves using only its public API. To produce
+ * exactly the same output as Gson does, we temporarily apply the same JsonWriter settings that
+ * Gson's default configuration would: HTML-sensitive characters in strings are escaped, object
+ * properties whose value is null are omitted, and numbers are written leniently.
+ * <p>
+ * Test coverage for this logic is in JsonValueWriterTest, which compares the output against Gson.
+ */
+abstract class JsonValueWriter {
+  private JsonValueWriter() {}
+
+  /**
+   * Writes an LDValue in the same format as Gson.
+   *
+   * @param value the value; a null reference is written as a JSON null
+   * @param jw the JsonWriter
+   * @throws IOException if the underlying output throws one
+   */
+  static void writeLDValue(LDValue value, JsonWriter jw) throws IOException {
+    boolean oldLenient = jw.isLenient();
+    boolean oldHtmlSafe = jw.isHtmlSafe();
+    boolean oldSerializeNulls = jw.getSerializeNulls();
+    jw.setLenient(true);
+    jw.setHtmlSafe(true);
+    jw.setSerializeNulls(false);
+    try {
+      if (value == null) {
+        jw.nullValue();
+      } else {
+        writeValue(value, jw);
+      }
+    } finally {
+      jw.setLenient(oldLenient);
+      jw.setHtmlSafe(oldHtmlSafe);
+      jw.setSerializeNulls(oldSerializeNulls);
+    }
+  }
+
+  /**
+   * Returns the JSON representation of an LDValue, in the same format as Gson.
+   *
+   * @param value the value; a null reference is represented as a JSON null
+   * @return the JSON representation
+   * @throws IOException never, since the output is a StringWriter
+   */
+  static String toJson(LDValue value) throws IOException {
+    StringWriter sw = new StringWriter();
+    JsonWriter jw = new JsonWriter(sw);
+    writeLDValue(value, jw);
+    jw.flush();
+    return sw.toString();
+  }
+
+  /**
+   * Writes an EvaluationReason in the same format as Gson.
+   *
+   * @param reason the reason; must not be null
+   * @param jw the JsonWriter
+   * @throws IOException if the underlying output throws one
+   */
+  static void writeEvaluationReason(EvaluationReason reason, JsonWriter jw) throws IOException {
+    boolean oldHtmlSafe = jw.isHtmlSafe();
+    jw.setHtmlSafe(true);
+    try {
+      jw.beginObject();
+      jw.name("kind").value(reason.getKind().name());
+      switch (reason.getKind()) {
+      case RULE_MATCH:
+        jw.name("ruleIndex").value(reason.getRuleIndex());
+        if (reason.getRuleId() != null) {
+          jw.name("ruleId").value(reason.getRuleId());
+        }
+        break;
+      case PREREQUISITE_FAILED:
+        jw.name("prerequisiteKey").value(reason.getPrerequisiteKey());
+        break;
+      case ERROR:
+        jw.name("errorKind").value(reason.getErrorKind().name());
+        break;
+      default:
+        break;
+      }
+      if (reason.isInExperiment()) {
+        jw.name("inExperiment").value(true);
+      }
+      if (reason.getBigSegmentsStatus() != null) {
+        jw.name("bigSegmentsStatus").value(reason.getBigSegmentsStatus().name());
+      }
+      jw.endObject();
+    } finally {
+      jw.setHtmlSafe(oldHtmlSafe);
+    }
+  }
+
+  private static void writeValue(LDValue value, JsonWriter jw) throws IOException {
+    switch (value.getType()) {
+    case BOOLEAN:
+      jw.value(value.booleanValue());
+      break;
+    case NUMBER:
+      if (value.isInt()) {
+        jw.value(value.intValue());
+      } else {
+        jw.value(value.doubleValue());
+      }
+      break;
+    case STRING:
+      jw.value(value.stringValue());
+      break;
+    case ARRAY:
+      jw.beginArray();
+      for (LDValue element: value.values()) {
+        writeValue(element, jw);
+      }
+      jw.endArray();
+      break;
+    case OBJECT:
+      jw.beginObject();
+      for (String name: value.keys()) {
+        jw.name(name);
+        writeValue(value.get(name), jw);
+      }
+      jw.endObject();
+      break;
+    default:
+      jw.nullValue(); // with serializeNulls off, this also drops the property name if there is one
+      break;
+    }
+  }
+}
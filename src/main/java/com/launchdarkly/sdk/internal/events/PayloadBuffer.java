@@ -0,0 +1,235 @@
+package com.launchdarkly.sdk.internal.events;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * The buffer that a flush worker writes each analytics payload into. It is reused for every
+ * payload that the worker sends, so after the first few flushes it is already large enough and
+ * does not need to grow. {@link DefaultEventSender} writes the data straight from this buffer into
+ * the HTTP request body, so there is never more than one copy of a payload in memory; the
+ * contents are not changed until the sender returns, so a retry sends exactly the same bytes.
+ * <p>
+ * The buffer remembers the sizes of the last few payloads. When a payload has been sent,
+ * {@link #recycle()} releases the array if it is much larger than any of those payloads (for
+ * instance, after a one-time spike in traffic) or larger than the configured maximum, and
+ * replaces it with one that is big enough for the largest of them. The writer that is used to
+ * produce the JSON is also kept and reused, along with its own buffers.
+ * <p>
+ * This class is not thread-safe; it is only used by the worker that owns it.
+ */
+final class PayloadBuffer extends ByteArrayOutputStream implements EventSender.Payload {
+  static final int RECENT_PAYLOAD_COUNT = 8;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final int minimumSize;
+  private final int maximumRetainedSize;
+  private final DefaultEventProcessor.OutputBufferMetrics metrics;
+  private final int[] recentSizes = new int[RECENT_PAYLOAD_COUNT];
+  private int recentSizesIndex;
+  private boolean compressed;
+  private SizeCountingWriter writer;
+  private OutputStream destination; // either this buffer, or a compressing stream that writes to it
+  private boolean writing;
+
+  /**
+   * Creates an instance.
+   *
+   * @param minimumSize the initial size of the buffer, which it will never be shrunk below
+   * @param maximumRetainedSize the largest buffer that will be kept after a payload is sent
+   * @param metrics the counters to update when the buffer is resized
+   */
+  PayloadBuffer(int minimumSize, int maximumRetainedSize, DefaultEventProcessor.OutputBufferMetrics metrics) {
+    super(minimumSize);
+    this.minimumSize = minimumSize;
+    this.maximumRetainedSize = Math.max(minimumSize, maximumRetainedSize);
+    this.metrics = metrics;
+  }
+
+  PayloadBuffer(int initialSize) {
+    this(initialSize, Integer.MAX_VALUE, new DefaultEventProcessor.OutputBufferMetrics());
+  }
+
+  /**
+   * Discards the current contents so the buffer can be reused for another payload.
+   *
+   * @param compressed true if the next payload will be compressed with gzip
+   */
+  void reset(boolean compressed) {
+    reset();
+    this.compressed = compressed;
+  }
+
+  /**
+   * Discards the current contents and returns a writer for the next payload. The writer must
+   * not be closed; call {@link #finishPayload()} instead.
+   *
+   * @param compressionLevel a gzip compression level, or null not to compress the payload
+   * @return a writer that produces UTF-8 data in this buffer
+   * @throws IOException if the compressed stream could not be started
+   */
+  Writer startPayload(Integer compressionLevel) throws IOException {
+    if (writing && destination != this) {
+      try {
+        destination.close(); // release the compressor from the abandoned payload
+      } catch (IOException e) {} // COVERAGE: closing a stream that writes to this buffer can't fail
+    }
+    reset(compressionLevel != null);
+    if (writer == null || writing) {
+      // If the last payload was abandoned because of an error, the writer might still have some
+      // of its data in its buffers, so we can't reuse it
+      writer = new SizeCountingWriter(
+          new BufferedWriter(new OutputStreamWriter(new DestinationStream(), UTF8), minimumSize));
+    }
+    destination = compressionLevel == null ? this :
+      GzipPayloads.compressingStream(this, compressionLevel, minimumSize);
+    writer.size = 0;
+    writing = true;
+    return writer;
+  }
+
+  /**
+   * Writes out anything that is still buffered by the writer, and finishes the compressed data if
+   * the payload is compressed.
+   *
+   * @throws IOException if the data could not be written
+   */
+  void finishPayload() throws IOException {
+    writer.flush();
+    if (destination != this) {
+      destination.close(); // this finishes the compressed data; closing this buffer itself would be a no-op
+    }
+    destination = this;
+    writing = false;
+  }
+
+  /**
+   * Returns the number of bytes of UTF-8 data that have been written so far for the current
+   * payload, before compression. This is counted as the characters are written, so it does not
+   * flush the writer's buffers and is cheap enough to call after every event.
+   *
+   * @return the uncompressed size of the payload
+   */
+  long uncompressedSize() {
+    return writer.size;
+  }
+
+  /**
+   * Called after a payload has been sent, to discard it and, if necessary, resize the buffer
+   * based on the sizes of recent payloads.
+   */
+  void recycle() {
+    recentSizes[recentSizesIndex] = count;
+    recentSizesIndex = (recentSizesIndex + 1) % RECENT_PAYLOAD_COUNT;
+    reset();
+    int highWaterMark = minimumSize;
+    for (int size: recentSizes) {
+      highWaterMark = Math.max(highWaterMark, size);
+    }
+    int target = (int)Math.min(maximumRetainedSize, highWaterMark + (long)(highWaterMark >> 3)); // allow 1/8 extra
+    if (buf.length > maximumRetainedSize || buf.length > target * 2L) {
+      buf = new byte[Math.max(minimumSize, target)];
+      metrics.shrinks.incrementAndGet();
+    }
+  }
+
+  @Override
+  public synchronized void write(int b) {
+    byte[] oldBuf = buf;
+    super.write(b);
+    if (buf != oldBuf) {
+      metrics.growths.incrementAndGet();
+    }
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) {
+    byte[] oldBuf = buf;
+    super.write(b, off, len);
+    if (buf != oldBuf) {
+      metrics.growths.incrementAndGet();
+    }
+  }
+
+  @Override
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  /**
+   * Returns the current allocated size of the buffer, which may be larger than {@link #size()}.
+   *
+   * @return the buffer capacity
+   */
+  int capacity() {
+    return buf.length;
+  }
+
+  // The reusable writer always writes to this stream, which passes the data on to whichever
+  // stream the current payload is using.
+  private final class DestinationStream extends OutputStream {
+    @Override
+    public void write(int b) throws IOException {
+      destination.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      destination.write(b, off, len);
+    }
+  }
+
+  // Counts the UTF-8 length of everything that is written, before it goes into the writer's
+  // buffers, so that we know the size of the payload so far without having to flush them.
+  private static final class SizeCountingWriter extends Writer {
+    private final Writer target;
+    long size;
+
+    SizeCountingWriter(Writer target) {
+      this.target = target;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      target.write(c);
+      size += utf8Length((char)c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      target.write(cbuf, off, len);
+      for (int i = off; i < off + len; i++) {
+        size += utf8Length(cbuf[i]);
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      target.write(str, off, len);
+      for (int i = off; i < off + len; i++) {
+        size += utf8Length(str.charAt(i));
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target.flush();
+    }
+
+    @Override
+    public void close() throws IOException { // COVERAGE: the writer is never closed; see startPayload
+      target.close();
+    }
+
+    // Each half of a surrogate pair counts as 2, since the pair is encoded in 4 bytes
+    private static int utf8Length(char c) {
+      return c < 0x80 ? 1 : (c < 0x800 || Character.isSurrogate(c)) ? 2 : 3;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.launchdarkly.sdk.internal.events;
+
+import java.util.Random;
+
+/**
+ * Determines how {@link DefaultEventSender} retries a failed delivery, and when it should stop
+ * trying to deliver anything for a while because the events service appears to be unavailable.
+ * <p>
+ * The delay before each retry doubles, starting from the initial delay, up to the maximum delay.
+ * A random part of each delay, determined by the jitter ratio, is subtracted from it, so that
+ * worker threads which failed at the same moment do not all retry at the same moment.
+ * <p>
+ * If the circuit breaker threshold is greater than zero, then after that many consecutive failed
+ * requests the sender stops sending anything (reporting each payload as undelivered) for the
+ * circuit breaker interval. After that, one request is allowed through; if it succeeds, delivery
+ * resumes, and if it fails, the interval starts again.
+ */
+public final class RetryPolicy {
+  /**
+   * Default value for {@code maxAttempts}.
+   */
+  public static final int DEFAULT_MAX_ATTEMPTS = 2;
+
+  final int maxAttempts;
+  final long initialDelayMillis;
+  final long maxDelayMillis;
+  final double jitterRatio;
+  final long deadlineMillis;
+  final int circuitBreakerThreshold;
+  final long circuitBreakerIntervalMillis;
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxAttempts the maximum number of times to try sending a payload, including the first
+   *   time; if less than 1, {@link #DEFAULT_MAX_ATTEMPTS} is used
+   * @param initialDelayMillis the delay before the first retry; if zero or negative,
+   *   {@link DefaultEventSender#DEFAULT_RETRY_DELAY_MILLIS} is used
+   * @param maxDelayMillis the maximum delay before any retry; if less than the initial delay, the
+   *   initial delay is used
+   * @param jitterRatio the largest fraction of each delay that can be randomly subtracted from it,
+   *   from 0 (no jitter) to 1
+   * @param deadlineMillis if greater than zero, no retry is started if it would begin more than
+   *   this many milliseconds after the first attempt
+   * @param circuitBreakerThreshold the number of consecutive failed requests that causes delivery to
+   *   be suspended; zero or negative to never suspend delivery
+   * @param circuitBreakerIntervalMillis how long to suspend delivery for
+   */
+  public RetryPolicy(
+      int maxAttempts,
+      long initialDelayMillis,
+      long maxDelayMillis,
+      double jitterRatio,
+      long deadlineMillis,
+      int circuitBreakerThreshold,
+      long circuitBreakerIntervalMillis
+      ) {
+    this.maxAttempts = maxAttempts >= 1 ? maxAttempts : DEFAULT_MAX_ATTEMPTS;
+    this.initialDelayMillis = initialDelayMillis > 0 ? initialDelayMillis :
+      DefaultEventSender.DEFAULT_RETRY_DELAY_MILLIS;
+    this.maxDelayMillis = Math.max(maxDelayMillis, this.initialDelayMillis);
+    this.jitterRatio = jitterRatio <= 0 ? 0 : Math.min(jitterRatio, 1);
+    this.deadlineMillis = deadlineMillis > 0 ? deadlineMillis : 0;
+    this.circuitBreakerThreshold = circuitBreakerThreshold > 0 ? circuitBreakerThreshold : 0;
+    this.circuitBreakerIntervalMillis = circuitBreakerIntervalMillis;
+  }
+
+  /**
+   * Returns the policy that {@link DefaultEventSender} has always used: one retry after a fixed
+   * delay, with no circuit breaker.
+   *
+   * @param retryDelayMillis the delay, or zero to use the default
+   * @return a policy
+   */
+  static RetryPolicy fixedDelay(long retryDelayMillis) {
+    return new RetryPolicy(DEFAULT_MAX_ATTEMPTS, retryDelayMillis, retryDelayMillis, 0, 0, 0, 0);
+  }
+
+  /**
+   * Returns the delay before a retry.
+   *
+   * @param retry 1 for the first retry, 2 for the second, etc.
+   * @param random the source of jitter
+   * @return the delay in milliseconds
+   */
+  long delayBeforeRetry(int retry, Random random) {
+    long delay = initialDelayMillis;
+    for (int i = 1; i < retry && delay < maxDelayMillis; i++) {
+      delay *= 2;
+    }
+    delay = Math.min(delay, maxDelayMillis);
+    return delay - (long)(delay * jitterRatio * random.nextDouble());
+  }
+}
@@ -0,0 +1,104 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.google.gson.stream.JsonWriter;
+import com.launchdarkly.sdk.LDContext;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the JSON representations of contexts, after private attributes have been redacted,
+ * so that a context that appears in many events only has to be serialized once.
+ * <p>
+ * Contexts are immutable, so we can key the cache on the identity of the LDContext instance; that
+ * is much cheaper than computing the hash code of its attributes, and the SDK normally passes the
+ * same instance for every event that is generated by the same application call or request. The
+ * cache holds a limited number of contexts, discarding the least recently used ones.
+ * <p>
+ * This class is not thread-safe; each EventOutputFormatter has its own instance.
+ */
+final class SerializedContextCache {
+  static final int DEFAULT_CAPACITY = 1000;
+
+  private final EventContextFormatter contextFormatter;
+  private final Map<Key, String> cache;
+  private final Key lookupKey = new Key(null, false); // reused for lookups to avoid allocation
+  private final DefaultEventProcessor.ContextCacheMetrics metrics;
+
+  SerializedContextCache(EventContextFormatter contextFormatter, final int capacity,
+      DefaultEventProcessor.ContextCacheMetrics metrics) {
+    this.contextFormatter = contextFormatter;
+    this.metrics = metrics;
+    this.cache = new LinkedHashMap<Key, String>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Returns the JSON representation of a context, using a cached value if possible.
+   *
+   * @param context the context
+   * @param redactAnonymous true if attributes of anonymous contexts should be redacted
+   * @return the JSON representation
+   * @throws IOException never, since the output is a StringWriter
+   */
+  String get(LDContext context, boolean redactAnonymous) throws IOException {
+    lookupKey.context = context;
+    lookupKey.redactAnonymous = redactAnonymous;
+    String json = cache.get(lookupKey);
+    lookupKey.context = null; // don't hold onto the context
+    if (json != null) {
+      metrics.hits.incrementAndGet();
+      return json;
+    }
+    metrics.misses.incrementAndGet();
+    StringWriter sw = new StringWriter();
+    JsonWriter jw = new JsonWriter(sw);
+    contextFormatter.write(context, jw, redactAnonymous);
+    jw.flush();
+    json = sw.toString();
+    cache.put(new Key(context, redactAnonymous), json);
+    return json;
+  }
+
+  /**
+   * Returns the number of contexts in the cache.
+   *
+   * @return the cache size
+   */
+  int size() {
+    return cache.size();
+  }
+
+  private static final class Key {
+    LDContext context;
+    boolean redactAnonymous;
+
+    Key(LDContext context, boolean redactAnonymous) {
+      this.context = context;
+      this.redactAnonymous = redactAnonymous;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      // COVERAGE: the map only ever compares one Key with another
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)o;
+      return other.context == context && other.redactAnonymous == redactAnonymous;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(context) * 2 + (redactAnonymous ? 1 : 0);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.launchdarkly.sdk.internal.events;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A fixed set of threads that can be shared by many {@link DefaultEventProcessor} instances in one
+ * JVM, such as one SDK client per environment in a multi-environment service.
+ * <p>
+ * Normally, each event processor has its own dispatcher thread and a delivery thread for each
+ * worker. An event processor that is created with a shared engine becomes one of the engine's
+ * tenants instead. It still has its own inbox, event buffer, summaries, and configuration, but its
+ * messages are processed on one of the engine's dispatcher threads (shards), and its payloads are
+ * delivered on the engine's pool of delivery threads. Each tenant is assigned to the shard that
+ * has the fewest tenants.
+ * <p>
+ * To keep one busy tenant from starving the others, a tenant never holds a thread for long: it
+ * processes at most one batch of messages, or delivers at most one payload, and then goes to the
+ * back of the queue for that thread if it has more work to do. Each tenant's inbox still has its
+ * own capacity, so a tenant that produces events faster than they can be processed only drops its
+ * own events.
+ * <p>
+ * The engine should be closed after all of its tenants have been closed.
+ */
+public final class SharedEventEngine implements Closeable {
+  private final ExecutorService[] shards;
+  private final int[] shardTenantCounts;
+  private final ExecutorService deliveryExecutor;
+  private final ThreadFactory threadFactory;
+
+  /**
+   * Creates an instance.
+   *
+   * @param dispatcherThreadCount the number of shards, each with its own dispatcher thread
+   *   (minimum 1)
+   * @param deliveryThreadCount the number of threads for delivering payloads (minimum 1)
+   * @param threadFactory creates the engine's threads; if null, it uses
+   *   {@link EventThreads#platformThreadFactory(int)} with normal priority
+   */
+  public SharedEventEngine(int dispatcherThreadCount, int deliveryThreadCount, ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory != null ? threadFactory :
+      EventThreads.platformThreadFactory(Thread.NORM_PRIORITY);
+    shards = new ExecutorService[Math.max(1, dispatcherThreadCount)];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = Executors.newSingleThreadExecutor(this.threadFactory);
+    }
+    shardTenantCounts = new int[shards.length];
+    deliveryExecutor = Executors.newFixedThreadPool(Math.max(1, deliveryThreadCount), this.threadFactory);
+  }
+
+  /**
+   * Stops all of the engine's threads. Any tenants that have not been closed will stop processing
+   * events; they can still be closed, but their unsent events are discarded.
+   */
+  @Override
+  public void close() {
+    for (ExecutorService shard: shards) {
+      shard.shutdown();
+    }
+    deliveryExecutor.shutdown();
+  }
+
+  /**
+   * Assigns a new tenant to the shard with the fewest tenants.
+   *
+   * @return the shard index
+   */
+  synchronized int addTenant() {
+    int shard = 0;
+    for (int i = 1; i < shards.length; i++) {
+      if (shardTenantCounts[i] < shardTenantCounts[shard]) {
+        shard = i;
+      }
+    }
+    shardTenantCounts[shard]++;
+    return shard;
+  }
+
+  synchronized void removeTenant(int shard) {
+    shardTenantCounts[shard]--;
+  }
+
+  synchronized int getTenantCount(int shard) { // visible for testing
+    return shardTenantCounts[shard];
+  }
+
+  Executor getShard(int shard) {
+    return shards[shard];
+  }
+
+  Executor getDeliveryExecutor() {
+    return deliveryExecutor;
+  }
+
+  /**
+   * Runs a task that may block for a while, such as waiting for a tenant's deliveries to finish
+   * when it is being closed, on a new thread, so that it does not hold up other tenants.
+   *
+   * @param task the task
+   */
+  void runBlockingTask(Runnable task) {
+    threadFactory.newThread(task).start();
+  }
+}
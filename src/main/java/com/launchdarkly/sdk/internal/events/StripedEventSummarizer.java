@@ -0,0 +1,154 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.LDContext;
+
+/**
+ * Summarizes evaluation events on the application threads that produce them, so that events
+ * which only contribute to summary counters never have to go through the EventDispatcher's
+ * inbox. This is used only if {@link EventsConfiguration#summarizeOnCallingThreads} is enabled.
+ * <p>
+ * The counters are kept in a {@link ConcurrentEventSummarizer}, which does not need any locking.
+ * At flush time, the dispatcher thread takes a snapshot of those counters and merges it into its
+ * own EventSummarizer with {@link #drainTo(EventSummarizer)}.
+ * <p>
+ * If there is an {@link EventContextDeduplicator}, the dispatcher still needs to see each
+ * context so that it can generate index events. To avoid sending it every event, we keep a fixed
+ * number of stripes, each guarded by its own lock; a thread always uses the same stripe, so as
+ * long as there are more stripes than busy threads, the locks are almost never contended. Each
+ * stripe remembers the last context instance that it reported; {@link #summarizeEvent(Event.FeatureRequest)}
+ * only asks the caller to pass the event on to the dispatcher if the context is a different
+ * instance, or if the deduplicator has been flushed since then. Events that are not passed on
+ * are counted as deduplicated contexts for diagnostic events.
+ */
+final class StripedEventSummarizer {
+  private final ConcurrentEventSummarizer summarizer = new ConcurrentEventSummarizer();
+  private final EventSummarizer.EventSummary drained = new EventSummarizer.EventSummary(); // dispatcher only
+  private final Stripe[] stripes;
+  private final int mask;
+  private final boolean trackContexts;
+  private volatile int contextGeneration = 0;
+
+  /**
+   * Creates an instance.
+   *
+   * @param minimumStripes the minimum number of stripes; this is rounded up to a power of two
+   * @param trackContexts true if the dispatcher needs to see contexts (that is, there is an
+   *   EventContextDeduplicator)
+   */
+  StripedEventSummarizer(int minimumStripes, boolean trackContexts) {
+    int size = 1;
+    while (size < minimumStripes) {
+      size <<= 1;
+    }
+    stripes = new Stripe[size];
+    for (int i = 0; i < size; i++) {
+      stripes[i] = new Stripe();
+    }
+    mask = size - 1;
+    this.trackContexts = trackContexts;
+  }
+
+  /**
+   * Returns true if this event can be summarized on the calling thread: that is, it is an
+   * evaluation event that will not be output individually in any form. The same test is used by
+   * the dispatcher, so that it does not count the event a second time if it is passed on.
+   *
+   * @param e an event
+   * @return true if the event only contributes to summary counters
+   */
+  static boolean isSummaryOnly(Event e) {
+    if (!(e instanceof Event.FeatureRequest) || e.getContext() == null) {
+      return false;
+    }
+    Event.FeatureRequest fe = (Event.FeatureRequest)e;
+    return !fe.isTrackEvents() && fe.getDebugEventsUntilDate() == null && !fe.isExcludeFromSummaries();
+  }
+
+  /**
+   * Adds an event to the summary counters. The event must be one for which
+   * {@link #isSummaryOnly(Event)} returned true.
+   *
+   * @param fe the event
+   * @return true if the caller should pass the event on to the dispatcher so that it can see
+   *   the context
+   */
+  boolean summarizeEvent(Event.FeatureRequest fe) {
+    LDContext context = fe.getContext();
+    summarizer.summarizeEvent(fe.getCreationDate(), fe.getKey(), fe.getVersion(), fe.getVariation(),
+        fe.getValue(), fe.getDefaultVal(), context);
+    if (!trackContexts) {
+      return false;
+    }
+    Stripe stripe = stripes[(int)Thread.currentThread().getId() & mask];
+    synchronized (stripe) {
+      int generation = contextGeneration;
+      if (stripe.lastContext == context && stripe.lastContextGeneration == generation) {
+        stripe.deduplicatedContexts++;
+        return false;
+      }
+      stripe.lastContext = context;
+      stripe.lastContextGeneration = generation;
+      return true;
+    }
+  }
+
+  /**
+   * Undoes the effect of {@link #summarizeEvent(Event.FeatureRequest)} on the current thread's
+   * remembered context, if the caller was unable to pass the event on to the dispatcher.
+   *
+   * @param context the context of that event
+   */
+  void forgetContext(LDContext context) {
+    Stripe stripe = stripes[(int)Thread.currentThread().getId() & mask];
+    synchronized (stripe) {
+      if (stripe.lastContext == context) {
+        stripe.lastContext = null;
+      }
+    }
+  }
+
+  /**
+   * Called from the dispatcher thread when the EventContextDeduplicator is flushed, so that every
+   * context will be passed on again the next time it is seen.
+   */
+  void resetContexts() {
+    contextGeneration++; // only the dispatcher thread modifies this
+  }
+
+  /**
+   * Moves the summary counters into another summarizer, resetting them. Called from the
+   * dispatcher thread.
+   *
+   * @param target the dispatcher's summarizer
+   */
+  void drainTo(EventSummarizer target) {
+    summarizer.getSummaryAndReset(drained);
+    if (!drained.isEmpty()) {
+      target.addSummary(drained);
+    }
+    drained.clear();
+  }
+
+  /**
+   * Returns the number of events that were not passed on because their context had already
+   * been reported, and resets that count. Called from the dispatcher thread.
+   *
+   * @return the number of deduplicated contexts
+   */
+  long getAndClearDeduplicatedContexts() {
+    long total = 0;
+    for (Stripe stripe: stripes) {
+      synchronized (stripe) {
+        total += stripe.deduplicatedContexts;
+        stripe.deduplicatedContexts = 0;
+      }
+    }
+    return total;
+  }
+
+  private static final class Stripe {
+    LDContext lastContext;
+    int lastContextGeneration;
+    long deduplicatedContexts;
+  }
+}
@@ -104,13 +104,15 @@ public abstract class BaseEventTest extends BaseTest {
     final String data;
     final int eventCount;
     final URI eventsBaseUri;
+    final boolean compressed;
 
-    CapturedPayload(boolean diagnostic, String data, int eventCount, URI eventsBaseUri) {
+    CapturedPayload(boolean diagnostic, String data, int eventCount, URI eventsBaseUri, boolean compressed) {
       this.diagnostic = diagnostic;
       this.data = data;
       this.eventCount = eventCount;
       assertNotNull(eventsBaseUri);
       this.eventsBaseUri = eventsBaseUri;
+      this.compressed = compressed;
     }
   }
 
@@ -127,13 +129,25 @@ public abstract class BaseEventTest extends BaseTest {
     @Override
     public Result sendAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
       testLogger.debug("[MockEventSender] received {} events: {}", eventCount, new String(data));
-      return receive(false, data, eventCount, eventsBaseUri);
+      return receive(false, data, eventCount, eventsBaseUri, false);
+    }
+
+    @Override
+    public Result sendCompressedAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
+      byte[] uncompressed;
+      try {
+        uncompressed = GzipPayloads.decompress(data);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      testLogger.debug("[MockEventSender] received {} compressed events: {}", eventCount, new String(uncompressed));
+      return receive(false, uncompressed, eventCount, eventsBaseUri, true);
     }
 
     @Override
     public Result sendDiagnosticEvent(byte[] data, URI eventsBaseUri) {
       testLogger.debug("[MockEventSender] received diagnostic event: {}", new String(data));
-      return receive(true, data, 1, eventsBaseUri);
+      return receive(true, data, 1, eventsBaseUri, false);
     }
 
     @Override
@@ -144,8 +158,9 @@ public abstract class BaseEventTest extends BaseTest {
       }
     }
 
-    private Result receive(boolean diagnostic, byte[] data, int eventCount, URI eventsBaseUri) {
-      receivedParams.add(new CapturedPayload(diagnostic, new String(data, Charset.forName("UTF-8")), eventCount, eventsBaseUri));
+    private Result receive(boolean diagnostic, byte[] data, int eventCount, URI eventsBaseUri, boolean compressed) {
+      receivedParams.add(new CapturedPayload(diagnostic, new String(data, Charset.forName("UTF-8")), eventCount,
+          eventsBaseUri, compressed));
       if (waitSignal != null) {
         // this is used in DefaultEventProcessorTest.eventsAreKeptInBufferIfAllFlushWorkersAreBusy
         synchronized (waitSignal) {
@@ -195,6 +210,44 @@ public abstract class BaseEventTest extends BaseTest {
     }
   }
 
+  // Passes each analytics payload to a MockEventSender, but does not report the result until the
+  // test calls the callback.
+  public static final class DeferredAsyncEventSender implements AsyncEventSender {
+    private final MockEventSender target;
+    final BlockingQueue<ResultCallback> callbacks = new LinkedBlockingQueue<>();
+
+    DeferredAsyncEventSender(MockEventSender target) {
+      this.target = target;
+    }
+
+    @Override
+    public Result sendAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
+      return target.sendAnalyticsEvents(data, eventCount, eventsBaseUri);
+    }
+
+    @Override
+    public Result sendCompressedAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
+      return target.sendCompressedAnalyticsEvents(data, eventCount, eventsBaseUri);
+    }
+
+    @Override
+    public Result sendDiagnosticEvent(byte[] data, URI eventsBaseUri) {
+      return target.sendDiagnosticEvent(data, eventsBaseUri);
+    }
+
+    @Override
+    public void sendAnalyticsPayloadAsync(Payload payload, int eventCount, URI eventsBaseUri,
+        ScheduledExecutorService scheduler, ResultCallback callback) {
+      target.sendAnalyticsPayload(payload, eventCount, eventsBaseUri);
+      callbacks.add(callback);
+    }
+
+    @Override
+    public void close() throws IOException {
+      target.close();
+    }
+  }
+
   public static Matcher<JsonTestValue> isIdentifyEvent(Event sourceEvent, LDValue context) {
     return allOf(
         jsonProperty("kind", "identify"),
@@ -327,8 +380,8 @@ public abstract class BaseEventTest extends BaseTest {
    * that flushes normally won't happen, and any test where we want flushes to happen will not rely on
    * the defaults.
    * <p>
-   * This is defined only in test code, instead of as an inner class of EventsConfiguration, because
-   * in non-test code there's only one place where we ever construct EventsConfiguration.
+   * It is separate from {@link EventsConfiguration.Builder} because it starts out with these
+   * test-friendly defaults.
    */
   public static class EventsConfigurationBuilder {
     private boolean allAttributesPrivate = false;
@@ -343,22 +396,40 @@ public abstract class BaseEventTest extends BaseTest {
     private boolean initiallyInBackground = false;
     private boolean initiallyOffline = false;
     private Set<AttributeRef> privateAttributes = new HashSet<>();
+    private boolean summarizeOnCallingThreads = false;
+    private Integer gzipCompressionLevel = null;
+    private int maxEventsPerPayload = 0;
+    private int maxPayloadBytes = 0;
+    private int flushHighWaterMark = 0;
+    private boolean flushWhenFull = false;
+    private long maxFlushIntervalMillis = 0;
+    private EventMetricsListener metricsListener = null;
+    private boolean asyncDelivery = false;
 
     public EventsConfiguration build() {
-      return new EventsConfiguration(
-          allAttributesPrivate,
-          capacity,
-          contextDeduplicator,
-          diagnosticRecordingIntervalMillis,
-          diagnosticStore,
-          eventSender,
-          eventSendingThreadPoolSize,
-          eventsUri,
-          flushIntervalMillis,
-          initiallyInBackground,
-          initiallyOffline,
-          privateAttributes
-          );
+      return EventsConfiguration.builder()
+          .allAttributesPrivate(allAttributesPrivate)
+          .capacity(capacity)
+          .contextDeduplicator(contextDeduplicator)
+          .diagnosticRecordingIntervalMillis(diagnosticRecordingIntervalMillis)
+          .diagnosticStore(diagnosticStore)
+          .eventSender(eventSender)
+          .eventSendingThreadPoolSize(eventSendingThreadPoolSize)
+          .eventsUri(eventsUri)
+          .flushIntervalMillis(flushIntervalMillis)
+          .initiallyInBackground(initiallyInBackground)
+          .initiallyOffline(initiallyOffline)
+          .privateAttributes(privateAttributes)
+          .summarizeOnCallingThreads(summarizeOnCallingThreads)
+          .gzipCompressionLevel(gzipCompressionLevel)
+          .maxEventsPerPayload(maxEventsPerPayload)
+          .maxPayloadBytes(maxPayloadBytes)
+          .flushHighWaterMark(flushHighWaterMark)
+          .flushWhenFull(flushWhenFull)
+          .maxFlushIntervalMillis(maxFlushIntervalMillis)
+          .metricsListener(metricsListener)
+          .asyncDelivery(asyncDelivery)
+          .build();
     }
 
     public EventsConfigurationBuilder allAttributesPrivate(boolean allAttributesPrivate) {
@@ -420,6 +491,51 @@ public abstract class BaseEventTest extends BaseTest {
       this.privateAttributes = privateAttributes;
       return this;
     }
+
+    public EventsConfigurationBuilder summarizeOnCallingThreads(boolean summarizeOnCallingThreads) {
+      this.summarizeOnCallingThreads = summarizeOnCallingThreads;
+      return this;
+    }
+
+    public EventsConfigurationBuilder gzipCompressionLevel(Integer gzipCompressionLevel) {
+      this.gzipCompressionLevel = gzipCompressionLevel;
+      return this;
+    }
+
+    public EventsConfigurationBuilder maxEventsPerPayload(int maxEventsPerPayload) {
+      this.maxEventsPerPayload = maxEventsPerPayload;
+      return this;
+    }
+
+    public EventsConfigurationBuilder maxPayloadBytes(int maxPayloadBytes) {
+      this.maxPayloadBytes = maxPayloadBytes;
+      return this;
+    }
+
+    public EventsConfigurationBuilder flushHighWaterMark(int flushHighWaterMark) {
+      this.flushHighWaterMark = flushHighWaterMark;
+      return this;
+    }
+
+    public EventsConfigurationBuilder flushWhenFull(boolean flushWhenFull) {
+      this.flushWhenFull = flushWhenFull;
+      return this;
+    }
+
+    public EventsConfigurationBuilder maxFlushIntervalMillis(long maxFlushIntervalMillis) {
+      this.maxFlushIntervalMillis = maxFlushIntervalMillis;
+      return this;
+    }
+
+    public EventsConfigurationBuilder metricsListener(EventMetricsListener metricsListener) {
+      this.metricsListener = metricsListener;
+      return this;
+    }
+
+    public EventsConfigurationBuilder asyncDelivery(boolean asyncDelivery) {
+      this.asyncDelivery = asyncDelivery;
+      return this;
+    }
   }
 
   public static EventContextDeduplicator contextDeduplicatorThatAlwaysSaysKeysAreNew() {
@@ -0,0 +1,113 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.internal.BaseTest;
+import com.launchdarkly.sdk.internal.events.CircuitBreaker.Permit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class CircuitBreakerTest extends BaseTest {
+  @Test
+  public void opensAfterThresholdIsReached() {
+    CircuitBreaker cb = new CircuitBreaker(3, 1000);
+    assertFalse(cb.recordFailure(100));
+    assertFalse(cb.recordFailure(100));
+    assertSame(Permit.ALLOWED, cb.allowRequest(100));
+    assertTrue(cb.recordFailure(100));
+    assertTrue(cb.isOpen());
+    assertSame(Permit.DENIED, cb.allowRequest(500));
+  }
+
+  @Test
+  public void successResetsFailureCount() {
+    CircuitBreaker cb = new CircuitBreaker(2, 1000);
+    cb.recordFailure(100);
+    cb.recordSuccess();
+    assertFalse(cb.recordFailure(100));
+    assertFalse(cb.isOpen());
+  }
+
+  @Test
+  public void allowsOneTrialRequestAfterInterval() {
+    CircuitBreaker cb = new CircuitBreaker(1, 1000);
+    cb.recordFailure(100);
+    Permit trial = cb.allowRequest(1100);
+    assertNotSame(Permit.DENIED, trial);
+    assertNotSame(Permit.ALLOWED, trial);
+    assertSame(Permit.DENIED, cb.allowRequest(1100)); // only one caller gets to try
+
+    cb.recordSuccess();
+    cb.endRequest(trial);
+    assertFalse(cb.isOpen());
+    assertSame(Permit.ALLOWED, cb.allowRequest(1100));
+  }
+
+  @Test
+  public void failedTrialRequestReopensCircuit() {
+    CircuitBreaker cb = new CircuitBreaker(1, 1000);
+    cb.recordFailure(100);
+    Permit trial = cb.allowRequest(1100);
+    assertFalse(cb.recordFailure(1100)); // it was already open
+    cb.endRequest(trial);
+    assertSame(Permit.DENIED, cb.allowRequest(2000));
+    assertNotSame(Permit.DENIED, cb.allowRequest(2100));
+  }
+
+  @Test
+  public void trialRequestWithNoResultAllowsAnotherTrial() {
+    CircuitBreaker cb = new CircuitBreaker(1, 1000);
+    cb.recordFailure(100);
+    Permit trial = cb.allowRequest(1100);
+    cb.endRequest(trial);
+    assertTrue(cb.isOpen());
+    assertNotSame(Permit.DENIED, cb.allowRequest(1100));
+    assertSame(Permit.DENIED, cb.allowRequest(1100));
+  }
+
+  @Test
+  public void otherRequestsDoNotEndTrial() {
+    CircuitBreaker cb = new CircuitBreaker(1, 1000);
+    Permit earlier = cb.allowRequest(50); // still in progress when the circuit opens
+    cb.recordFailure(100);
+    Permit trial = cb.allowRequest(1100);
+    assertNotSame(Permit.DENIED, trial);
+
+    cb.endRequest(earlier);
+    assertSame(Permit.DENIED, cb.allowRequest(1100));
+
+    cb.recordFailure(1100); // a failure of some other request
+    assertSame(Permit.DENIED, cb.allowRequest(2100));
+
+    cb.endRequest(trial);
+    assertNotSame(Permit.DENIED, cb.allowRequest(2100));
+  }
+
+  @Test
+  public void trialFromBeforeCircuitClosedDoesNotEndLaterTrial() {
+    CircuitBreaker cb = new CircuitBreaker(1, 1000);
+    cb.recordFailure(100);
+    Permit trial1 = cb.allowRequest(1100);
+    cb.recordSuccess(); // some other request succeeded, closing the circuit
+    cb.recordFailure(1200);
+    Permit trial2 = cb.allowRequest(2200);
+    assertNotSame(Permit.DENIED, trial2);
+
+    cb.endRequest(trial1);
+    assertSame(Permit.DENIED, cb.allowRequest(2200));
+  }
+
+  @Test
+  public void neverOpensIfThresholdIsZero() {
+    CircuitBreaker cb = new CircuitBreaker(0, 1000);
+    for (int i = 0; i < 100; i++) {
+      assertFalse(cb.recordFailure(100));
+    }
+    assertSame(Permit.ALLOWED, cb.allowRequest(100));
+    assertFalse(cb.isOpen());
+  }
+}
@@ -0,0 +1,244 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.ContextKind;
+import com.launchdarkly.sdk.LDContext;
+import com.launchdarkly.sdk.LDValue;
+import com.launchdarkly.sdk.internal.BaseTest;
+import com.launchdarkly.sdk.internal.events.ConcurrentEventSummarizer.StripedCounter;
+import com.launchdarkly.sdk.internal.events.EventSummarizer.EventSummary;
+import com.launchdarkly.sdk.internal.events.EventSummarizer.FlagInfo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class ConcurrentEventSummarizerTest extends BaseTest {
+  private static final LDContext context = LDContext.create("key");
+
+  @Test
+  public void summaryIsSameAsFromEventSummarizer() {
+    String flagKey1 = "key1", flagKey2 = "key2", unknownFlagKey = "badkey";
+    int flagVersion1 = 11, flagVersion2 = 22;
+    LDValue value1 = LDValue.of("value1"), value2 = LDValue.of("value2"), value99 = LDValue.of("value99"),
+        default1 = LDValue.of("default1"), default2 = LDValue.of("default2"), default3 = LDValue.of("default3");
+    LDContext multiKindContext = LDContext.createMulti(
+        context, LDContext.create(ContextKind.of("kind2"), "key2"));
+
+    EventSummarizer es = new EventSummarizer();
+    ConcurrentEventSummarizer ces = new ConcurrentEventSummarizer();
+    for (int i = 0; i < 2; i++) { // do it twice to verify that counters are reset after each summary
+      for (Object s: new Object[] { es, ces }) {
+        summarize(s, 2000, flagKey1, flagVersion1, 1, value1, default1, context);
+        summarize(s, 1000, flagKey1, flagVersion1, 2, value2, default1, context);
+        summarize(s, 3000, flagKey2, flagVersion2, 1, value99, default2, multiKindContext);
+        summarize(s, 2000, flagKey1, flagVersion1, 1, value1, default1, context);
+        summarize(s, 2000, unknownFlagKey, -1, -1, default3, default3, context);
+      }
+
+      EventSummary expected = es.getSummaryAndReset();
+      EventSummary actual = ces.getSummaryAndReset();
+      assertEquals(expected, actual);
+      assertEquals(1000, actual.startDate);
+      assertEquals(3000, actual.endDate);
+    }
+  }
+
+  @Test
+  public void summaryIsEmptyIfNothingWasCounted() {
+    ConcurrentEventSummarizer ces = new ConcurrentEventSummarizer();
+    assertEquals(new EventSummary(), ces.getSummaryAndReset());
+
+    ces.summarizeEvent(1000, "flagkey", 1, 0, LDValue.of(true), LDValue.of(false), context);
+    assertFalse(ces.getSummaryAndReset().isEmpty());
+
+    assertEquals(new EventSummary(), ces.getSummaryAndReset());
+  }
+
+  @Test
+  public void countersCanBeUsedAgainAfterBeingDiscarded() {
+    ConcurrentEventSummarizer ces = new ConcurrentEventSummarizer();
+    LDValue value = LDValue.of(true), defaultValue = LDValue.of(false);
+
+    ces.summarizeEvent(1000, "flagkey", 1, 0, value, defaultValue, context);
+    ces.summarizeEvent(1000, "flagkey", 2, 0, value, defaultValue, context);
+    ces.getSummaryAndReset();
+
+    // version 1 was not used in this period, so its counter is discarded
+    ces.summarizeEvent(2000, "flagkey", 2, 0, value, defaultValue, context);
+    ces.getSummaryAndReset();
+
+    // the flag was not used at all in this period, so its counters are discarded
+    ces.getSummaryAndReset();
+
+    ces.summarizeEvent(3000, "flagkey", 1, 0, value, defaultValue, context);
+    ces.summarizeEvent(3000, "flagkey", 2, 0, value, defaultValue, context);
+    EventSummary summary = ces.getSummaryAndReset();
+
+    assertEquals(new FlagInfo("flagkey", defaultValue)
+        .addCount(1, 0, value, 1)
+        .addCount(2, 0, value, 1)
+        .addContextKind("user"),
+        summary.getFlag("flagkey"));
+  }
+
+  @Test
+  public void activeCounterIsKeptWhenAnotherCounterIsDiscarded() {
+    ConcurrentEventSummarizer ces = new ConcurrentEventSummarizer();
+    LDValue value = LDValue.of(true), defaultValue = LDValue.of(false);
+
+    ces.summarizeEvent(1000, "flagkey", 1, 0, value, defaultValue, context);
+    ces.summarizeEvent(1000, "flagkey", 1, 1, value, defaultValue, context);
+    ces.getSummaryAndReset();
+
+    // variation 0 is idle in this period and variation 1 is not
+    ces.summarizeEvent(2000, "flagkey", 1, 1, value, defaultValue, context);
+    StripedCounter activeCounter = ces.getCounter("flagkey", 1, 1);
+    ces.getSummaryAndReset();
+
+    assertNull(ces.getCounter("flagkey", 1, 0));
+    assertSame(activeCounter, ces.getCounter("flagkey", 1, 1));
+  }
+
+  @Test
+  public void countsFromConcurrentThreadsAreNotLost() throws Exception {
+    int threadCount = 4, eventsPerThread = 10000;
+    ConcurrentEventSummarizer ces = new ConcurrentEventSummarizer();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < eventsPerThread; i++) {
+          ces.summarizeEvent(1000, "flag" + (i % 3), i % 2, 0, LDValue.of(i), LDValue.ofNull(), context);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+
+    // take summaries while the other threads are still counting
+    long total = 0;
+    boolean done = false;
+    while (!done) {
+      done = true;
+      for (Thread t: threads) {
+        done = done && !t.isAlive();
+      }
+      total += totalCount(ces.getSummaryAndReset());
+    }
+    total += totalCount(ces.getSummaryAndReset());
+
+    assertEquals(threadCount * eventsPerThread, total);
+  }
+
+  @Test
+  public void contextKindsAreInSameSummaryAsTheirCounts() throws Exception {
+    // Each thread uses its own variation and its own context kind, so every summary that has a
+    // count for a variation must also have that thread's kind, and no other kinds.
+    int threadCount = 4, eventsPerThread = 10000;
+    ConcurrentEventSummarizer ces = new ConcurrentEventSummarizer();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      int variation = t;
+      LDContext threadContext = LDContext.create(ContextKind.of("kind" + t), "key");
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < eventsPerThread; i++) {
+          ces.summarizeEvent(1000, "flag", 1, variation, LDValue.of(variation), LDValue.ofNull(), threadContext);
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+
+    long total = 0;
+    boolean done = false;
+    while (!done) {
+      done = true;
+      for (Thread t: threads) {
+        done = done && !t.isAlive();
+      }
+      EventSummary summary = ces.getSummaryAndReset();
+      FlagInfo flagInfo = summary.getFlag("flag");
+      if (flagInfo != null) {
+        Set<String> expectedKinds = new HashSet<>(), actualKinds = new HashSet<>();
+        for (int j = 0; j < flagInfo.counterCount(); j++) {
+          expectedKinds.add("kind" + flagInfo.variationAt(j));
+        }
+        for (int j = 0; j < flagInfo.contextKindCount(); j++) {
+          actualKinds.add(flagInfo.contextKindAt(j));
+        }
+        assertEquals(expectedKinds, actualKinds);
+      }
+      total += totalCount(summary);
+    }
+
+    assertEquals(threadCount * eventsPerThread, total);
+  }
+
+  @Test
+  public void stripedCounter() {
+    StripedCounter c = new StripedCounter();
+    assertTrue(c.increment());
+    assertTrue(c.increment());
+    assertFalse(c.tryDiscard());
+    assertEquals(2, c.sumThenReset());
+    assertEquals(0, c.sumThenReset());
+
+    assertTrue(c.tryDiscard());
+    assertTrue(c.isDiscarded());
+    assertFalse(c.increment());
+    assertEquals(0, c.sumThenReset());
+  }
+
+  @Test
+  public void stripedCounterResetsKindBitsWithCount() {
+    StripedCounter c = new StripedCounter();
+    assertTrue(c.increment(StripedCounter.kindBit(0)));
+    assertTrue(c.increment(StripedCounter.kindBit(2)));
+    assertTrue(c.increment(StripedCounter.kindBit(StripedCounter.MAX_KINDS - 1)));
+    assertEquals(3, c.sumThenReset());
+    assertEquals(0b101L | (1L << (StripedCounter.MAX_KINDS - 1)), c.getKindsFromLastReset());
+
+    assertTrue(c.increment());
+    assertEquals(1, c.sumThenReset());
+    assertEquals(0, c.getKindsFromLastReset());
+  }
+
+  @Test
+  public void stripedCounterCellCountIsPowerOfTwo() {
+    assertEquals(1, StripedCounter.cellCount(1));
+    assertEquals(4, StripedCounter.cellCount(3));
+    assertEquals(8, StripedCounter.cellCount(8));
+    assertEquals(16, StripedCounter.cellCount(100));
+  }
+
+  private static void summarize(Object summarizer, long timestamp, String flagKey, int flagVersion,
+      int variation, LDValue value, LDValue defaultValue, LDContext context) {
+    if (summarizer instanceof EventSummarizer) {
+      ((EventSummarizer)summarizer).summarizeEvent(timestamp, flagKey, flagVersion, variation, value,
+          defaultValue, context);
+    } else {
+      ((ConcurrentEventSummarizer)summarizer).summarizeEvent(timestamp, flagKey, flagVersion, variation, value,
+          defaultValue, context);
+    }
+  }
+
+  private static long totalCount(EventSummary summary) {
+    long total = 0;
+    for (int i = 0; i < summary.flagCount(); i++) {
+      FlagInfo flagInfo = summary.flagAt(i);
+      for (int j = 0; j < flagInfo.counterCount(); j++) {
+        total += flagInfo.countAt(j);
+      }
+    }
+    return total;
+  }
+}
@@ -127,6 +127,39 @@ public class DefaultEventProcessorDiagnosticsTest extends BaseEventTest {
     }
   }
 
+  @Test
+  public void periodicDiagnosticEventCountsContextsDeduplicatedOnCallingThreads() throws Exception {
+    MockEventSender es = new MockEventSender();
+    Event.FeatureRequest fe1 = featureEvent(user, "flagkey1").build();
+    Event.FeatureRequest fe2 = featureEvent(user, "flagkey2").build();
+
+    // The deduplicator would say the context is new every time, but the second event is never
+    // passed to it because the calling thread has just reported the same context.
+    EventContextDeduplicator contextDeduplicator = contextDeduplicatorThatAlwaysSaysKeysAreNew();
+
+    try (DefaultEventProcessor ep = makeEventProcessor(
+        baseConfig(es).contextDeduplicator(contextDeduplicator).diagnosticStore(diagnosticStore)
+          .summarizeOnCallingThreads(true))) {
+      // Ignore the initial diagnostic event
+      es.awaitDiagnostic();
+
+      ep.sendEvent(fe1);
+      ep.sendEvent(fe2);
+      ep.flushAsync();
+      // Ignore normal events
+      es.awaitAnalytics();
+
+      ep.postDiagnostic();
+      CapturedPayload periodicReq = es.awaitRequest();
+
+      assertThat(jsonOf(periodicReq.data), allOf(
+          jsonProperty("deduplicatedUsers", 1),
+          jsonProperty("eventsInLastBatch", 2), // 1 index event + 1 summary event
+          jsonProperty("droppedEvents", 0)
+          ));
+    }
+  }
+
   @Test
   public void periodicDiagnosticEventsAreSentAutomatically() throws Exception {
     MockEventSender es = new MockEventSender();
@@ -43,6 +43,22 @@ public class DefaultEventProcessorOutputTest extends BaseEventTest {
     ));
   }
 
+  @Test
+  public void eventsAreCompressedIfConfigured() throws Exception {
+    MockEventSender es = new MockEventSender();
+    Event e = identifyEvent(user);
+
+    try (DefaultEventProcessor ep = makeEventProcessor(baseConfig(es).gzipCompressionLevel(6))) {
+      ep.sendEvent(e);
+    }
+
+    CapturedPayload p = es.awaitAnalytics();
+    Assert.assertTrue(p.compressed);
+    LDValue events = LDValue.parse(p.data);
+    Assert.assertEquals(1, events.size());
+    assertThat(JsonTestValue.jsonFromValue(events.get(0)), isIdentifyEvent(e, userJson));
+  }
+
   @Test
   public void userIsFilteredInIdentifyEvent() throws Exception {
     MockEventSender es = new MockEventSender();
@@ -387,6 +403,95 @@ public class DefaultEventProcessorOutputTest extends BaseEventTest {
     ));
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  public void nonTrackedEventsCanBeSummarizedOnCallingThreads() throws Exception {
+    MockEventSender es = new MockEventSender();
+    String flagkey1 = "flagkey1", flagkey2 = "flagkey2";
+    int version1 = 11, version2 = 22;
+    LDValue value1 = LDValue.of("value1"), value2 = LDValue.of("value2");
+    LDValue default1 = LDValue.of("default1"), default2 = LDValue.of("default2");
+    Event fe1a = featureEvent(user, flagkey1).flagVersion(version1)
+        .variation(1).value(value1).defaultValue(default1).build();
+    Event fe1b = featureEvent(user, flagkey1).flagVersion(version1)
+        .variation(1).value(value1).defaultValue(default1).build();
+    Event fe1c = featureEvent(user, flagkey1).flagVersion(version1)
+        .variation(2).value(value2).defaultValue(default1).build();
+    Event fe2 = featureEvent(user, flagkey2).flagVersion(version2)
+        .variation(2).value(value2).defaultValue(default2).build();
+
+    try (DefaultEventProcessor ep = makeEventProcessor(baseConfig(es).summarizeOnCallingThreads(true))) {
+      ep.sendEvent(fe1a);
+      ep.sendEvent(fe1b);
+      // summarize some of the events on a different thread, to verify that the counters are merged
+      Thread t = new Thread(() -> {
+        ep.sendEvent(fe1c);
+        ep.sendEvent(fe2);
+      });
+      t.start();
+      t.join();
+    }
+
+    assertThat(es.getEventsFromLastRequest(), contains(
+        allOf(
+            isSummaryEvent(fe1a.getCreationDate(), fe2.getCreationDate()),
+            hasSummaryFlag(flagkey1, default1,
+                Matchers.containsInAnyOrder(
+                    isSummaryEventCounter(version1, 1, value1, 2),
+                    isSummaryEventCounter(version1, 2, value2, 1)
+                )),
+            hasSummaryFlag(flagkey2, default2,
+                contains(isSummaryEventCounter(version2, 2, value2, 1)))
+        )
+    ));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void trackedEventIsSummarizedOnceWhenSummarizingOnCallingThreads() throws Exception {
+    MockEventSender es = new MockEventSender();
+    Event.FeatureRequest fe1 = featureEvent(user, FLAG_KEY).build();
+    Event.FeatureRequest fe2 = featureEvent(user, FLAG_KEY).trackEvents(true).build();
+
+    try (DefaultEventProcessor ep = makeEventProcessor(baseConfig(es).summarizeOnCallingThreads(true))) {
+      ep.sendEvent(fe1);
+      ep.sendEvent(fe2);
+    }
+
+    assertThat(es.getEventsFromLastRequest(), contains(
+        isFeatureEvent(fe2, userJson),
+        allOf(
+            isSummaryEvent(fe1.getCreationDate(), fe2.getCreationDate()),
+            hasSummaryFlag(FLAG_KEY, fe1.getDefaultVal(),
+                contains(isSummaryEventCounter(fe1.getVersion(), fe1.getVariation(), fe1.getValue(), 2)))
+        )
+    ));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void indexEventIsGeneratedForEventSummarizedOnCallingThread() throws Exception {
+    EventContextDeduplicator contextDeduplicator = contextDeduplicatorThatAlwaysSaysKeysAreNew();
+    LDContext user2 = LDContext.create("userkey2");
+    MockEventSender es = new MockEventSender();
+    Event.FeatureRequest fe1 = featureEvent(user, "flagkey1").build();
+    Event.FeatureRequest fe2 = featureEvent(user, "flagkey2").build();
+    Event.FeatureRequest fe3 = featureEvent(user2, "flagkey1").build();
+
+    try (DefaultEventProcessor ep = makeEventProcessor(
+        baseConfig(es).contextDeduplicator(contextDeduplicator).summarizeOnCallingThreads(true))) {
+      ep.sendEvent(fe1);
+      ep.sendEvent(fe2); // same context instance as the last event, so the deduplicator is not asked again
+      ep.sendEvent(fe3);
+    }
+
+    assertThat(es.getEventsFromLastRequest(), contains(
+        isIndexEvent(fe1, userJson),
+        isIndexEvent(fe3, LDValue.buildObject().put("kind", "user").put("key", "userkey2").build()),
+        isSummaryEvent(fe1.getCreationDate(), fe3.getCreationDate())
+    ));
+  }
+
   @Test
   public void customEventIsQueuedWithUser() throws Exception {
     MockEventSender es = new MockEventSender();
@@ -9,11 +9,15 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.launchdarkly.testhelpers.ConcurrentHelpers.awaitValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
@@ -227,6 +231,157 @@ public class DefaultEventProcessorTest extends BaseEventTest {
     }
   }
   
+  @Test
+  public void bufferIsFlushedWhenFullIfConfigured() throws Exception {
+    int capacity = 3;
+    MockEventSender es = new MockEventSender();
+    EventsConfigurationBuilder config = baseConfig(es).capacity(capacity).flushWhenFull(true);
+
+    try (DefaultEventProcessor ep = makeEventProcessor(config)) {
+      for (int i = 0; i < capacity + 2; i++) {
+        ep.sendEvent(identifyEvent(user));
+        Thread.sleep(10); // see eventCapacityIsEnforced
+      }
+      // The first full buffer was sent without waiting for a flush, so nothing was dropped
+      assertThat(es.getEventsFromLastRequest(), Matchers.iterableWithSize(capacity));
+      es.expectNoRequests(100);
+
+      ep.flushAsync();
+      assertThat(es.getEventsFromLastRequest(), Matchers.iterableWithSize(2));
+    }
+  }
+
+  @Test
+  public void bufferIsFlushedEarlyAtHighWaterMark() throws Exception {
+    MockEventSender es = new MockEventSender();
+    EventsConfigurationBuilder config = baseConfig(es).capacity(10).flushHighWaterMark(3);
+
+    try (DefaultEventProcessor ep = makeEventProcessor(config)) {
+      for (int i = 0; i < 4; i++) {
+        ep.sendEvent(identifyEvent(user));
+      }
+      assertThat(es.getEventsFromLastRequest(), Matchers.iterableWithSize(3));
+      es.expectNoRequests(100);
+
+      ep.flushAsync();
+      assertThat(es.getEventsFromLastRequest(), Matchers.iterableWithSize(1));
+      assertEquals(1, ep.getFlushMetrics().getEarlyFlushCount());
+      assertEquals(1, ep.getFlushMetrics().getRequestedFlushCount());
+      assertEquals(0, ep.getFlushMetrics().getScheduledFlushCount());
+    }
+  }
+
+  @Test
+  public void scheduledFlushesAreDeferredWhileTrafficIsLow() throws Exception {
+    MockEventSender es = new MockEventSender();
+    EventsConfigurationBuilder config = baseConfig(es).capacity(100)
+        .flushIntervalMillis(50).maxFlushIntervalMillis(400);
+
+    try (DefaultEventProcessor ep = makeEventProcessor(config)) {
+      ep.sendEvent(identifyEvent(user));
+      assertThat(es.getEventsFromLastRequest(), Matchers.iterableWithSize(1));
+
+      // One event is less than a tenth of the capacity, so the interval keeps getting longer
+      es.expectNoRequests(300);
+      assertThat(ep.getFlushMetrics().getDeferredFlushCount(), Matchers.greaterThan(0L));
+
+      // Enough events to count as busy traffic are flushed at the next scheduled time (they could be
+      // split between two flushes if the flush task happened to run while we were sending them)
+      for (int i = 0; i < 10; i++) {
+        ep.sendEvent(identifyEvent(user));
+      }
+      List<JsonTestValue> received = new ArrayList<>(es.getEventsFromLastRequest());
+      if (received.size() < 10) {
+        received.addAll(es.getEventsFromLastRequest());
+      }
+      assertThat(received, Matchers.iterableWithSize(10));
+      assertThat(ep.getFlushMetrics().getScheduledFlushCount(), Matchers.greaterThanOrEqualTo(2L));
+      assertEquals(0, ep.getFlushMetrics().getEarlyFlushCount());
+    }
+  }
+
+  @Test
+  public void metricsListenerReceivesPipelineMeasurements() throws Exception {
+    MockEventSender es = new MockEventSender();
+    RecordingMetricsListener listener = new RecordingMetricsListener();
+    EventsConfigurationBuilder config = baseConfig(es).capacity(2).metricsListener(listener);
+
+    DefaultEventProcessor ep = makeEventProcessor(config);
+    for (int i = 0; i < 3; i++) {
+      ep.sendEvent(identifyEvent(user));
+      Thread.sleep(10); // the inbox capacity is also 2, so let the dispatcher keep up; see eventCapacityIsEnforced
+    }
+    ep.flushAsync();
+    es.awaitAnalytics();
+    ep.close(); // this waits for delivery to finish
+
+    assertEquals(1, listener.eventsDropped.get());
+    assertEquals(0, listener.eventsRejected.get());
+    assertThat(listener.batchMessages.get(), Matchers.greaterThanOrEqualTo(4)); // 3 events and a flush
+    assertEquals(1, listener.payloadsSerialized.get());
+    assertEquals(2, listener.serializedEvents.get());
+    assertThat(listener.serializedBytes.get(), Matchers.greaterThan(0));
+    assertEquals(1, listener.payloadsDelivered.get());
+    assertEquals(listener.serializedBytes.get(), listener.deliveredBytes.get());
+    assertEquals(0, listener.deliveryFailures.get());
+    assertEquals(1, listener.maxBusyWorkers.get());
+    assertEquals(0, listener.busyWorkers.get());
+  }
+
+  @Test
+  public void flushIsSplitIntoPayloadsWithMaximumNumberOfEvents() throws Exception {
+    MockEventSender es = new MockEventSender();
+    EventsConfigurationBuilder config = baseConfig(es).maxEventsPerPayload(2);
+
+    try (DefaultEventProcessor ep = makeEventProcessor(config)) {
+      ep.sendEvent(featureEvent(user, "flagkey").build());
+      for (int i = 0; i < 5; i++) {
+        ep.sendEvent(identifyEvent(user));
+      }
+      ep.flushAsync();
+
+      // The payloads may be delivered by different workers in any order
+      int identifyEvents = 0, summaryEvents = 0;
+      for (int i = 0; i < 3; i++) {
+        List<JsonTestValue> events = es.getEventsFromLastRequest();
+        for (JsonTestValue event: events) {
+          if (isSummaryEvent().matches(event)) {
+            summaryEvents++;
+          } else {
+            identifyEvents++;
+          }
+        }
+        assertThat(events.size(), Matchers.lessThanOrEqualTo(3)); // 2 events, plus the summary in one of them
+      }
+      assertThat(identifyEvents, equalTo(5));
+      assertThat(summaryEvents, equalTo(1));
+      es.expectNoRequests(100);
+    }
+  }
+
+  @Test
+  public void payloadIsSplitWhenMaximumSizeIsReached() throws Exception {
+    MockEventSender es = new MockEventSender();
+    Event.Identify event = identifyEvent(user);
+    int eventSize = ("," + gson.toJson(LDValue.buildObject().put("kind", "identify")
+        .put("creationDate", event.getCreationDate()).put("context", userJson).build())).length();
+    EventsConfigurationBuilder config = baseConfig(es).maxPayloadBytes(eventSize * 3 / 2);
+
+    try (DefaultEventProcessor ep = makeEventProcessor(config)) {
+      for (int i = 0; i < 5; i++) {
+        ep.sendEvent(event);
+      }
+      ep.flushAsync();
+
+      // Each payload is ended as soon as it is at least 1.5 times the size of an event, which means
+      // after the second event; the last one has the one event that is left over.
+      assertThat(es.getEventsFromLastRequest(), Matchers.iterableWithSize(2));
+      assertThat(es.getEventsFromLastRequest(), Matchers.iterableWithSize(2));
+      assertThat(es.getEventsFromLastRequest(), Matchers.iterableWithSize(1));
+      es.expectNoRequests(100);
+    }
+  }
+
   @Test
   public void noMoreEventsAreProcessedAfterUnrecoverableError() throws Exception {
     MockEventSender es = new MockEventSender();
@@ -285,9 +440,9 @@ public class DefaultEventProcessorTest extends BaseEventTest {
   public void eventsAreKeptInBufferIfAllFlushWorkersAreBusy() throws Exception {
     // Note that in the current implementation, although the intention was that we would cancel a flush
     // if there's not an available flush worker, instead what happens is that we will queue *one* flush
-    // in that case, and then cancel the *next* flush if the workers are still busy. This is because we
-    // used a BlockingQueue with a size of 1, rather than a SynchronousQueue. The test below verifies
-    // the current behavior.
+    // in that case, and then cancel the *next* flush if the workers are still busy. This is because the
+    // queue of payloads waiting for a worker can hold the payloads of one flush, rather than being a
+    // SynchronousQueue. The test below verifies the current behavior.
     
     int numWorkers = 5; // must equal EventDispatcher.MAX_FLUSH_THREADS
     LDContext testUser1 = LDContext.create("me");
@@ -349,4 +504,148 @@ public class DefaultEventProcessorTest extends BaseEventTest {
           isIdentifyEvent(event3, testUserJson3)));
     }
   }
+
+  @Test
+  public void threadsAreCreatedByCustomThreadFactory() throws Exception {
+    MockEventSender es = new MockEventSender();
+    AtomicInteger threadsCreated = new AtomicInteger();
+    ThreadFactory threadFactory = r -> {
+      threadsCreated.incrementAndGet();
+      return new Thread(r);
+    };
+
+    try (DefaultEventProcessor ep = new DefaultEventProcessor(baseConfig(es).build(), sharedExecutor,
+        threadFactory, testLogger)) {
+      ep.sendEvent(identifyEvent(user));
+      ep.flushAsync();
+      es.awaitAnalytics();
+      assertEquals(1 + 5, threadsCreated.get()); // main loop, plus default eventSendingThreadPoolSize
+    }
+  }
+
+  @Test
+  public void asyncDeliveryWorkersShareOneThread() throws Exception {
+    MockEventSender es = new MockEventSender();
+    DeferredAsyncEventSender asyncSender = new DeferredAsyncEventSender(es);
+    AtomicInteger threadsCreated = new AtomicInteger();
+    ThreadFactory threadFactory = r -> {
+      threadsCreated.incrementAndGet();
+      Thread t = new Thread(r);
+      t.setDaemon(true);
+      return t;
+    };
+
+    try (DefaultEventProcessor ep = new DefaultEventProcessor(baseConfig(asyncSender).asyncDelivery(true).build(),
+        sharedExecutor, threadFactory, testLogger)) {
+      List<AsyncEventSender.ResultCallback> inFlight = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        ep.sendEvent(identifyEvent(user));
+        ep.flushAsync();
+        es.awaitAnalytics();
+        inFlight.add(awaitValue(asyncSender.callbacks, 5, TimeUnit.SECONDS));
+      }
+      // main loop, plus one thread for all of the default eventSendingThreadPoolSize workers
+      assertEquals(1 + 1, threadsCreated.get());
+
+      for (AsyncEventSender.ResultCallback callback: inFlight) {
+        callback.onResult(es.result);
+      }
+    }
+  }
+
+  @Test
+  public void asyncSenderIsNotUsedUnlessAsyncDeliveryIsEnabled() throws Exception {
+    MockEventSender es = new MockEventSender();
+    DeferredAsyncEventSender asyncSender = new DeferredAsyncEventSender(es);
+    Event.Identify event = identifyEvent(user);
+
+    try (DefaultEventProcessor ep = makeEventProcessor(baseConfig(asyncSender))) {
+      ep.sendEvent(event);
+      ep.flushAsync();
+      assertThat(es.getEventsFromLastRequest(), contains(isIdentifyEvent(event, userJson)));
+    }
+    assertEquals(0, asyncSender.callbacks.size());
+  }
+
+  @Test
+  public void asyncSenderCanHaveSeveralPayloadsInFlightAtOnce() throws Exception {
+    int numPayloads = 5; // must equal the default eventSendingThreadPoolSize
+    MockEventSender es = new MockEventSender();
+    DeferredAsyncEventSender asyncSender = new DeferredAsyncEventSender(es);
+
+    try (DefaultEventProcessor ep = makeEventProcessor(baseConfig(asyncSender).asyncDelivery(true))) {
+      List<AsyncEventSender.ResultCallback> inFlight = new ArrayList<>();
+      for (int i = 0; i < numPayloads; i++) {
+        ep.sendEvent(identifyEvent(user));
+        ep.flushAsync();
+        es.awaitRequest();
+        inFlight.add(awaitValue(asyncSender.callbacks, 5, TimeUnit.SECONDS)); // we haven't completed it yet
+      }
+
+      // All of the payloads that can be in flight are in flight, so this one waits for one of them
+      Event.Identify event1 = identifyEvent(user);
+      ep.sendEvent(event1);
+      ep.flushAsync();
+      es.expectNoRequests(100);
+
+      inFlight.remove(0).onResult(es.result);
+      assertThat(es.getEventsFromLastRequest(), contains(isIdentifyEvent(event1, userJson)));
+      inFlight.add(awaitValue(asyncSender.callbacks, 5, TimeUnit.SECONDS));
+
+      for (AsyncEventSender.ResultCallback callback: inFlight) {
+        callback.onResult(es.result);
+      }
+    }
+  }
+
+  private static final class RecordingMetricsListener implements EventMetricsListener {
+    final AtomicInteger eventsRejected = new AtomicInteger();
+    final AtomicInteger eventsDropped = new AtomicInteger();
+    final AtomicInteger batchMessages = new AtomicInteger();
+    final AtomicInteger payloadsSerialized = new AtomicInteger();
+    final AtomicInteger serializedEvents = new AtomicInteger();
+    final AtomicInteger serializedBytes = new AtomicInteger();
+    final AtomicInteger payloadsDelivered = new AtomicInteger();
+    final AtomicInteger deliveredBytes = new AtomicInteger();
+    final AtomicInteger deliveryFailures = new AtomicInteger();
+    final AtomicInteger busyWorkers = new AtomicInteger();
+    final AtomicInteger maxBusyWorkers = new AtomicInteger();
+
+    @Override
+    public void onEventRejected() {
+      eventsRejected.incrementAndGet();
+    }
+
+    @Override
+    public void onEventDropped() {
+      eventsDropped.incrementAndGet();
+    }
+
+    @Override
+    public void onBatchProcessed(int messageCount, int inboxDepth, long elapsedNanos) {
+      batchMessages.addAndGet(messageCount);
+    }
+
+    @Override
+    public void onPayloadSerialized(int eventCount, int byteCount, long elapsedNanos) {
+      payloadsSerialized.incrementAndGet();
+      serializedEvents.addAndGet(eventCount);
+      serializedBytes.addAndGet(byteCount);
+    }
+
+    @Override
+    public void onPayloadDelivered(int eventCount, int byteCount, boolean success, long elapsedNanos) {
+      payloadsDelivered.incrementAndGet();
+      deliveredBytes.addAndGet(byteCount);
+      if (!success) {
+        deliveryFailures.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void onBusyWorkersChanged(int busyWorkers) {
+      this.busyWorkers.set(busyWorkers);
+      maxBusyWorkers.set(Math.max(maxBusyWorkers.get(), busyWorkers));
+    }
+  }
 }
@@ -6,9 +6,17 @@ import com.launchdarkly.testhelpers.httptest.Handler;
 import com.launchdarkly.testhelpers.httptest.Handlers;
 import com.launchdarkly.testhelpers.httptest.HttpServer;
 import com.launchdarkly.testhelpers.httptest.RequestInfo;
+import com.sun.net.httpserver.Headers;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
@@ -18,12 +26,18 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.launchdarkly.testhelpers.ConcurrentHelpers.awaitValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.equalToIgnoringCase;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -38,6 +52,8 @@ public class DefaultEventSenderTest extends BaseEventTest {
       Locale.US);
   private static final long BRIEF_RETRY_DELAY_MILLIS = 50;
 
+  @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
   @Override
   protected boolean enableTestInAndroid() {
     // Currently our use of com.launchdarkly.testhelpers.httptest makes this test file
@@ -219,6 +235,373 @@ public class DefaultEventSenderTest extends BaseEventTest {
     }
   }
 
+  @Test
+  public void retryPolicySetsNumberOfAttempts() throws Exception {
+    Handler errorResponse = Handlers.status(503);
+    Handler errorsThenSuccess = Handlers.sequential(errorResponse, errorResponse, errorResponse,
+        eventsSuccessResponse());
+    RetryPolicy policy = new RetryPolicy(4, BRIEF_RETRY_DELAY_MILLIS, BRIEF_RETRY_DELAY_MILLIS * 4, 0.5, 0, 0, 0);
+
+    try (HttpServer server = HttpServer.start(errorsThenSuccess)) {
+      try (DefaultEventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null, policy, null,
+          testLogger)) {
+        EventSender.Result result = es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri());
+        assertTrue(result.isSuccess());
+        assertEquals(3, es.getMetrics().getRetryCount());
+      }
+
+      for (int i = 0; i < 4; i++) {
+        server.getRecorder().requireRequest();
+      }
+    }
+  }
+
+  @Test
+  public void retriesStopAtDeadline() throws Exception {
+    // With a 300ms delay, the third retry would start at least 900ms after the first attempt
+    RetryPolicy policy = new RetryPolicy(10, 300, 300, 0, 750, 0, 0);
+
+    try (HttpServer server = HttpServer.start(Handlers.status(503))) {
+      try (DefaultEventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null, policy, null,
+          testLogger)) {
+        EventSender.Result result = es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri());
+        assertFalse(result.isSuccess());
+        assertFalse(result.isMustShutDown());
+      }
+
+      server.getRecorder().requireRequest();
+      server.getRecorder().requireRequest();
+      server.getRecorder().requireRequest();
+      server.getRecorder().requireNoRequests(Duration.ofMillis(100));
+    }
+  }
+
+  @Test
+  public void circuitBreakerSuspendsDeliveryAfterRepeatedFailures() throws Exception {
+    long interval = 300;
+    RetryPolicy policy = new RetryPolicy(2, BRIEF_RETRY_DELAY_MILLIS, BRIEF_RETRY_DELAY_MILLIS, 0, 0, 2, interval);
+    Handler errorResponse = Handlers.status(503);
+    Handler errorsThenSuccess = Handlers.sequential(errorResponse, errorResponse, eventsSuccessResponse());
+
+    try (HttpServer server = HttpServer.start(errorsThenSuccess)) {
+      try (DefaultEventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null, policy, null,
+          testLogger)) {
+        assertFalse(es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri()).isSuccess());
+        assertTrue(es.isCircuitBreakerOpen());
+        assertEquals(1, es.getMetrics().getCircuitOpenCount());
+        server.getRecorder().requireRequest();
+        server.getRecorder().requireRequest();
+
+        // while the circuit is open, nothing is sent
+        EventSender.Result result = es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri());
+        assertFalse(result.isSuccess());
+        assertFalse(result.isMustShutDown());
+        assertEquals(1, es.getMetrics().getShortCircuitCount());
+        server.getRecorder().requireNoRequests(Duration.ofMillis(interval / 3));
+
+        Thread.sleep(interval);
+        assertTrue(es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri()).isSuccess());
+        assertFalse(es.isCircuitBreakerOpen());
+        server.getRecorder().requireRequest();
+      }
+    }
+  }
+
+  @Test
+  public void circuitBreakerAllowsAnotherTrialAfterUnrecoverableError() throws Exception {
+    long interval = 300;
+    RetryPolicy policy = new RetryPolicy(1, BRIEF_RETRY_DELAY_MILLIS, BRIEF_RETRY_DELAY_MILLIS, 0, 0, 1, interval);
+    Handler errorResponse = Handlers.status(503);
+    Handler sequence = Handlers.sequential(errorResponse, Handlers.status(401), eventsSuccessResponse());
+
+    try (HttpServer server = HttpServer.start(sequence)) {
+      try (DefaultEventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null, policy, null,
+          testLogger)) {
+        assertFalse(es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri()).isSuccess());
+        assertTrue(es.isCircuitBreakerOpen());
+        server.getRecorder().requireRequest();
+
+        Thread.sleep(interval);
+        EventSender.Result result = es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri());
+        assertTrue(result.isMustShutDown());
+        server.getRecorder().requireRequest();
+
+        // the trial request didn't close the circuit, but it's no longer in progress either
+        assertTrue(es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri()).isSuccess());
+        assertFalse(es.isCircuitBreakerOpen());
+        server.getRecorder().requireRequest();
+      }
+    }
+  }
+
+  @Test
+  public void undeliveredPayloadIsSpooledAndSentAfterNextSuccess() throws Exception {
+    Handler errorResponse = Handlers.status(503);
+    Handler errorsThenSuccess = Handlers.sequential(errorResponse, errorResponse, eventsSuccessResponse(),
+        eventsSuccessResponse());
+    EventPayloadSpool spool = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+
+    try (HttpServer server = HttpServer.start(errorsThenSuccess)) {
+      try (EventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null,
+          BRIEF_RETRY_DELAY_MILLIS, spool, testLogger)) {
+        EventSender.Result result1 = es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri());
+        assertFalse(result1.isSuccess());
+        assertNotNull(spool.peek());
+
+        EventSender.Result result2 = es.sendAnalyticsEvents("more data".getBytes(), 1, server.getUri());
+        assertTrue(result2.isSuccess());
+        assertNull(spool.peek());
+      }
+
+      String payloadId = server.getRecorder().requireRequest().getHeader("X-LaunchDarkly-Payload-ID");
+      server.getRecorder().requireRequest(); // the retry
+      RequestInfo req = server.getRecorder().requireRequest();
+      assertEquals("more data", req.getBody());
+
+      req = server.getRecorder().requireRequest();
+      assertEquals(FAKE_DATA, req.getBody());
+      assertEquals(payloadId, req.getHeader("X-LaunchDarkly-Payload-ID"));
+      server.getRecorder().requireNoRequests(Duration.ofMillis(100));
+    }
+  }
+
+  @Test
+  public void payloadIsNotSpooledAfterUnrecoverableError() throws Exception {
+    EventPayloadSpool spool = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+
+    try (HttpServer server = HttpServer.start(Handlers.status(401))) {
+      try (EventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null,
+          BRIEF_RETRY_DELAY_MILLIS, spool, testLogger)) {
+        EventSender.Result result = es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri());
+        assertTrue(result.isMustShutDown());
+        assertNull(spool.peek());
+      }
+    }
+  }
+
+  @Test
+  public void retriesAreReportedToMetricsListener() throws Exception {
+    Handler errorThenSuccess = Handlers.sequential(Handlers.status(503), eventsSuccessResponse());
+    AtomicInteger retries = new AtomicInteger();
+    EventMetricsListener listener = new EventMetricsListener() {
+      @Override
+      public void onDeliveryRetry() {
+        retries.incrementAndGet();
+      }
+    };
+
+    try (HttpServer server = HttpServer.start(errorThenSuccess)) {
+      try (EventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null,
+          RetryPolicy.fixedDelay(BRIEF_RETRY_DELAY_MILLIS), null, listener, testLogger)) {
+        EventSender.Result result = es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri());
+        assertTrue(result.isSuccess());
+      }
+      assertEquals(1, retries.get());
+    }
+  }
+
+  @Test
+  public void asyncAnalyticsDeliveryIsRetriedAfterRecoverableError() throws Exception {
+    Handler errorThenSuccess = Handlers.sequential(Handlers.status(503), eventsSuccessResponse());
+    BlockingQueue<EventSender.Result> results = new LinkedBlockingQueue<>();
+
+    try (HttpServer server = HttpServer.start(errorThenSuccess)) {
+      try (DefaultEventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null,
+          BRIEF_RETRY_DELAY_MILLIS, testLogger)) {
+        es.sendAnalyticsPayloadAsync(payload(FAKE_DATA_BYTES), 1, server.getUri(), sharedExecutor,
+            results::add);
+        EventSender.Result result = awaitValue(results, 5, TimeUnit.SECONDS);
+        assertTrue(result.isSuccess());
+        assertEquals(1, es.getMetrics().getRetryCount());
+      }
+
+      RequestInfo req1 = server.getRecorder().requireRequest();
+      RequestInfo req2 = server.getRecorder().requireRequest();
+      assertEquals(FAKE_DATA, req2.getBody());
+      assertEquals(req1.getHeader("X-LaunchDarkly-Payload-ID"), req2.getHeader("X-LaunchDarkly-Payload-ID"));
+      server.getRecorder().requireNoRequests(Duration.ofMillis(100));
+    }
+  }
+
+  @Test
+  public void asyncAnalyticsDeliveryIsNotRetriedAfterUnrecoverableError() throws Exception {
+    BlockingQueue<EventSender.Result> results = new LinkedBlockingQueue<>();
+
+    try (HttpServer server = HttpServer.start(Handlers.status(401))) {
+      try (DefaultEventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null,
+          BRIEF_RETRY_DELAY_MILLIS, testLogger)) {
+        es.sendAnalyticsPayloadAsync(payload(FAKE_DATA_BYTES), 1, server.getUri(), sharedExecutor,
+            results::add);
+        EventSender.Result result = awaitValue(results, 5, TimeUnit.SECONDS);
+        assertFalse(result.isSuccess());
+        assertTrue(result.isMustShutDown());
+      }
+
+      server.getRecorder().requireRequest();
+      server.getRecorder().requireNoRequests(Duration.ofMillis(100));
+    }
+  }
+
+  @Test
+  public void asyncUndeliveredPayloadIsSpooled() throws Exception {
+    EventPayloadSpool spool = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+    BlockingQueue<EventSender.Result> results = new LinkedBlockingQueue<>();
+
+    try (HttpServer server = HttpServer.start(Handlers.status(503))) {
+      try (DefaultEventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null,
+          BRIEF_RETRY_DELAY_MILLIS, spool, testLogger)) {
+        es.sendAnalyticsPayloadAsync(payload(FAKE_DATA_BYTES), 1, server.getUri(), sharedExecutor,
+            results::add);
+        EventSender.Result result = awaitValue(results, 5, TimeUnit.SECONDS);
+        assertFalse(result.isSuccess());
+        // the payload is saved on the scheduler thread, which runs one task at a time
+        sharedExecutor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+        EventPayloadSpool.SpooledPayload spooled = spool.peek();
+        assertNotNull(spooled);
+        assertArrayEquals(FAKE_DATA_BYTES, spooled.toByteArray());
+      }
+    }
+  }
+
+  @Test
+  public void asyncDeliveryReplaysSpooledPayloadsAfterSuccess() throws Exception {
+    EventPayloadSpool spool = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+    spool.add("spooled-id", payload("spooled data".getBytes()), 1);
+    BlockingQueue<EventSender.Result> results = new LinkedBlockingQueue<>();
+
+    try (HttpServer server = HttpServer.start(eventsSuccessResponse())) {
+      try (DefaultEventSender es = new DefaultEventSender(HttpProperties.defaults(), null, null,
+          BRIEF_RETRY_DELAY_MILLIS, spool, testLogger)) {
+        es.sendAnalyticsPayloadAsync(payload(FAKE_DATA_BYTES), 1, server.getUri(), sharedExecutor,
+            results::add);
+        assertTrue(awaitValue(results, 5, TimeUnit.SECONDS).isSuccess());
+
+        assertEquals(FAKE_DATA, server.getRecorder().requireRequest().getBody());
+        RequestInfo req = server.getRecorder().requireRequest();
+        assertEquals("spooled data", req.getBody());
+        assertEquals("spooled-id", req.getHeader("X-LaunchDarkly-Payload-ID"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (spool.peek() != null) {
+          assertTrue("timed out waiting for spooled payload to be removed", System.currentTimeMillis() < deadline);
+          Thread.sleep(10);
+        }
+      }
+      server.getRecorder().requireNoRequests(Duration.ofMillis(100));
+    }
+  }
+
+  @Test
+  public void compressedAnalyticsDataIsDelivered() throws Exception {
+    byte[] compressedData = compress(FAKE_DATA_BYTES);
+
+    try (RawRequestServer server = new RawRequestServer(202)) {
+      try (EventSender es = makeEventSender()) {
+        EventSender.Result result = es.sendCompressedAnalyticsEvents(compressedData, 1, server.uri);
+
+        assertTrue(result.isSuccess());
+        assertFalse(result.isMustShutDown());
+      }
+
+      RawRequest req = server.requireRequest();
+      assertEquals(DefaultEventSender.DEFAULT_ANALYTICS_REQUEST_PATH, req.path);
+      assertThat(req.headers.getFirst("Content-Type"), equalToIgnoringCase("application/json; charset=utf-8"));
+      assertEquals("gzip", req.headers.getFirst("Content-Encoding"));
+      assertArrayEquals(compressedData, req.body);
+      assertEquals(FAKE_DATA, new String(GzipPayloads.decompress(req.body), Charset.forName("UTF-8")));
+    }
+  }
+
+  @Test
+  public void compressedDataIsResentUnchangedOnRetry() throws Exception {
+    byte[] compressedData = compress(FAKE_DATA_BYTES);
+
+    try (RawRequestServer server = new RawRequestServer(503, 202)) {
+      try (EventSender es = makeEventSender()) {
+        EventSender.Result result = es.sendCompressedAnalyticsEvents(compressedData, 1, server.uri);
+
+        assertTrue(result.isSuccess());
+      }
+
+      RawRequest req1 = server.requireRequest(), req2 = server.requireRequest();
+      assertArrayEquals(compressedData, req1.body);
+      assertArrayEquals(compressedData, req2.body);
+      assertEquals("gzip", req2.headers.getFirst("Content-Encoding"));
+      assertThat(req2.headers.getFirst("X-LaunchDarkly-Payload-ID"),
+          equalTo(req1.headers.getFirst("X-LaunchDarkly-Payload-ID")));
+    }
+  }
+
+  @Test
+  public void payloadIsDeliveredFromBuffer() throws Exception {
+    PayloadBuffer buffer = new PayloadBuffer(100);
+    buffer.reset(false);
+    buffer.write(FAKE_DATA_BYTES);
+
+    try (HttpServer server = HttpServer.start(eventsSuccessResponse())) {
+      try (EventSender es = makeEventSender()) {
+        EventSender.Result result = es.sendAnalyticsPayload(buffer, 1, server.getUri());
+
+        assertTrue(result.isSuccess());
+        assertFalse(result.isMustShutDown());
+      }
+
+      RequestInfo req = server.getRecorder().requireRequest();
+      assertEquals(DefaultEventSender.DEFAULT_ANALYTICS_REQUEST_PATH, req.getPath());
+      assertThat(req.getHeader("content-type"), equalToIgnoringCase("application/json; charset=utf-8"));
+      assertNull(req.getHeader("Content-Encoding"));
+      assertEquals(FAKE_DATA, req.getBody());
+    }
+  }
+
+  @Test
+  public void payloadFromBufferIsResentUnchangedOnRetry() throws Exception {
+    byte[] compressedData = compress(FAKE_DATA_BYTES);
+    PayloadBuffer buffer = new PayloadBuffer(100);
+    buffer.reset(true);
+    buffer.write(compressedData);
+
+    try (RawRequestServer server = new RawRequestServer(503, 202)) {
+      try (EventSender es = makeEventSender()) {
+        EventSender.Result result = es.sendAnalyticsPayload(buffer, 1, server.uri);
+
+        assertTrue(result.isSuccess());
+      }
+
+      RawRequest req1 = server.requireRequest(), req2 = server.requireRequest();
+      assertArrayEquals(compressedData, req1.body);
+      assertArrayEquals(compressedData, req2.body);
+      assertEquals("gzip", req1.headers.getFirst("Content-Encoding"));
+      assertEquals("gzip", req2.headers.getFirst("Content-Encoding"));
+      assertThat(req2.headers.getFirst("X-LaunchDarkly-Payload-ID"),
+          equalTo(req1.headers.getFirst("X-LaunchDarkly-Payload-ID")));
+    }
+  }
+
+  @Test
+  public void nothingIsSentForEmptyPayload() throws Exception {
+    try (HttpServer server = HttpServer.start(eventsSuccessResponse())) {
+      try (EventSender es = makeEventSender()) {
+        EventSender.Result result = es.sendAnalyticsPayload(new PayloadBuffer(100), 0, server.getUri());
+
+        assertTrue(result.isSuccess());
+        assertEquals(0, server.getRecorder().count());
+      }
+    }
+  }
+
+  @Test
+  public void uncompressedDataHasNoContentEncoding() throws Exception {
+    try (HttpServer server = HttpServer.start(eventsSuccessResponse())) {
+      try (EventSender es = makeEventSender()) {
+        es.sendAnalyticsEvents(FAKE_DATA_BYTES, 1, server.getUri());
+      }
+
+      RequestInfo req = server.getRecorder().requireRequest();
+      assertNull(req.getHeader("Content-Encoding"));
+    }
+  }
+
   @Test
   public void eventSchemaNotSetOnDiagnosticEvents() throws Exception {
     try (HttpServer server = HttpServer.start(eventsSuccessResponse())) {
@@ -393,6 +776,72 @@ public class DefaultEventSenderTest extends BaseEventTest {
     }
   }
 
+  private static EventSender.Payload payload(byte[] data) {
+    PayloadBuffer buffer = new PayloadBuffer(10);
+    buffer.reset(false);
+    buffer.write(data, 0, data.length);
+    return buffer;
+  }
+
+  private static byte[] compress(byte[] data) throws Exception {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (OutputStream out = GzipPayloads.compressingStream(buffer, 6, 512)) {
+      out.write(data);
+    }
+    return buffer.toByteArray();
+  }
+
+  private static final class RawRequest {
+    final String path;
+    final Headers headers;
+    final byte[] body;
+
+    RawRequest(String path, Headers headers, byte[] body) {
+      this.path = path;
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+
+  // The test-helpers HttpServer only provides the request body as a string, which doesn't work for
+  // compressed data, so for those tests we use the JDK's built-in server to get the raw bytes.
+  private static final class RawRequestServer implements AutoCloseable {
+    final com.sun.net.httpserver.HttpServer server;
+    final URI uri;
+    final BlockingQueue<RawRequest> requests = new LinkedBlockingQueue<>();
+
+    RawRequestServer(int... statuses) throws IOException {
+      AtomicInteger requestCount = new AtomicInteger(0);
+      server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/", exchange -> {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+          byte[] buffer = new byte[1000];
+          int n;
+          while ((n = in.read(buffer)) > 0) {
+            body.write(buffer, 0, n);
+          }
+        }
+        requests.add(new RawRequest(exchange.getRequestURI().getPath(), exchange.getRequestHeaders(),
+            body.toByteArray()));
+        int status = statuses[Math.min(requestCount.getAndIncrement(), statuses.length - 1)];
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+      });
+      server.start();
+      uri = URI.create("http://localhost:" + server.getAddress().getPort());
+    }
+
+    RawRequest requireRequest() {
+      return awaitValue(requests, 5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+      server.stop(0);
+    }
+  }
+
   private Handler eventsSuccessResponse() {
     return Handlers.status(202);
   }
@@ -135,6 +135,48 @@ public class EventContextFormatterTest extends BaseTest {
                     "\"redactedAttributes\": [\"/address/street\", \"/complex/a/b/d\", \"/complex/f\"]" +
                 "}" +
             "}"
+        },
+        new Object[] {
+            "global and per-context private attributes in the same object",
+            LDContext.builder("my-key")
+              .set("complex", LDValue.parse("{\"a\": {\"b\": 1, \"c\": 2, \"d\": 3}, \"e\": 4}"))
+              .privateAttributes("/complex/a/c", "/complex/e", "/complex/a/b")
+              .build(),
+            false,
+            new AttributeRef[] { AttributeRef.fromPath("/complex/a/b"), AttributeRef.fromPath("/complex/x/y") },
+            "{" +
+                "\"kind\": \"user\"," +
+                "\"key\": \"my-key\"," +
+                "\"complex\": {\"a\": {\"d\": 3}}," +
+                "\"_meta\": {" +
+                    "\"redactedAttributes\": [\"/complex/a/b\", \"/complex/a/c\", \"/complex/e\"]" +
+                "}" +
+            "}"
+        },
+        new Object[] {
+            "first of several equivalent attribute references is reported",
+            LDContext.builder("my-key").kind("org")
+              .name("my-name")
+              .privateAttributes("/name")
+              .build(),
+            false,
+            new AttributeRef[] { AttributeRef.fromLiteral("name"), AttributeRef.fromPath("/name") },
+            "{" +
+                "\"kind\": \"org\"," +
+                "\"key\": \"my-key\"," +
+                "\"_meta\": {" +
+                    "\"redactedAttributes\": [\"name\"]" +
+                "}" +
+            "}"
+        },
+        new Object[] {
+            "invalid attribute references are ignored",
+            LDContext.builder("my-key").kind("org")
+              .name("my-name")
+              .build(),
+            false,
+            new AttributeRef[] { AttributeRef.fromPath("/"), AttributeRef.fromPath("") },
+            "{\"kind\": \"org\", \"key\": \"my-key\", \"name\": \"my-name\"}"
         }
     );
   }
@@ -0,0 +1,181 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.internal.BaseTest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class EventInboxTest extends BaseTest {
+  @Test
+  public void itemsAreReturnedInOrder() {
+    EventInbox<String> inbox = new EventInbox<>(10);
+    assertTrue(inbox.offer("a"));
+    assertTrue(inbox.offer("b"));
+    assertTrue(inbox.offer("c"));
+    assertEquals(3, inbox.size());
+    assertEquals("a", inbox.poll());
+    assertEquals("b", inbox.poll());
+    assertEquals("c", inbox.poll());
+    assertNull(inbox.poll());
+    assertEquals(0, inbox.size());
+  }
+
+  @Test
+  public void offerFailsWhenCapacityIsReached() {
+    // capacity is deliberately not a power of two, to verify that it's enforced exactly
+    EventInbox<Integer> inbox = new EventInbox<>(3);
+    assertTrue(inbox.offer(1));
+    assertTrue(inbox.offer(2));
+    assertTrue(inbox.offer(3));
+    assertFalse(inbox.offer(4));
+    assertEquals(3, inbox.size());
+
+    assertEquals(Integer.valueOf(1), inbox.poll());
+    assertTrue(inbox.offer(5));
+    assertFalse(inbox.offer(6));
+
+    List<Integer> items = new ArrayList<>();
+    inbox.drainTo(items, 10);
+    assertThat(items, contains(2, 3, 5));
+  }
+
+  @Test
+  public void capacityOfZeroIsTreatedAsOne() {
+    EventInbox<String> inbox = new EventInbox<>(0);
+    assertTrue(inbox.offer("a"));
+    assertFalse(inbox.offer("b"));
+  }
+
+  @Test
+  public void slotsAreReusedAfterWrappingAround() {
+    EventInbox<Integer> inbox = new EventInbox<>(4);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(inbox.offer(i));
+      assertTrue(inbox.offer(i + 1000));
+      assertEquals(Integer.valueOf(i), inbox.poll());
+      assertEquals(Integer.valueOf(i + 1000), inbox.poll());
+    }
+    assertNull(inbox.poll());
+  }
+
+  @Test
+  public void drainToStopsAtMaxItems() {
+    EventInbox<Integer> inbox = new EventInbox<>(10);
+    for (int i = 0; i < 5; i++) {
+      inbox.offer(i);
+    }
+    List<Integer> items = new ArrayList<>();
+    assertEquals(3, inbox.drainTo(items, 3));
+    assertThat(items, contains(0, 1, 2));
+    assertEquals(2, inbox.drainTo(items, 3));
+    assertThat(items, contains(0, 1, 2, 3, 4));
+    assertEquals(0, inbox.drainTo(items, 3));
+  }
+
+  @Test
+  public void takeReturnsImmediatelyIfItemIsAvailable() throws Exception {
+    EventInbox<String> inbox = new EventInbox<>(10);
+    inbox.offer("a");
+    assertEquals("a", inbox.take());
+  }
+
+  @Test
+  public void takeWaitsForItem() throws Exception {
+    EventInbox<String> inbox = new EventInbox<>(10);
+    BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    Thread consumer = new Thread(() -> {
+      try {
+        received.add(inbox.take());
+      } catch (InterruptedException e) {
+        received.add(e);
+      }
+    });
+    consumer.start();
+    assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+
+    inbox.offer("a");
+    assertEquals("a", received.poll(5, TimeUnit.SECONDS));
+    consumer.join();
+  }
+
+  @Test
+  public void takeCanBeInterrupted() throws Exception {
+    EventInbox<String> inbox = new EventInbox<>(10);
+    BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+    Thread consumer = new Thread(() -> {
+      try {
+        received.add(inbox.take());
+      } catch (InterruptedException e) {
+        received.add(e);
+      }
+    });
+    consumer.start();
+    assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+
+    consumer.interrupt();
+    assertThat(received.poll(5, TimeUnit.SECONDS), instanceOf(InterruptedException.class));
+    consumer.join();
+  }
+
+  @Test
+  public void concurrentProducersNeverLoseOrDuplicateItems() throws Exception {
+    int producerCount = 4, itemsPerProducer = 10000, capacity = 100;
+    EventInbox<Integer> inbox = new EventInbox<>(capacity);
+    AtomicInteger rejected = new AtomicInteger(0);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> producers = new ArrayList<>();
+    for (int p = 0; p < producerCount; p++) {
+      final int base = p * itemsPerProducer;
+      Thread t = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {}
+        for (int i = 0; i < itemsPerProducer; i++) {
+          if (!inbox.offer(base + i)) {
+            rejected.incrementAndGet();
+          }
+        }
+      });
+      t.start();
+      producers.add(t);
+    }
+
+    Set<Integer> received = new HashSet<>();
+    List<Integer> batch = new ArrayList<>();
+    start.countDown();
+    boolean producersDone = false;
+    while (!producersDone || inbox.size() > 0) {
+      producersDone = true;
+      for (Thread t: producers) {
+        producersDone = producersDone && !t.isAlive();
+      }
+      batch.clear();
+      inbox.drainTo(batch, 50);
+      for (Integer item: batch) {
+        assertTrue("duplicate item " + item, received.add(item));
+      }
+      assertTrue(inbox.size() <= capacity);
+    }
+
+    assertEquals(producerCount * itemsPerProducer, received.size() + rejected.get());
+    assertNull(inbox.poll());
+  }
+}
@@ -676,6 +676,97 @@ public class EventOutputTest extends BaseEventTest {
         .build(), received3.get("measurements").get(1));
   }
 
+  @Test
+  public void outputIsExactlyTheSameAsJsonWriterOutput() throws Exception {
+    // JsonWriter escapes quotes, backslashes, control characters, and U+2028/U+2029, but not HTML characters
+    String key = "a\"b\\c\u2028<&>";
+    String escapedKey = "\"a\\\"b\\\\c\\u2028<&>\"";
+    LDContext context = LDContext.create("userkey");
+    EventSummarizer es = new EventSummarizer();
+    es.summarizeEvent(1000, key, 11, 1, LDValue.of("value"), LDValue.of("default"), context);
+    es.summarizeEvent(1000, "other", -1, -1, LDValue.of("x"), LDValue.ofNull(), context);
+    Event[] events = new Event[] {
+        new Event.FeatureRequest(100000, key, context, 11, 1, LDValue.of("value"), null, null, null,
+            false, null, false),
+        new Event.Custom(100001, key, context, LDValue.of(1), 2.5)
+    };
+
+    String expected = "[" +
+        "{\"kind\":\"feature\",\"creationDate\":100000,\"key\":" + escapedKey +
+        ",\"context\":{\"kind\":\"user\",\"key\":\"userkey\"},\"version\":11,\"variation\":1,\"value\":\"value\"}," +
+        "{\"kind\":\"custom\",\"creationDate\":100001,\"key\":" + escapedKey +
+        ",\"contextKeys\":{\"user\":\"userkey\"},\"data\":1,\"metricValue\":2.5}," +
+        "{\"kind\":\"summary\",\"startDate\":1000,\"endDate\":1000,\"features\":{" +
+        escapedKey + ":{\"default\":\"default\",\"contextKinds\":[\"user\"]," +
+        "\"counters\":[{\"variation\":1,\"version\":11,\"value\":\"value\",\"count\":1}]}," +
+        "\"other\":{\"contextKinds\":[\"user\"],\"counters\":[{\"unknown\":true,\"value\":\"x\",\"count\":1}]}" +
+        "}}]";
+
+    EventOutputFormatter f = new EventOutputFormatter(defaultEventsConfig());
+    EventSummary summary = es.getSummaryAndReset();
+    for (int i = 0; i < 2; i++) { // the second time, the escaped strings are cached
+      StringWriter w = new StringWriter();
+      assertEquals(3, f.writeOutputEvents(events, summary, w));
+      assertEquals(expected, w.toString());
+    }
+  }
+
+  @Test
+  public void outputStopsWhenPayloadLimitIsReached() throws Exception {
+    LDContext context = LDContext.create("userkey");
+    EventSummarizer es = new EventSummarizer();
+    es.summarizeEvent(1000, "flag", 11, 1, LDValue.of("value"), LDValue.of("default"), context);
+    EventSummary summary = es.getSummaryAndReset();
+    Event[] events = new Event[] {
+        new Event.Identify(1000, context),
+        new Event.Identify(1001, context),
+        new Event.Identify(1002, context)
+    };
+    EventOutputFormatter f = new EventOutputFormatter(defaultEventsConfig());
+    final int[] checks = new int[1];
+    EventOutputFormatter.PayloadLimit limit = () -> ++checks[0] >= 2;
+
+    StringWriter w1 = new StringWriter();
+    assertEquals(2, f.writeOutputEvents(events, 0, summary, w1, limit));
+    assertEquals(2, f.getNextEventIndex());
+    assertEquals(2, LDValue.parse(w1.toString()).size());
+
+    // the limit is not checked after the last event, so the summary is always included with it
+    StringWriter w2 = new StringWriter();
+    assertEquals(1, f.writeOutputEvents(events, 2, summary, w2, limit));
+    assertEquals(3, f.getNextEventIndex());
+    LDValue output = LDValue.parse(w2.toString());
+    assertEquals(2, output.size());
+    assertEquals(LDValue.of(1002), output.get(0).get("creationDate"));
+    assertEquals(LDValue.of("summary"), output.get(1).get("kind"));
+    assertEquals(2, checks[0]);
+  }
+
+  @Test
+  public void summaryIsOmittedIfNull() throws Exception {
+    Event[] events = new Event[] { new Event.Identify(1000, LDContext.create("userkey")) };
+    StringWriter w = new StringWriter();
+    assertEquals(1, new EventOutputFormatter(defaultEventsConfig()).writeOutputEvents(events, 0, null, w, null));
+    assertEquals(1, LDValue.parse(w.toString()).size());
+  }
+
+  @Test
+  public void escapedStringsAreCorrectAfterCacheIsFull() throws Exception {
+    EventOutputFormatter f = new EventOutputFormatter(defaultEventsConfig());
+    for (int i = 0; i < EventOutputFormatter.MAX_CACHED_STRINGS + 10; i++) {
+      assertEquals("\"key" + i + "\\\"\"", f.escapedString("key" + i + "\""));
+    }
+    assertEquals("\"key0\\\"\"", f.escapedString("key0\""));
+    assertEquals("null", f.escapedString(null));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void nonFiniteMetricValueIsRejected() throws Exception {
+    Event event = new Event.Custom(1000, "eventkey", LDContext.create("userkey"), null, Double.NaN);
+    new EventOutputFormatter(defaultEventsConfig()).writeOutputEvents(new Event[] { event }, new EventSummary(),
+        new StringWriter());
+  }
+
   @Test
   public void unknownEventClassIsNotSerialized() throws Exception {
     // This shouldn't be able to happen in reality.
@@ -0,0 +1,214 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.logging.LogCapture;
+import com.launchdarkly.sdk.internal.BaseTest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class EventPayloadSpoolTest extends BaseTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void payloadsAreReturnedInOrder() throws IOException {
+    EventPayloadSpool spool = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+    assertNull(spool.peek());
+    spool.add("id1", payload("first", false), 1);
+    spool.add("id2", payload("second", true), 2);
+
+    EventPayloadSpool.SpooledPayload p1 = spool.peek();
+    assertSame(p1, spool.peek());
+    assertPayload(p1, "id1", "first", false, 1);
+    spool.remove(p1);
+
+    EventPayloadSpool.SpooledPayload p2 = spool.peek();
+    assertPayload(p2, "id2", "second", true, 2);
+    spool.remove(p2);
+    assertNull(spool.peek());
+    assertEquals(0, spool.sizeInBytes());
+    assertEquals(0, tempDir.getRoot().list().length);
+  }
+
+  @Test
+  public void payloadsArePickedUpByNewInstance() throws IOException {
+    EventPayloadSpool spool1 = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, 50, testLogger);
+    for (int i = 0; i < 5; i++) {
+      spool1.add("id" + i, payload("payload" + i, false), 1);
+    }
+    int segmentCount = tempDir.getRoot().list().length;
+    assertTrue(segmentCount > 1);
+    // Each of these records is 34 bytes, so the first segment has two of them and is deleted after
+    // they are both removed. A segment that has only been partly removed would be read again from
+    // the start by a new instance.
+    spool1.remove(spool1.peek());
+    spool1.remove(spool1.peek());
+    assertEquals(segmentCount - 1, tempDir.getRoot().list().length);
+
+    EventPayloadSpool spool2 = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, 50, testLogger);
+    for (int i = 2; i < 5; i++) {
+      EventPayloadSpool.SpooledPayload p = spool2.peek();
+      assertPayload(p, "id" + i, "payload" + i, false, 1);
+      spool2.remove(p);
+    }
+    assertNull(spool2.peek());
+
+    spool2.add("id5", payload("payload5", false), 1);
+    assertPayload(spool2.peek(), "id5", "payload5", false, 1);
+  }
+
+  @Test
+  public void oldestSegmentsAreDiscardedWhenMaximumSizeIsReached() throws IOException {
+    EventPayloadSpool spool = new EventPayloadSpool(tempDir.getRoot(), 200, 0, 50, testLogger);
+    for (int i = 0; i < 10; i++) {
+      spool.add("id" + i, payload("payload" + i, false), 1);
+      assertTrue(spool.sizeInBytes() <= 200);
+    }
+    EventPayloadSpool.SpooledPayload p = spool.peek();
+    assertNotNull(p);
+    assertFalse(p.payloadId.equals("id0"));
+    String lastId = null;
+    while ((p = spool.peek()) != null) {
+      lastId = p.payloadId;
+      spool.remove(p);
+    }
+    assertEquals("id9", lastId);
+  }
+
+  @Test
+  public void payloadLargerThanMaximumSizeIsNotSaved() throws IOException {
+    EventPayloadSpool spool = new EventPayloadSpool(tempDir.getRoot(), 100, 0, testLogger);
+    spool.add("id1", payload(new String(new char[200]), false), 1);
+    assertNull(spool.peek());
+    assertEquals(0, spool.sizeInBytes());
+  }
+
+  @Test
+  public void expiredPayloadsAreDiscarded() throws Exception {
+    EventPayloadSpool spool = new EventPayloadSpool(tempDir.getRoot(), 100000, 1, testLogger);
+    spool.add("id1", payload("first", false), 1);
+    Thread.sleep(10);
+    assertNull(spool.peek());
+    assertEquals(0, tempDir.getRoot().list().length);
+  }
+
+  @Test
+  public void incompleteRecordIsDiscarded() throws IOException {
+    EventPayloadSpool spool1 = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+    spool1.add("id1", payload("first", false), 1);
+    File segment = tempDir.getRoot().listFiles()[0];
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.setLength(file.length() - 1); // as if the application had exited while writing it
+    }
+
+    EventPayloadSpool spool2 = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+    assertNull(spool2.peek());
+    assertFalse(segment.exists());
+  }
+
+  @Test
+  public void newPayloadIsNotAddedAfterIncompleteRecord() throws IOException {
+    EventPayloadSpool spool1 = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+    spool1.add("id1", payload("first", false), 1);
+    spool1.add("id2", payload("second", false), 1);
+    File segment = tempDir.getRoot().listFiles()[0];
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.setLength(file.length() - 1); // as if the application had exited while writing it
+    }
+
+    EventPayloadSpool spool2 = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+    spool2.add("id3", payload("third", false), 1);
+    assertEquals(2, spool2.getSegmentCount());
+
+    EventPayloadSpool.SpooledPayload p1 = spool2.peek();
+    assertPayload(p1, "id1", "first", false, 1);
+    spool2.remove(p1);
+    EventPayloadSpool.SpooledPayload p3 = spool2.peek();
+    assertPayload(p3, "id3", "third", false, 1);
+    spool2.remove(p3);
+    assertNull(spool2.peek());
+  }
+
+  @Test
+  public void corruptedRecordIsDiscarded() throws IOException {
+    EventPayloadSpool spool1 = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+    spool1.add("id1", payload("first", false), 1);
+    File segment = tempDir.getRoot().listFiles()[0];
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.seek(file.length() - 1);
+      file.write('X');
+    }
+
+    EventPayloadSpool spool2 = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+    assertNull(spool2.peek());
+  }
+
+  @Test
+  public void failedWritesDoNotAddSegments() throws IOException {
+    // A regular file where the directory should be means that no segment file can be created
+    File directory = new File(tempDir.getRoot(), "spool");
+    assertTrue(directory.createNewFile());
+    EventPayloadSpool spool = new EventPayloadSpool(directory, 100000, 0, testLogger);
+    for (int i = 0; i < 10; i++) {
+      spool.add("id" + i, payload("payload" + i, false), 1);
+    }
+    assertEquals(1, spool.getSegmentCount());
+    assertEquals(0, spool.sizeInBytes());
+    assertNull(spool.peek());
+    int failureWarnings = 0;
+    for (LogCapture.Message m: logCapture.getMessages()) {
+      if (m.getText().startsWith("Could not save undelivered events")) {
+        failureWarnings++;
+      }
+    }
+    assertEquals(1, failureWarnings);
+
+    // saving works again once the directory can be written to
+    assertTrue(directory.delete());
+    assertTrue(directory.mkdir());
+    spool.add("id10", payload("payload10", false), 1);
+    assertPayload(spool.peek(), "id10", "payload10", false, 1);
+  }
+
+  @Test
+  public void unrelatedFilesAreIgnored() throws IOException {
+    assertTrue(new File(tempDir.getRoot(), "other-file").createNewFile());
+    assertTrue(new File(tempDir.getRoot(), "payloads-x.spool").createNewFile());
+    EventPayloadSpool spool = new EventPayloadSpool(tempDir.getRoot(), 100000, 0, testLogger);
+    assertNull(spool.peek());
+    assertEquals(2, tempDir.getRoot().list().length);
+  }
+
+  private static EventSender.Payload payload(String data, boolean compressed) {
+    PayloadBuffer buffer = new PayloadBuffer(10);
+    buffer.reset(compressed);
+    byte[] bytes = data.getBytes(UTF8);
+    buffer.write(bytes, 0, bytes.length);
+    return buffer;
+  }
+
+  private static void assertPayload(EventPayloadSpool.SpooledPayload p, String payloadId, String data,
+      boolean compressed, int eventCount) {
+    assertNotNull(p);
+    assertEquals(payloadId, p.payloadId);
+    assertArrayEquals(data.getBytes(UTF8), p.toByteArray());
+    assertEquals(compressed, p.isCompressed());
+    assertEquals(eventCount, p.eventCount);
+  }
+}
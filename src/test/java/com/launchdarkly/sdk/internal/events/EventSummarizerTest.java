@@ -1,24 +1,25 @@
 package com.launchdarkly.sdk.internal.events;
 
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.launchdarkly.sdk.ContextKind;
 import com.launchdarkly.sdk.LDContext;
 import com.launchdarkly.sdk.LDValue;
 import com.launchdarkly.sdk.internal.BaseTest;
-import com.launchdarkly.sdk.internal.events.EventSummarizer.CounterValue;
+import com.launchdarkly.sdk.internal.events.EventSummarizer.ContextKindRegistry;
 import com.launchdarkly.sdk.internal.events.EventSummarizer.EventSummary;
 import com.launchdarkly.sdk.internal.events.EventSummarizer.FlagInfo;
-import com.launchdarkly.sdk.internal.events.EventSummarizer.SimpleIntKeyedMap;
 
 import org.junit.Test;
 
+import java.io.IOException;
+
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @SuppressWarnings("javadoc")
@@ -72,53 +73,292 @@ public class EventSummarizerTest extends BaseTest {
 
     EventSummarizer.EventSummary data = es.getSummaryAndReset();
     
-    assertThat(data.counters, equalTo(ImmutableMap.<String, FlagInfo>builder()
-        .put(flagKey1, new FlagInfo(default1,
-            new SimpleIntKeyedMap<SimpleIntKeyedMap<CounterValue>>()
-              .put(flagVersion1, new SimpleIntKeyedMap<CounterValue>()
-                    .put(1, new CounterValue(2, value1))
-                    .put(2, new CounterValue(1, value2))
-                    ),
-            ImmutableSet.of("user")))
-        .put(flagKey2, new FlagInfo(default2,
-            new SimpleIntKeyedMap<SimpleIntKeyedMap<CounterValue>>()
-              .put(flagVersion2, new SimpleIntKeyedMap<CounterValue>()
-                    .put(1, new CounterValue(1, value99))
-                    ),
-            ImmutableSet.of("user", "kind2")))
-        .put(unknownFlagKey, new FlagInfo(default3,
-            new SimpleIntKeyedMap<SimpleIntKeyedMap<CounterValue>>()
-              .put(-1, new SimpleIntKeyedMap<CounterValue>()
-                    .put(-1, new CounterValue(1, default3))
-                    ),
-            ImmutableSet.of("user")))
-        .build()));
+    assertEquals(3, data.flagCount());
+    assertEquals(new FlagInfo(flagKey1, default1)
+        .addCount(flagVersion1, 1, value1, 2)
+        .addCount(flagVersion1, 2, value2, 1)
+        .addContextKind("user"),
+        data.getFlag(flagKey1));
+    assertEquals(new FlagInfo(flagKey2, default2)
+        .addCount(flagVersion2, 1, value99, 1)
+        .addContextKind("user").addContextKind("kind2"),
+        data.getFlag(flagKey2));
+    assertEquals(new FlagInfo(unknownFlagKey, default3)
+        .addCount(-1, -1, default3, 1)
+        .addContextKind("user"),
+        data.getFlag(unknownFlagKey));
   }
   
+  @Test
+  public void contextKindsAreTrackedPerFlag() {
+    EventSummarizer es = new EventSummarizer();
+    LDContext orgContext = LDContext.create(ContextKind.of("org"), "key2");
+    LDContext multiKindContext = LDContext.createMulti(context, orgContext);
+    LDValue value = LDValue.of(true), defaultValue = LDValue.of(false);
+
+    es.summarizeEvent(1000, "key1", 1, 0, value, defaultValue, multiKindContext);
+    es.summarizeEvent(1000, "key2", 1, 0, value, defaultValue, multiKindContext);
+    es.summarizeEvent(1000, "key3", 1, 0, value, defaultValue, orgContext);
+    es.summarizeEvent(1000, "key4", 1, 0, value, defaultValue, context);
+    es.summarizeEvent(1000, "key4", 1, 0, value, defaultValue, orgContext);
+    es.summarizeEvent(1000, "key3", 1, 0, value, defaultValue, orgContext);
+
+    EventSummary summary = es.getSummaryAndReset();
+    assertEquals(new FlagInfo("key1", defaultValue).addCount(1, 0, value, 1)
+        .addContextKind("user").addContextKind("org"), summary.getFlag("key1"));
+    assertEquals(new FlagInfo("key2", defaultValue).addCount(1, 0, value, 1)
+        .addContextKind("user").addContextKind("org"), summary.getFlag("key2"));
+    assertEquals(new FlagInfo("key3", defaultValue).addCount(1, 0, value, 2)
+        .addContextKind("org"), summary.getFlag("key3"));
+    assertEquals(new FlagInfo("key4", defaultValue).addCount(1, 0, value, 2)
+        .addContextKind("org").addContextKind("user"), summary.getFlag("key4"));
+
+    // kinds are reset along with the counters
+    es.recycle(summary);
+    es.getSummaryAndReset();
+    es.summarizeEvent(1000, "key1", 1, 0, value, defaultValue, orgContext);
+    assertEquals(new FlagInfo("key1", defaultValue).addCount(1, 0, value, 1).addContextKind("org"),
+        es.getSummaryAndReset().getFlag("key1"));
+  }
+
+  @Test
+  public void contextKindsAreTrackedAfterRegistryIsFull() {
+    EventSummarizer es = new EventSummarizer();
+    LDValue value = LDValue.of(true), defaultValue = LDValue.of(false);
+    int kindCount = ContextKindRegistry.MAX_KINDS + 2;
+    FlagInfo expected = new FlagInfo("key1", defaultValue).addCount(1, 0, value, kindCount);
+    for (int i = 0; i < kindCount; i++) {
+      LDContext c = LDContext.createMulti(context, LDContext.create(ContextKind.of("kind" + i), "key"));
+      es.summarizeEvent(1000, "key1", 1, 0, value, defaultValue, c);
+      expected.addContextKind("kind" + i);
+    }
+    expected.addContextKind("user");
+
+    FlagInfo actual = es.getSummaryAndReset().getFlag("key1");
+    assertEquals(kindCount + 1, actual.contextKindCount());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void contextKindRegistryAssignsBitsUntilFull() {
+    ContextKindRegistry registry = new ContextKindRegistry();
+    for (int i = 0; i < ContextKindRegistry.MAX_KINDS; i++) {
+      assertEquals(i, registry.bitFor("kind" + i));
+    }
+    assertEquals(-1, registry.bitFor("another"));
+    assertEquals(3, registry.bitFor(new String("kind3")));
+    assertEquals("kind3", registry.nameOf(3));
+  }
+
+  @Test
+  public void flagsAreReusedAfterClearing() {
+    EventSummarizer es = new EventSummarizer();
+    LDValue value = LDValue.of(true), default1 = LDValue.of(false), default2 = LDValue.of("x");
+
+    es.summarizeEvent(1000, "key1", 1, 0, value, default1, context);
+    es.summarizeEvent(1000, "key2", 1, 0, value, default1, context);
+    EventSummary summary = es.getSummaryAndReset();
+    FlagInfo flag1 = summary.getFlag("key1");
+
+    es.recycle(summary); // this clears it
+    assertTrue(summary.isEmpty());
+    assertNull(summary.getFlag("key1"));
+    assertEquals(0, summary.startDate);
+    assertEquals(0, summary.endDate);
+
+    es.getSummaryAndReset(); // the recycled summary is now the current state
+    assertTrue(es.isEmpty());
+    es.summarizeEvent(2000, "key1", 2, 1, value, default2, context);
+    assertSame(flag1, summary.getFlag("key1"));
+    assertEquals(new FlagInfo("key1", default2).addCount(2, 1, value, 1).addContextKind("user"), flag1);
+    assertNull(summary.getFlag("key2"));
+    assertEquals(2000, summary.startDate);
+    assertEquals(2000, summary.endDate);
+
+    // key2 was not used in the last period, so it was removed and will get a new FlagInfo
+    es.clear();
+    es.summarizeEvent(3000, "key1", 2, 1, value, default2, context);
+    es.summarizeEvent(3000, "key2", 1, 0, value, default1, context);
+    assertSame(flag1, summary.getFlag("key1"));
+    assertEquals(new FlagInfo("key2", default1).addCount(1, 0, value, 1).addContextKind("user"),
+        summary.getFlag("key2"));
+    assertEquals(2, summary.flagCount());
+  }
+
+  @Test
+  public void recycledSummaryIsReusedAfterNextReset() {
+    EventSummarizer es = new EventSummarizer();
+    LDValue value = LDValue.of(true), defaultValue = LDValue.of(false);
+
+    es.summarizeEvent(1000, "key1", 1, 0, value, defaultValue, context);
+    EventSummary summary1 = es.getSummaryAndReset();
+    FlagInfo flag1 = summary1.getFlag("key1");
+
+    es.summarizeEvent(2000, "key1", 1, 0, value, defaultValue, context);
+    es.recycle(summary1);
+    assertTrue(summary1.isEmpty());
+    assertEquals(0, summary1.startDate);
+
+    EventSummary summary2 = es.getSummaryAndReset();
+    assertNotSame(summary1, summary2);
+    assertEquals(new FlagInfo("key1", defaultValue).addCount(1, 0, value, 1).addContextKind("user"),
+        summary2.getFlag("key1"));
+
+    // the recycled summary is now the current state, and reuses the same FlagInfo for key1
+    assertTrue(es.isEmpty());
+    es.summarizeEvent(3000, "key1", 1, 0, value, defaultValue, context);
+    EventSummary summary3 = es.getSummaryAndReset();
+    assertSame(summary1, summary3);
+    assertSame(flag1, summary3.getFlag("key1"));
+    assertEquals(3000, summary3.startDate);
+
+    // no summary has been recycled since then, so the next one is new
+    EventSummary summary4 = es.getSummaryAndReset();
+    assertNotSame(summary1, summary4);
+    assertNotSame(summary2, summary4);
+  }
+
+  @Test
+  public void onlyTheLastRecycledSummaryIsKept() {
+    EventSummarizer es = new EventSummarizer();
+    es.summarizeEvent(1000, "key1", 1, 0, LDValue.of(true), LDValue.of(false), context);
+    EventSummary summary1 = es.getSummaryAndReset();
+    es.summarizeEvent(2000, "key1", 1, 0, LDValue.of(true), LDValue.of(false), context);
+    EventSummary summary2 = es.getSummaryAndReset();
+
+    // both payloads were in flight at once, and summary2's finished serializing last
+    es.recycle(summary1);
+    es.recycle(summary2);
+
+    es.getSummaryAndReset(); // summary2 is now the current state
+    es.summarizeEvent(3000, "key1", 1, 0, LDValue.of(true), LDValue.of(false), context);
+    assertSame(summary2, es.getSummaryAndReset());
+    EventSummary summary4 = es.getSummaryAndReset();
+    assertNotSame(summary1, summary4);
+    assertNotSame(summary2, summary4);
+  }
+
+  @Test
+  public void tableGrowsAsFlagsAreAdded() {
+    EventSummarizer es = new EventSummarizer();
+    int initialCapacity = es.getSummaryAndReset().tableCapacity();
+    int flagCount = initialCapacity * 4;
+    for (int i = 0; i < flagCount; i++) {
+      es.summarizeEvent(1000, "key" + i, 1, 0, LDValue.of(i), LDValue.ofNull(), context);
+    }
+    for (int i = 0; i < flagCount; i++) {
+      es.summarizeEvent(1000, "key" + i, 1, 0, LDValue.of(i), LDValue.ofNull(), context);
+    }
+
+    EventSummary summary = es.getSummaryAndReset();
+    assertEquals(flagCount, summary.flagCount());
+    assertThat(summary.tableCapacity(), greaterThan(initialCapacity));
+    for (int i = 0; i < flagCount; i++) {
+      FlagInfo flagInfo = summary.getFlag("key" + i);
+      assertEquals("key" + i, flagInfo.key);
+      assertEquals(2, flagInfo.countAt(0));
+    }
+    assertNull(summary.getFlag("key" + flagCount));
+
+    // the next summary starts out with the same capacity
+    assertEquals(summary.tableCapacity(), es.getSummaryAndReset().tableCapacity());
+  }
+
+  @Test
+  public void flagInfoCountersAndContextKinds() {
+    FlagInfo flagInfo = new FlagInfo("key", LDValue.ofNull());
+    int capacity = 20;
+    for (int i = 0; i < capacity; i++) {
+      flagInfo.addCount(i % 2 == 0 ? -1 : i, i, LDValue.of(i), i);
+      flagInfo.addContextKind("kind" + i);
+    }
+    flagInfo.addCount(-1, 0, LDValue.of("ignored"), 5);
+    flagInfo.addContextKind("kind0");
+
+    assertEquals(capacity, flagInfo.counterCount());
+    assertEquals(capacity, flagInfo.contextKindCount());
+    for (int i = 0; i < capacity; i++) {
+      assertEquals(i % 2 == 0 ? -1 : i, flagInfo.versionAt(i));
+      assertEquals(i, flagInfo.variationAt(i));
+      assertEquals(LDValue.of(i), flagInfo.valueAt(i));
+      assertEquals(i == 0 ? 5 : i, flagInfo.countAt(i));
+      assertEquals("kind" + i, flagInfo.contextKindAt(i));
+    }
+  }
+
+  @Test
+  public void summaryCanBeAddedFromAnotherSummarizer() {
+    String key1 = "key1", key2 = "key2", key3 = "key3";
+    int version1 = 10, version2 = 20;
+    LDValue value1 = LDValue.of(1), value2 = LDValue.of(2), default1 = LDValue.of(-1);
+    LDContext context2 = LDContext.create(ContextKind.of("kind2"), "key2");
+
+    // expected result: the same operations, all done on one summarizer
+    EventSummarizer all = new EventSummarizer();
+
+    EventSummarizer es1 = new EventSummarizer();
+    EventSummarizer es2 = new EventSummarizer();
+    for (EventSummarizer es: new EventSummarizer[] { es1, all }) {
+      es.summarizeEvent(2000, key1, version1, 0, value1, default1, context);
+      es.summarizeEvent(2000, key1, version1, 1, value2, default1, context);
+      es.summarizeEvent(2000, key2, version1, 0, value1, default1, context);
+    }
+    for (EventSummarizer es: new EventSummarizer[] { es2, all }) {
+      es.summarizeEvent(1000, key1, version1, 0, value1, default1, context2); // existing counter
+      es.summarizeEvent(3000, key1, version1, 2, value1, default1, context); // new variation
+      es.summarizeEvent(3000, key2, version2, 0, value1, default1, context); // new version
+      es.summarizeEvent(3000, key3, version1, 0, value1, default1, context); // new flag
+    }
+
+    es1.addSummary(es2.getSummaryAndReset());
+    es1.addSummary(new EventSummarizer().getSummaryAndReset()); // adding an empty summary has no effect
+
+    EventSummary expected = all.getSummaryAndReset();
+    EventSummary actual = es1.getSummaryAndReset();
+    assertEquals(expected, actual);
+    assertEquals(1000, actual.startDate);
+    assertEquals(3000, actual.endDate);
+  }
+
   // The following implementations are used only in debug/test code, but may as well test them
   
   @Test
-  public void counterValueEquality() {
-    CounterValue value1 = new CounterValue(1, LDValue.of("a"));
-    CounterValue value2 = new CounterValue(1, LDValue.of("a"));
-    assertEquals(value1, value2);
-    assertEquals(value2, value1);
-    
-    for (CounterValue notEqualValue: new CounterValue[] {
-        new CounterValue(2, LDValue.of("a")),
-        new CounterValue(1, LDValue.of("b"))
+  public void flagInfoEquality() {
+    FlagInfo flagInfo = new FlagInfo("key", LDValue.of(1))
+        .addCount(1, 0, LDValue.of("a"), 1).addCount(1, 1, LDValue.of("b"), 2).addContextKind("user");
+    FlagInfo sameInDifferentOrder = new FlagInfo("key", LDValue.of(1))
+        .addCount(1, 1, LDValue.of("b"), 2).addCount(1, 0, LDValue.of("a"), 1).addContextKind("user");
+    assertEquals(flagInfo, sameInDifferentOrder);
+    assertEquals(sameInDifferentOrder, flagInfo);
+
+    for (FlagInfo notEqualValue: new FlagInfo[] {
+        new FlagInfo("key", LDValue.of(2))
+          .addCount(1, 0, LDValue.of("a"), 1).addCount(1, 1, LDValue.of("b"), 2).addContextKind("user"),
+        new FlagInfo("key", LDValue.of(1))
+          .addCount(1, 0, LDValue.of("a"), 1).addCount(1, 1, LDValue.of("b"), 3).addContextKind("user"),
+        new FlagInfo("key", LDValue.of(1))
+          .addCount(1, 0, LDValue.of("a"), 1).addCount(1, 1, LDValue.of("c"), 2).addContextKind("user"),
+        new FlagInfo("key", LDValue.of(1))
+          .addCount(1, 0, LDValue.of("a"), 1).addCount(2, 1, LDValue.of("b"), 2).addContextKind("user"),
+        new FlagInfo("key", LDValue.of(1))
+          .addCount(1, 0, LDValue.of("a"), 1).addContextKind("user"),
+        new FlagInfo("key", LDValue.of(1))
+          .addCount(1, 0, LDValue.of("a"), 1).addCount(1, 1, LDValue.of("b"), 2).addContextKind("org"),
+        new FlagInfo("key", LDValue.of(1))
+          .addCount(1, 0, LDValue.of("a"), 1).addCount(1, 1, LDValue.of("b"), 2)
     }) {
-      assertNotEquals(value1, notEqualValue);
-      assertNotEquals(notEqualValue, value1);
-      
-      assertNotEquals(value1, null);
-      assertNotEquals(value1, "x");
+      assertNotEquals(flagInfo, notEqualValue);
+      assertNotEquals(notEqualValue, flagInfo);
     }
+    assertNotEquals(flagInfo, null);
+    assertNotEquals(flagInfo, "x");
   }
   
   @Test
-  public void counterValueToString() {
-    assertEquals("(1,\"a\")", new CounterValue(1, LDValue.of("a")).toString());
+  public void flagInfoToString() {
+    assertEquals("(default=1, counters={(2,0)=(3,\"a\")}, contextKinds=user,org)",
+        new FlagInfo("key", LDValue.of(1)).addCount(2, 0, LDValue.of("a"), 3)
+          .addContextKind("user").addContextKind("org").toString());
   }
   
   @Test
@@ -168,32 +408,81 @@ public class EventSummarizerTest extends BaseTest {
     assertNotEquals(summary1, null);
     assertNotEquals(summary1, "x");
   }
-  
+
   @Test
-  public void simpleIntKeyedMapBehavior() {
-    // Tests the behavior of the inner class that we use instead of a Map.
-    SimpleIntKeyedMap<String> m = new SimpleIntKeyedMap<>();
-    int initialCapacity = m.capacity();
-    
-    assertEquals(0, m.size());
-    assertNotEquals(0, initialCapacity);
-    assertNull(m.get(1));
-    
-    for (int i = 0; i < initialCapacity; i++) {
-      m.put(i * 100, "value" + i);
+  public void eventSummariesWithDifferentFlagsAreNotEqual() {
+    EventSummarizer es1 = new EventSummarizer();
+    es1.summarizeEvent(1000, "key1", 1, 0, LDValue.of(1), LDValue.of(-1), context);
+
+    EventSummarizer es2 = new EventSummarizer(); // different flag key
+    es2.summarizeEvent(1000, "key2", 1, 0, LDValue.of(1), LDValue.of(-1), context);
+
+    EventSummarizer es3 = new EventSummarizer(); // additional flag
+    es3.summarizeEvent(1000, "key1", 1, 0, LDValue.of(1), LDValue.of(-1), context);
+    es3.summarizeEvent(1000, "key2", 1, 0, LDValue.of(1), LDValue.of(-1), context);
+
+    EventSummary summary1 = es1.getSummaryAndReset();
+    assertNotEquals(summary1, es2.getSummaryAndReset());
+    assertNotEquals(summary1, es3.getSummaryAndReset());
+  }
+
+  @Test
+  public void eventSummaryToString() {
+    EventSummarizer es = new EventSummarizer();
+    es.summarizeEvent(1000, "key1", 1, 0, LDValue.of(1), LDValue.of(-1), context);
+    assertEquals("{key1=(default=-1, counters={(1,0)=(1,1)}, contextKinds=user)}",
+        es.getSummaryAndReset().toString());
+  }
+
+  @Test
+  public void serializedValuesAreReusedForSameInstances() throws IOException {
+    LDValue value1 = LDValue.parse("{\"a\":[1,2,\"<\"]}"), value2 = LDValue.of("x");
+    LDValue defaultValue = LDValue.of(true);
+    FlagInfo flagInfo = new FlagInfo("key1", defaultValue);
+    flagInfo.addCount(1, 0, value1, 1).addCount(1, 1, value2, 1);
+
+    String json1 = flagInfo.serializedValueAt(0);
+    assertEquals("{\"a\":[1,2,\"\\u003c\"]}", json1);
+    assertEquals("\"x\"", flagInfo.serializedValueAt(1));
+    String defaultJson = flagInfo.serializedDefault();
+    assertEquals("true", defaultJson);
+
+    flagInfo.reset();
+    flagInfo.addCount(1, 1, value2, 1).addCount(1, 0, value1, 1);
+    assertSame(json1, flagInfo.serializedValueAt(1));
+    assertSame(defaultJson, flagInfo.serializedDefault());
+  }
+
+  @Test
+  public void serializedValuesAreRecomputedForDifferentInstances() throws IOException {
+    FlagInfo flagInfo = new FlagInfo("key1", LDValue.of(1));
+    flagInfo.addCount(1, 0, LDValue.of("a"), 1);
+    assertEquals("\"a\"", flagInfo.serializedValueAt(0));
+    assertEquals("1", flagInfo.serializedDefault());
+
+    flagInfo.reset();
+    flagInfo.defaultVal = LDValue.of(2);
+    flagInfo.addCount(1, 0, LDValue.of("b"), 1);
+    assertEquals("\"b\"", flagInfo.serializedValueAt(0));
+    assertEquals("2", flagInfo.serializedDefault());
+  }
+
+  @Test
+  public void serializedValuesAreReplacedWhenThereAreTooMany() throws IOException {
+    FlagInfo flagInfo = new FlagInfo("key1", LDValue.ofNull());
+    int n = FlagInfo.MAX_SERIALIZED_VALUES + 2;
+    LDValue[] values = new LDValue[n];
+    for (int i = 0; i < n; i++) {
+      values[i] = LDValue.of(i);
+      flagInfo.addCount(1, i, values[i], 1);
     }
-    
-    assertEquals(initialCapacity, m.size());
-    assertEquals(initialCapacity, m.capacity());
-    
-    for (int i = 0; i < initialCapacity; i++) {
-      assertEquals("value" + i, m.get(i * 100));
+    String[] json = new String[n];
+    for (int i = 0; i < n; i++) {
+      json[i] = flagInfo.serializedValueAt(i);
+      assertEquals(String.valueOf(i), json[i]);
     }
-    assertNull(m.get(33));
-    
-    m.put(33, "other");
-    assertNotEquals(initialCapacity, m.capacity());
-    assertEquals(initialCapacity + 1, m.size());
-    assertEquals("other", m.get(33));
+    // the first two were replaced by the last two, so they are serialized again
+    assertNotSame(json[0], flagInfo.serializedValueAt(0));
+    assertSame(json[n - 1], flagInfo.serializedValueAt(n - 1));
   }
 }
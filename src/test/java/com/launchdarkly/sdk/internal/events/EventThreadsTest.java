@@ -0,0 +1,96 @@
+package com.launchdarkly.sdk.internal.events;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+@SuppressWarnings("javadoc")
+public class EventThreadsTest extends BaseEventTest {
+  @Test
+  public void platformThreadFactoryCreatesDaemonThreads() {
+    Thread t = EventThreads.platformThreadFactory(Thread.MIN_PRIORITY).newThread(() -> {});
+    assertTrue(t.isDaemon());
+    assertEquals(Thread.MIN_PRIORITY, t.getPriority());
+    assertThat(t.getName(), startsWith(EventThreads.THREAD_NAME_PREFIX));
+  }
+
+  @Test
+  public void eventProcessorsCreateAllOfTheirThreadsWithTheSuppliedFactory() throws Exception {
+    // This doesn't depend on the Java version, unlike the virtual thread test below
+    int processorCount = 10, poolSize = 2;
+    ThreadFactory platformFactory = EventThreads.platformThreadFactory(Thread.NORM_PRIORITY);
+    List<Thread> threadsCreated = Collections.synchronizedList(new ArrayList<>());
+    ThreadFactory countingFactory = r -> {
+      Thread t = platformFactory.newThread(r);
+      threadsCreated.add(t);
+      return t;
+    };
+    MockEventSender es = new MockEventSender();
+    List<DefaultEventProcessor> processors = new ArrayList<>();
+    try {
+      for (int i = 0; i < processorCount; i++) {
+        DefaultEventProcessor ep = new DefaultEventProcessor(
+            baseConfig(es).eventSendingThreadPoolSize(poolSize).build(), sharedExecutor, countingFactory, testLogger);
+        processors.add(ep);
+        ep.sendEvent(identifyEvent(user));
+        ep.flushAsync();
+      }
+      for (int i = 0; i < processorCount; i++) {
+        es.awaitAnalytics();
+      }
+      // each processor has a main loop thread plus one for each delivery worker
+      assertEquals(processorCount * (1 + poolSize), threadsCreated.size());
+    } finally {
+      for (DefaultEventProcessor ep: processors) {
+        ep.close();
+      }
+    }
+    for (Thread t: threadsCreated) {
+      t.join(5000);
+      assertFalse("thread " + t.getName() + " was still running after close", t.isAlive());
+    }
+  }
+
+  @Test
+  public void manyEventProcessorsOnVirtualThreadsUseFewPlatformThreads() throws Exception {
+    ThreadFactory factory = EventThreads.virtualThreadFactory();
+    assumeTrue("virtual threads are not available in this Java runtime", factory != null);
+
+    int processorCount = 100; // with platform threads, each of these would have 6 threads
+    int platformThreadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+    MockEventSender es = new MockEventSender();
+    List<DefaultEventProcessor> processors = new ArrayList<>();
+    try {
+      for (int i = 0; i < processorCount; i++) {
+        DefaultEventProcessor ep = new DefaultEventProcessor(baseConfig(es).build(), sharedExecutor,
+            factory, testLogger);
+        processors.add(ep);
+        ep.sendEvent(identifyEvent(user));
+        ep.flushAsync();
+      }
+      for (int i = 0; i < processorCount; i++) {
+        es.awaitAnalytics();
+      }
+
+      // Virtual threads run on a pool of carrier threads that is about the size of the CPU count
+      int platformThreadsAdded = ManagementFactory.getThreadMXBean().getThreadCount() - platformThreadsBefore;
+      assertThat(platformThreadsAdded, lessThan(Runtime.getRuntime().availableProcessors() + 20));
+    } finally {
+      for (DefaultEventProcessor ep: processors) {
+        ep.close();
+      }
+    }
+  }
+}
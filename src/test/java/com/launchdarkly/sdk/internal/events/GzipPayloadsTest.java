@@ -0,0 +1,99 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.internal.BaseTest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class GzipPayloadsTest extends BaseTest {
+  private static final byte[] DATA = makeRepetitiveData();
+
+  @Test
+  public void validLevel() {
+    assertEquals(0, GzipPayloads.validLevel(0));
+    assertEquals(1, GzipPayloads.validLevel(1));
+    assertEquals(9, GzipPayloads.validLevel(9));
+    assertEquals(-1, GzipPayloads.validLevel(-1));
+    assertEquals(-1, GzipPayloads.validLevel(-2));
+    assertEquals(-1, GzipPayloads.validLevel(10));
+  }
+
+  @Test
+  public void dataCanBeDecompressedAtAnyLevel() throws IOException {
+    for (int level: new int[] { -1, 0, 1, 9 }) {
+      assertArrayEquals(DATA, GzipPayloads.decompress(compress(DATA, level)));
+    }
+  }
+
+  @Test
+  public void higherLevelsProduceSmallerOutput() throws IOException {
+    int uncompressed = compress(DATA, 0).length;
+    int fastest = compress(DATA, 1).length;
+    int best = compress(DATA, 9).length;
+    assertThat(fastest, lessThan(uncompressed));
+    assertThat(best, lessThan(fastest));
+  }
+
+  @Test(expected=IOException.class)
+  public void decompressingInvalidDataThrowsException() throws IOException {
+    GzipPayloads.decompress(DATA);
+  }
+
+  @Test
+  public void defaultCompressedSenderMethodDecompressesData() throws IOException {
+    AtomicReference<byte[]> received = new AtomicReference<>();
+    EventSender sender = new EventSender() {
+      @Override
+      public void close() throws IOException {}
+
+      @Override
+      public Result sendAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
+        received.set(data);
+        return new Result(true, false, null);
+      }
+
+      @Override
+      public Result sendDiagnosticEvent(byte[] data, URI eventsBaseUri) {
+        return null;
+      }
+    };
+
+    EventSender.Result result = sender.sendCompressedAnalyticsEvents(compress(DATA, -1), 1, URI.create("http://fake"));
+    assertTrue(result.isSuccess());
+    assertArrayEquals(DATA, received.get());
+
+    result = sender.sendCompressedAnalyticsEvents(DATA, 1, URI.create("http://fake"));
+    assertFalse(result.isSuccess());
+    assertFalse(result.isMustShutDown());
+  }
+
+  private static byte[] compress(byte[] data, int level) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (OutputStream out = GzipPayloads.compressingStream(buffer, level, 1000)) {
+      out.write(data);
+    }
+    return buffer.toByteArray();
+  }
+
+  private static byte[] makeRepetitiveData() {
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      s.append("{\"kind\":\"feature\",\"key\":\"flag").append(i % 37).append("\",\"value\":").append(i % 3).append("},");
+    }
+    return s.toString().getBytes(Charset.forName("UTF-8"));
+  }
+}
@@ -0,0 +1,131 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.google.gson.stream.JsonWriter;
+import com.launchdarkly.sdk.EvaluationReason;
+import com.launchdarkly.sdk.LDValue;
+import com.launchdarkly.sdk.internal.BaseTest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static com.launchdarkly.sdk.internal.GsonHelpers.gsonInstance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class JsonValueWriterTest extends BaseTest {
+  private static final LDValue[] VALUES = new LDValue[] {
+      LDValue.ofNull(),
+      LDValue.of(true),
+      LDValue.of(false),
+      LDValue.of(0),
+      LDValue.of(-12345),
+      LDValue.of(3.0),
+      LDValue.of(1.5),
+      LDValue.of(10000000000L),
+      LDValue.of(1e300),
+      LDValue.of(Double.NaN),
+      LDValue.of(""),
+      LDValue.of("a \"quoted\" \\ string\n"),
+      LDValue.of("<html>&='"),
+      LDValue.of("\u2028\u2029\u0007"),
+      LDValue.parse("[]"),
+      LDValue.parse("{}"),
+      LDValue.parse("[1, \"two\", null, [true, {}], {\"a\": 3}]"),
+      LDValue.parse("{\"a\": 1, \"b<\": \"&\", \"c\": null, \"d\": [null], \"e\": {\"f\": {\"g\": null, \"h\": 2.5}}}"),
+  };
+
+  @Test
+  public void valuesAreWrittenTheSameAsGson() throws IOException {
+    for (int i = 0; i < VALUES.length; i++) {
+      assertEquals("value " + i, writeWithGson(VALUES[i]), writeDirectly(VALUES[i]));
+    }
+  }
+
+  @Test
+  public void nullReferenceIsWrittenAsNull() throws IOException {
+    StringWriter sw = new StringWriter();
+    JsonWriter jw = new JsonWriter(sw);
+    JsonValueWriter.writeLDValue(null, jw);
+    jw.flush();
+    assertEquals("null", sw.toString());
+  }
+
+  @Test
+  public void writerSettingsAreRestored() throws IOException {
+    JsonWriter jw = new JsonWriter(new StringWriter());
+    jw.setLenient(false);
+    jw.setHtmlSafe(false);
+    jw.setSerializeNulls(true);
+    JsonValueWriter.writeLDValue(LDValue.of(Double.NaN), jw);
+    assertFalse(jw.isLenient());
+    assertFalse(jw.isHtmlSafe());
+    assertTrue(jw.getSerializeNulls());
+
+    JsonValueWriter.writeEvaluationReason(EvaluationReason.off(), jw);
+    assertFalse(jw.isHtmlSafe());
+  }
+
+  @Test
+  public void reasonsAreWrittenTheSameAsGson() throws IOException {
+    EvaluationReason[] reasons = new EvaluationReason[] {
+        EvaluationReason.off(),
+        EvaluationReason.fallthrough(),
+        EvaluationReason.fallthrough(true),
+        EvaluationReason.targetMatch(),
+        EvaluationReason.ruleMatch(1, "id<&>"),
+        EvaluationReason.ruleMatch(0, null, true),
+        EvaluationReason.prerequisiteFailed("prereq<&>"),
+        EvaluationReason.error(EvaluationReason.ErrorKind.WRONG_TYPE),
+        EvaluationReason.exception(new Exception("sorry")),
+        EvaluationReason.fallthrough().withBigSegmentsStatus(EvaluationReason.BigSegmentsStatus.STALE)
+    };
+    for (EvaluationReason reason: reasons) {
+      StringWriter sw1 = new StringWriter();
+      JsonWriter jw1 = new JsonWriter(sw1);
+      gsonInstance().toJson(reason, EvaluationReason.class, jw1);
+      jw1.flush();
+
+      StringWriter sw2 = new StringWriter();
+      JsonWriter jw2 = new JsonWriter(sw2);
+      JsonValueWriter.writeEvaluationReason(reason, jw2);
+      jw2.flush();
+
+      assertEquals(reason.toString(), sw1.toString(), sw2.toString());
+    }
+  }
+
+  // Writes the value as the value of an object property, between two other properties, so that we
+  // also test that omitted null properties and HTML escaping work the same way.
+  private static String writeWithGson(LDValue value) throws IOException {
+    StringWriter sw = new StringWriter();
+    JsonWriter jw = startObject(sw);
+    gsonInstance().toJson(value, LDValue.class, jw);
+    return endObject(sw, jw);
+  }
+
+  private static String writeDirectly(LDValue value) throws IOException {
+    StringWriter sw = new StringWriter();
+    JsonWriter jw = startObject(sw);
+    JsonValueWriter.writeLDValue(value, jw);
+    return endObject(sw, jw);
+  }
+
+  private static JsonWriter startObject(StringWriter sw) throws IOException {
+    JsonWriter jw = new JsonWriter(sw);
+    jw.beginObject();
+    jw.name("before<").value("<");
+    jw.name("value");
+    return jw;
+  }
+
+  private static String endObject(StringWriter sw, JsonWriter jw) throws IOException {
+    jw.name("after<").value("<");
+    jw.endObject();
+    jw.flush();
+    return sw.toString();
+  }
+}
@@ -0,0 +1,246 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.internal.BaseTest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class PayloadBufferTest extends BaseTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final byte[] DATA = "{\"kind\":\"feature\"}".getBytes(UTF8);
+
+  @Test
+  public void bufferIsReusedAfterReset() throws IOException {
+    PayloadBuffer buffer = new PayloadBuffer(10);
+    for (int i = 0; i < 100; i++) {
+      buffer.write(DATA);
+    }
+    int capacity = buffer.capacity();
+    assertEquals(DATA.length * 100, buffer.size());
+
+    buffer.reset(false);
+    assertEquals(0, buffer.size());
+    for (int i = 0; i < 100; i++) {
+      buffer.write(DATA);
+    }
+    assertEquals(capacity, buffer.capacity());
+  }
+
+  @Test
+  public void payloadCanBeWrittenMoreThanOnce() throws IOException {
+    PayloadBuffer buffer = new PayloadBuffer(10);
+    buffer.write(DATA);
+
+    for (int i = 0; i < 2; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      buffer.writeTo(out);
+      assertArrayEquals(DATA, out.toByteArray());
+    }
+  }
+
+  @Test
+  public void compressedFlagIsSetByReset() {
+    PayloadBuffer buffer = new PayloadBuffer(10);
+    assertFalse(buffer.isCompressed());
+    buffer.reset(true);
+    assertTrue(buffer.isCompressed());
+    buffer.reset(false);
+    assertFalse(buffer.isCompressed());
+  }
+
+  @Test
+  public void writerIsReusedForEachPayload() throws IOException {
+    PayloadBuffer buffer = new PayloadBuffer(10);
+    Writer writer1 = buffer.startPayload(null);
+    writer1.write("first");
+    buffer.finishPayload();
+    assertEquals("first", new String(buffer.toByteArray(), UTF8));
+    buffer.recycle();
+
+    Writer writer2 = buffer.startPayload(null);
+    writer2.write("second");
+    buffer.finishPayload();
+    assertSame(writer1, writer2);
+    assertEquals("second", new String(buffer.toByteArray(), UTF8));
+  }
+
+  @Test
+  public void compressedPayloadIsFinishedByFinishPayload() throws IOException {
+    PayloadBuffer buffer = new PayloadBuffer(10);
+    for (int i = 0; i < 2; i++) {
+      Writer writer = buffer.startPayload(6);
+      writer.write("payload" + i);
+      buffer.finishPayload();
+      assertTrue(buffer.isCompressed());
+      assertEquals("payload" + i, new String(GzipPayloads.decompress(buffer.toByteArray()), UTF8));
+      buffer.recycle();
+    }
+
+    buffer.startPayload(null).write("uncompressed");
+    buffer.finishPayload();
+    assertFalse(buffer.isCompressed());
+    assertEquals("uncompressed", new String(buffer.toByteArray(), UTF8));
+  }
+
+  @Test
+  public void uncompressedSizeIsCountedForEachPayload() throws IOException {
+    PayloadBuffer buffer = new PayloadBuffer(10);
+    String data = "abcdefghij\u00e9";
+    for (int i = 0; i < 2; i++) {
+      Writer writer = buffer.startPayload(6);
+      assertEquals(0, buffer.uncompressedSize());
+      writer.write(data);
+      assertEquals(12, buffer.uncompressedSize());
+      writer.write(data);
+      assertEquals(24, buffer.uncompressedSize());
+      buffer.finishPayload();
+      buffer.recycle();
+    }
+  }
+
+  @Test
+  public void uncompressedSizeIsCountedWithoutFlushingWriter() throws IOException {
+    PayloadBuffer buffer = new PayloadBuffer(100);
+    Writer writer = buffer.startPayload(null);
+    String data = "a\u00e9\u20ac\ud83d\ude00"; // 1, 2, 3, and 4 bytes in UTF-8
+    writer.write(data);
+    assertEquals(10, buffer.uncompressedSize());
+    assertEquals(0, buffer.size()); // still in the writer's buffer
+    buffer.finishPayload();
+    assertEquals(data.getBytes(UTF8).length, buffer.size());
+  }
+
+  @Test
+  public void abandonedPayloadDoesNotAffectNextPayload() throws IOException {
+    PayloadBuffer buffer = new PayloadBuffer(100);
+    Writer writer1 = buffer.startPayload(6);
+    writer1.write("this payload was never finished");
+
+    Writer writer2 = buffer.startPayload(null);
+    assertNotSame(writer1, writer2);
+    writer2.write("second");
+    buffer.finishPayload();
+    assertEquals("second", new String(buffer.toByteArray(), UTF8));
+  }
+
+  @Test
+  public void growthIsCounted() throws IOException {
+    DefaultEventProcessor.OutputBufferMetrics metrics = new DefaultEventProcessor.OutputBufferMetrics();
+    PayloadBuffer buffer = new PayloadBuffer(10, 100000, metrics);
+    buffer.write(new byte[5]);
+    buffer.write(0);
+    assertEquals(0, metrics.getGrowthCount());
+
+    buffer.write(new byte[20]);
+    assertEquals(1, metrics.getGrowthCount());
+    buffer.write(new byte[100]);
+    assertEquals(2, metrics.getGrowthCount());
+    assertEquals(0, metrics.getShrinkCount());
+  }
+
+  @Test
+  public void bufferIsShrunkWhenRecentPayloadsAreMuchSmaller() throws IOException {
+    DefaultEventProcessor.OutputBufferMetrics metrics = new DefaultEventProcessor.OutputBufferMetrics();
+    PayloadBuffer buffer = new PayloadBuffer(100, 1000000, metrics);
+    buffer.write(new byte[100000]);
+    buffer.recycle();
+    int largeCapacity = buffer.capacity();
+    assertThat(largeCapacity, greaterThanOrEqualTo(100000));
+
+    // the large payload is still one of the recent ones, so the buffer is kept
+    for (int i = 0; i < PayloadBuffer.RECENT_PAYLOAD_COUNT - 1; i++) {
+      buffer.write(new byte[1000]);
+      buffer.recycle();
+      assertEquals(largeCapacity, buffer.capacity());
+    }
+    assertEquals(0, metrics.getShrinkCount());
+
+    buffer.write(new byte[1000]);
+    buffer.recycle();
+    assertEquals(1, metrics.getShrinkCount());
+    assertThat(buffer.capacity(), greaterThanOrEqualTo(1000));
+    assertThat(buffer.capacity(), lessThan(2000));
+  }
+
+  @Test
+  public void bufferLargerThanMaximumIsReleasedImmediately() throws IOException {
+    DefaultEventProcessor.OutputBufferMetrics metrics = new DefaultEventProcessor.OutputBufferMetrics();
+    PayloadBuffer buffer = new PayloadBuffer(100, 5000, metrics);
+    buffer.write(new byte[10000]);
+    buffer.recycle();
+    assertEquals(1, metrics.getShrinkCount());
+    assertEquals(5000, buffer.capacity());
+  }
+
+  @Test
+  public void bufferIsNotShrunkBelowMinimumSize() throws IOException {
+    PayloadBuffer buffer = new PayloadBuffer(1000, 100000, new DefaultEventProcessor.OutputBufferMetrics());
+    for (int i = 0; i < PayloadBuffer.RECENT_PAYLOAD_COUNT * 2; i++) {
+      buffer.write(new byte[10]);
+      buffer.recycle();
+    }
+    assertEquals(1000, buffer.capacity());
+  }
+
+  @Test
+  public void defaultSenderMethodPassesUncompressedPayloadAsByteArray() throws IOException {
+    PayloadBuffer buffer = new PayloadBuffer(10);
+    buffer.write(DATA);
+    RecordingSender sender = new RecordingSender();
+
+    assertTrue(sender.sendAnalyticsPayload(buffer, 1, URI.create("http://fake")).isSuccess());
+    assertEquals(1, sender.received.size());
+    assertArrayEquals(DATA, sender.received.get(0));
+  }
+
+  @Test
+  public void defaultSenderMethodPassesCompressedPayloadToCompressedMethod() throws IOException {
+    PayloadBuffer buffer = new PayloadBuffer(10);
+    buffer.reset(true);
+    try (OutputStream out = GzipPayloads.compressingStream(buffer, -1, 100)) {
+      out.write(DATA);
+    }
+    RecordingSender sender = new RecordingSender();
+
+    assertTrue(sender.sendAnalyticsPayload(buffer, 1, URI.create("http://fake")).isSuccess());
+    assertEquals(1, sender.received.size());
+    assertArrayEquals(DATA, sender.received.get(0)); // the default sendCompressedAnalyticsEvents decompressed it
+  }
+
+  private static final class RecordingSender implements EventSender {
+    final List<byte[]> received = new ArrayList<>();
+
+    @Override
+    public void close() throws IOException {}
+
+    @Override
+    public Result sendAnalyticsEvents(byte[] data, int eventCount, URI eventsBaseUri) {
+      received.add(data);
+      return new Result(true, false, null);
+    }
+
+    @Override
+    public Result sendDiagnosticEvent(byte[] data, URI eventsBaseUri) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.internal.BaseTest;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+
+@SuppressWarnings("javadoc")
+public class RetryPolicyTest extends BaseTest {
+  private final Random random = new Random();
+
+  @Test
+  public void delayDoublesUpToMaximum() {
+    RetryPolicy policy = new RetryPolicy(10, 100, 1000, 0, 0, 0, 0);
+    assertEquals(100, policy.delayBeforeRetry(1, random));
+    assertEquals(200, policy.delayBeforeRetry(2, random));
+    assertEquals(400, policy.delayBeforeRetry(3, random));
+    assertEquals(800, policy.delayBeforeRetry(4, random));
+    assertEquals(1000, policy.delayBeforeRetry(5, random));
+    assertEquals(1000, policy.delayBeforeRetry(100, random));
+  }
+
+  @Test
+  public void jitterReducesDelayByUpToRatio() {
+    RetryPolicy policy = new RetryPolicy(10, 1000, 1000, 0.25, 0, 0, 0);
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.delayBeforeRetry(1, random), allOf(greaterThanOrEqualTo(750L), lessThanOrEqualTo(1000L)));
+    }
+  }
+
+  @Test
+  public void invalidParametersAreReplacedWithDefaults() {
+    RetryPolicy policy = new RetryPolicy(0, 0, 0, -1, -1, -1, 0);
+    assertEquals(RetryPolicy.DEFAULT_MAX_ATTEMPTS, policy.maxAttempts);
+    assertEquals(DefaultEventSender.DEFAULT_RETRY_DELAY_MILLIS, policy.initialDelayMillis);
+    assertEquals(DefaultEventSender.DEFAULT_RETRY_DELAY_MILLIS, policy.maxDelayMillis);
+    assertEquals(0, policy.jitterRatio, 0);
+    assertEquals(0, policy.deadlineMillis);
+    assertEquals(0, policy.circuitBreakerThreshold);
+
+    assertEquals(1, new RetryPolicy(1, 100, 100, 2, 0, 0, 0).jitterRatio, 0);
+  }
+
+  @Test
+  public void fixedDelayIsOneRetryWithoutJitter() {
+    RetryPolicy policy = RetryPolicy.fixedDelay(300);
+    assertEquals(2, policy.maxAttempts);
+    assertEquals(300, policy.delayBeforeRetry(1, random));
+    assertEquals(0, policy.circuitBreakerThreshold);
+  }
+}
@@ -0,0 +1,93 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.google.gson.stream.JsonWriter;
+import com.launchdarkly.sdk.AttributeRef;
+import com.launchdarkly.sdk.LDContext;
+import com.launchdarkly.sdk.internal.BaseTest;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static com.launchdarkly.testhelpers.JsonAssertions.assertJsonEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@SuppressWarnings("javadoc")
+public class SerializedContextCacheTest extends BaseTest {
+  private static final EventContextFormatter FORMATTER = new EventContextFormatter(false,
+      new AttributeRef[] { AttributeRef.fromLiteral("email") });
+
+  private final DefaultEventProcessor.ContextCacheMetrics metrics = new DefaultEventProcessor.ContextCacheMetrics();
+
+  @Test
+  public void outputIsTheSameAsContextFormatter() throws IOException {
+    SerializedContextCache cache = new SerializedContextCache(FORMATTER, 10, metrics);
+    LDContext context = LDContext.builder("userkey").name("Lucy").set("email", "lucy@example.com")
+        .anonymous(true).build();
+    for (boolean redactAnonymous: new boolean[] { false, true }) {
+      StringWriter sw = new StringWriter();
+      JsonWriter jw = new JsonWriter(sw);
+      FORMATTER.write(context, jw, redactAnonymous);
+      jw.flush();
+      assertEquals(sw.toString(), cache.get(context, redactAnonymous));
+    }
+  }
+
+  @Test
+  public void sameContextInstanceIsSerializedOnlyOnce() throws IOException {
+    SerializedContextCache cache = new SerializedContextCache(FORMATTER, 10, metrics);
+    LDContext context = LDContext.create("userkey");
+    String json1 = cache.get(context, false);
+    String json2 = cache.get(context, false);
+    assertSame(json1, json2);
+    assertJsonEquals("{\"kind\":\"user\",\"key\":\"userkey\"}", json1);
+    assertEquals(1, metrics.getHitCount());
+    assertEquals(1, metrics.getMissCount());
+  }
+
+  @Test
+  public void equalContextInstancesAreCachedSeparately() throws IOException {
+    SerializedContextCache cache = new SerializedContextCache(FORMATTER, 10, metrics);
+    cache.get(LDContext.create("userkey"), false);
+    cache.get(LDContext.create("userkey"), false);
+    assertEquals(0, metrics.getHitCount());
+    assertEquals(2, metrics.getMissCount());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void redactedAndUnredactedFormsAreCachedSeparately() throws IOException {
+    SerializedContextCache cache = new SerializedContextCache(FORMATTER, 10, metrics);
+    LDContext context = LDContext.builder("userkey").name("Lucy").anonymous(true).build();
+    String unredacted = cache.get(context, false);
+    String redacted = cache.get(context, true);
+    assertJsonEquals("{\"kind\":\"user\",\"key\":\"userkey\",\"name\":\"Lucy\",\"anonymous\":true}",
+        unredacted);
+    assertJsonEquals("{\"kind\":\"user\",\"key\":\"userkey\",\"anonymous\":true," +
+        "\"_meta\":{\"redactedAttributes\":[\"name\"]}}", redacted);
+    assertSame(unredacted, cache.get(context, false));
+    assertSame(redacted, cache.get(context, true));
+    assertEquals(2, metrics.getHitCount());
+    assertEquals(2, metrics.getMissCount());
+  }
+
+  @Test
+  public void leastRecentlyUsedContextIsEvicted() throws IOException {
+    SerializedContextCache cache = new SerializedContextCache(FORMATTER, 2, metrics);
+    LDContext c1 = LDContext.create("key1"), c2 = LDContext.create("key2"), c3 = LDContext.create("key3");
+    cache.get(c1, false);
+    cache.get(c2, false);
+    cache.get(c1, false); // c2 is now the least recently used
+    cache.get(c3, false);
+    assertEquals(2, cache.size());
+    assertEquals(1, metrics.getHitCount());
+    assertEquals(3, metrics.getMissCount());
+
+    cache.get(c1, false);
+    assertEquals(2, metrics.getHitCount());
+    cache.get(c2, false);
+    assertEquals(4, metrics.getMissCount());
+  }
+}
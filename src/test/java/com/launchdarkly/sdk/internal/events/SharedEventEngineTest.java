@@ -0,0 +1,144 @@
+package com.launchdarkly.sdk.internal.events;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.launchdarkly.testhelpers.ConcurrentHelpers.awaitValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class SharedEventEngineTest extends BaseEventTest {
+  @Test
+  public void tenantsAreAssignedToShardWithFewestTenants() throws Exception {
+    try (SharedEventEngine engine = new SharedEventEngine(2, 1, null)) {
+      DefaultEventProcessor ep1 = makeTenant(engine, new MockEventSender());
+      DefaultEventProcessor ep2 = makeTenant(engine, new MockEventSender());
+      DefaultEventProcessor ep3 = makeTenant(engine, new MockEventSender());
+      assertEquals(2, engine.getTenantCount(0));
+      assertEquals(1, engine.getTenantCount(1));
+
+      ep1.close();
+      assertEquals(1, engine.getTenantCount(0));
+      DefaultEventProcessor ep4 = makeTenant(engine, new MockEventSender());
+      assertEquals(2, engine.getTenantCount(0));
+
+      ep2.close();
+      ep3.close();
+      ep4.close();
+      assertEquals(0, engine.getTenantCount(0));
+      assertEquals(0, engine.getTenantCount(1));
+    }
+  }
+
+  @Test
+  public void eachTenantDeliversItsOwnEvents() throws Exception {
+    MockEventSender es1 = new MockEventSender(), es2 = new MockEventSender();
+    Event.Identify event1 = identifyEvent(user), event2 = identifyEvent(user);
+
+    try (SharedEventEngine engine = new SharedEventEngine(1, 1, null)) {
+      try (DefaultEventProcessor ep1 = makeTenant(engine, es1);
+          DefaultEventProcessor ep2 = makeTenant(engine, es2)) {
+        ep1.sendEvent(event1);
+        ep2.sendEvent(event2);
+        ep2.sendEvent(event2);
+        ep1.flushAsync();
+        ep2.flushAsync();
+
+        assertThat(es1.getEventsFromLastRequest(), contains(isIdentifyEvent(event1, userJson)));
+        assertThat(es2.getEventsFromLastRequest(), contains(
+            isIdentifyEvent(event2, userJson), isIdentifyEvent(event2, userJson)));
+      }
+      assertTrue(es1.closed);
+      assertTrue(es2.closed);
+    }
+  }
+
+  @Test
+  public void tenantsUseOnlyTheEnginesThreads() throws Exception {
+    int tenantCount = 20, dispatcherThreads = 2, deliveryThreads = 3;
+    AtomicInteger threadsCreated = new AtomicInteger();
+    ThreadFactory threadFactory = r -> {
+      threadsCreated.incrementAndGet();
+      Thread t = new Thread(r);
+      t.setDaemon(true);
+      return t;
+    };
+    MockEventSender es = new MockEventSender();
+
+    try (SharedEventEngine engine = new SharedEventEngine(dispatcherThreads, deliveryThreads, threadFactory)) {
+      DefaultEventProcessor[] tenants = new DefaultEventProcessor[tenantCount];
+      for (int i = 0; i < tenantCount; i++) {
+        tenants[i] = makeTenant(engine, es);
+        tenants[i].sendEvent(identifyEvent(user));
+        tenants[i].flushAsync();
+      }
+      for (int i = 0; i < tenantCount; i++) {
+        es.awaitAnalytics();
+      }
+      assertThat(threadsCreated.get(), lessThanOrEqualTo(dispatcherThreads + deliveryThreads));
+
+      for (DefaultEventProcessor ep: tenants) {
+        ep.close();
+      }
+    }
+  }
+
+  @Test
+  public void multiPartAsyncPayloadDoesNotHoldDeliveryThread() throws Exception {
+    MockEventSender es1 = new MockEventSender(), es2 = new MockEventSender();
+    DeferredAsyncEventSender asyncSender = new DeferredAsyncEventSender(es1);
+    Event.Identify event1 = identifyEvent(user), event2 = identifyEvent(user), event3 = identifyEvent(user);
+    // With a tiny maxPayloadBytes, every event is a separate part of the same payload; with one
+    // worker, each part has to wait for the previous one to be delivered
+    EventsConfiguration config = baseConfig(asyncSender).asyncDelivery(true).eventSendingThreadPoolSize(1)
+        .maxPayloadBytes(1).build();
+
+    try (SharedEventEngine engine = new SharedEventEngine(1, 1, null)) {
+      try (DefaultEventProcessor ep1 = new DefaultEventProcessor(config, sharedExecutor, engine, testLogger);
+          DefaultEventProcessor ep2 = makeTenant(engine, es2)) {
+        ep1.sendEvent(event1);
+        ep1.sendEvent(event2);
+        ep1.flushAsync();
+        assertThat(es1.getEventsFromLastRequest(), contains(isIdentifyEvent(event1, userJson)));
+        es1.expectNoRequests(100);
+
+        // the engine's only delivery thread is not waiting for the first part to be delivered
+        ep2.sendEvent(event3);
+        ep2.flushAsync();
+        assertThat(es2.getEventsFromLastRequest(), contains(isIdentifyEvent(event3, userJson)));
+
+        awaitValue(asyncSender.callbacks, 5, TimeUnit.SECONDS).onResult(es1.result);
+        assertThat(es1.getEventsFromLastRequest(), contains(isIdentifyEvent(event2, userJson)));
+        awaitValue(asyncSender.callbacks, 5, TimeUnit.SECONDS).onResult(es1.result);
+      }
+    }
+  }
+
+  @Test
+  public void tenantCanBeFlushedAndClosedAfterEngineIsClosed() throws Exception {
+    MockEventSender es = new MockEventSender();
+    SharedEventEngine engine = new SharedEventEngine(1, 1, null);
+    DefaultEventProcessor ep = makeTenant(engine, es);
+    engine.close();
+
+    // These would wait forever if nothing completed their messages, so we do them on another thread
+    sharedExecutor.submit(() -> {
+      ep.sendEvent(identifyEvent(user));
+      ep.flushBlocking();
+      ep.close();
+      return null;
+    }).get(5, TimeUnit.SECONDS);
+    assertTrue(es.closed);
+  }
+
+  private DefaultEventProcessor makeTenant(SharedEventEngine engine, MockEventSender es) {
+    return new DefaultEventProcessor(baseConfig(es).build(), sharedExecutor, engine, testLogger);
+  }
+}
@@ -0,0 +1,75 @@
+package com.launchdarkly.sdk.internal.events;
+
+import com.launchdarkly.sdk.LDContext;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("javadoc")
+public class StripedEventSummarizerTest extends BaseEventTest {
+  @Test
+  public void onlyUntrackedFeatureEventsAreSummaryOnly() {
+    assertTrue(StripedEventSummarizer.isSummaryOnly(featureEvent(user, FLAG_KEY).build()));
+
+    assertFalse(StripedEventSummarizer.isSummaryOnly(featureEvent(user, FLAG_KEY).trackEvents(true).build()));
+    assertFalse(StripedEventSummarizer.isSummaryOnly(featureEvent(user, FLAG_KEY).debugEventsUntilDate(1L).build()));
+    assertFalse(StripedEventSummarizer.isSummaryOnly(featureEvent(user, FLAG_KEY).excludeFromSummaries(true).build()));
+    assertFalse(StripedEventSummarizer.isSummaryOnly(featureEvent(null, FLAG_KEY).build()));
+    assertFalse(StripedEventSummarizer.isSummaryOnly(customEvent(user, "eventkey").build()));
+    assertFalse(StripedEventSummarizer.isSummaryOnly(identifyEvent(user)));
+  }
+
+  @Test
+  public void countersAreDrainedIntoTargetSummarizer() {
+    StripedEventSummarizer ss = new StripedEventSummarizer(3, false);
+    Event.FeatureRequest fe = featureEvent(user, FLAG_KEY).build();
+    assertFalse(ss.summarizeEvent(fe));
+    assertFalse(ss.summarizeEvent(fe));
+
+    EventSummarizer expected = new EventSummarizer();
+    for (int i = 0; i < 2; i++) {
+      expected.summarizeEvent(fe.getCreationDate(), fe.getKey(), fe.getVersion(), fe.getVariation(),
+          fe.getValue(), fe.getDefaultVal(), fe.getContext());
+    }
+
+    EventSummarizer target = new EventSummarizer();
+    ss.drainTo(target);
+    assertEquals(expected.getSummaryAndReset(), target.getSummaryAndReset());
+
+    ss.drainTo(target);
+    assertTrue(target.isEmpty());
+  }
+
+  @Test
+  public void sameContextIsOnlyReportedOnceUntilContextsAreReset() {
+    StripedEventSummarizer ss = new StripedEventSummarizer(1, true);
+    LDContext user2 = LDContext.create("userkey2");
+
+    assertTrue(ss.summarizeEvent(featureEvent(user, "flag1").build()));
+    assertFalse(ss.summarizeEvent(featureEvent(user, "flag2").build()));
+    assertTrue(ss.summarizeEvent(featureEvent(user2, "flag1").build()));
+    assertTrue(ss.summarizeEvent(featureEvent(user, "flag1").build()));
+    assertFalse(ss.summarizeEvent(featureEvent(user, "flag1").build()));
+    assertEquals(2, ss.getAndClearDeduplicatedContexts());
+    assertEquals(0, ss.getAndClearDeduplicatedContexts());
+
+    ss.resetContexts();
+    assertTrue(ss.summarizeEvent(featureEvent(user, "flag1").build()));
+  }
+
+  @Test
+  public void forgottenContextIsReportedAgain() {
+    StripedEventSummarizer ss = new StripedEventSummarizer(1, true);
+    LDContext user2 = LDContext.create("userkey2");
+
+    assertTrue(ss.summarizeEvent(featureEvent(user, "flag1").build()));
+    ss.forgetContext(user2); // has no effect because it isn't the last context
+    assertFalse(ss.summarizeEvent(featureEvent(user, "flag1").build()));
+
+    ss.forgetContext(user);
+    assertTrue(ss.summarizeEvent(featureEvent(user, "flag1").build()));
+  }
+}